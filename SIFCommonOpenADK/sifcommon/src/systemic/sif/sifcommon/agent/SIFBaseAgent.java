@@ -37,9 +37,11 @@ import org.apache.log4j.Logger;
 
 import systemic.sif.sifcommon.BaseInfo;
 import systemic.sif.sifcommon.customObject.CustomObjectInterface;
+import systemic.sif.sifcommon.publisher.AdaptivePublisherSchedule;
 import systemic.sif.sifcommon.publisher.BasePublisher;
 import systemic.sif.sifcommon.subscriber.BaseSubscriber;
 import systemic.sif.sifcommon.utils.SIFCommonProperties;
+import systemic.sif.sifcommon.utils.VirtualThreads;
 import au.com.systemic.framework.utils.StringUtils;
 
 
@@ -204,6 +206,29 @@ public abstract class SIFBaseAgent extends Agent
         return initialisedPublishers;
     }
 
+    /**
+     * This method triggers an immediate run of the given publisher, i.e. because the source system has signalled
+     * a change (see BasePublisher.trigger()). Triggers that arrive within a short window are merged into one run.
+     * 
+     * @param publisherID The ID of the publisher to trigger.
+     * @param changedKeys The keys of the changed objects. Can be null if the keys are not known.
+     * 
+     * @return TRUE if the publisher has been triggered. FALSE if there is no initialised publisher with the given ID.
+     */
+    public boolean triggerPublisher(String publisherID, Collection<String> changedKeys)
+    {
+    	for (BasePublisher publisher : getInitialisedPublishers())
+    	{
+    		if (publisher.getId().equals(publisherID))
+    		{
+    			publisher.trigger(changedKeys);
+    			return true;
+    		}
+    	}
+    	logger.error("Cannot trigger Publisher "+publisherID+". No such publisher initialised for Agent "+getAgentID()+".");
+    	return false;
+    }
+
     public Mappings getAgentMappings()
     {
     	return mappings;
@@ -700,20 +725,23 @@ public abstract class SIFBaseAgent extends Agent
 			// will not execute the event processing.
 			frequency = (frequency == SIFCommonProperties.NO_EVENT) ? 3600 : frequency;
 			
-			if (multiThreaded)
+			if (multiThreaded || (publisherService == null))
 			{
-				publisherService = Executors.newSingleThreadScheduledExecutor();
-				
-				// Ensure there is 10 seconds between the start of each publisher so that they don't hammer
-				// the system at the same time during startup.
-				publisherService.scheduleWithFixedDelay(publisher, i*delay, frequency, TimeUnit.SECONDS);
+				// One scheduler per publisher or one shared by all publishers (agent setting only).
+				boolean virtualThreads = getFrameworkProperties().getPublisherVirtualThreads(getAgentID(), multiThreaded ? publisher.getId() : null);
+				publisherService = Executors.newSingleThreadScheduledExecutor(VirtualThreads.getThreadFactory((multiThreaded ? publisher.getId() : getAgentID()+"Publishers")+" ", virtualThreads));
+			}
+
+			publisher.startResponseSnapshot();
+
+			// Ensure there is 10 seconds between the start of each publisher so that they don't hammer
+			// the system at the same time during startup.
+			if (getFrameworkProperties().getEventAdaptiveFrequency(getAgentID(), publisher.getId()))
+			{
+				new AdaptivePublisherSchedule(publisher, publisherService, frequency).start(i*delay);
 			}
 			else
 			{
-				if (publisherService == null)
-				{
-					publisherService = Executors.newSingleThreadScheduledExecutor();
-				}
 				publisherService.scheduleWithFixedDelay(publisher, i*delay, frequency, TimeUnit.SECONDS);
 			}
 	        i++;
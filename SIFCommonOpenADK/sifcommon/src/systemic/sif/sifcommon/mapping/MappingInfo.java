@@ -15,9 +15,20 @@
 package systemic.sif.sifcommon.mapping;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import openadk.library.ADK;
+import openadk.library.ElementRef;
+import openadk.library.Query;
 import openadk.library.SIFMessageInfo;
+import openadk.library.SIFVersion;
+import openadk.library.tools.mapping.FieldMapping;
+import openadk.library.tools.mapping.Mapping;
 import openadk.library.tools.mapping.MappingsContext;
+import openadk.library.tools.mapping.XPathRule;
 
 
 /**
@@ -27,6 +38,11 @@ import openadk.library.tools.mapping.MappingsContext;
  * Outbound (publisher) or Inbound (subscriber) mapping information for the SIF Object the message is 
  * applicable to.<p>
  * 
+ * For SIF Requests the MappingInfo also holds the field restrictions of the SIF Query, i.e. the XPaths of the
+ * elements the subscriber has asked for. getRequestedFieldNames() returns the names of the fields of the 
+ * mapping that are needed to build these elements. It allows the ResultSetAdapter to skip all other field 
+ * mappings and the publisher to only select the required columns.<p>
+ * 
  * @see systemic.sif.sifcommon.subscriber.BaseSubscriber  
  * @see systemic.sif.sifcommon.publisher.BasePublisher
  * 
@@ -39,6 +55,8 @@ public class MappingInfo implements Serializable
     
 	private SIFMessageInfo sifMsgInfo = null;
 	private MappingsContext mappingCtx = null;  
+	private List<String> fieldRestrictions = null;
+	private Set<String> requestedFieldNames = null;
 
 	public MappingInfo()
 	{
@@ -74,5 +92,115 @@ public class MappingInfo implements Serializable
 	public void setMappingCtx(MappingsContext mappingCtx)
 	{
 		this.mappingCtx = mappingCtx;
+		this.requestedFieldNames = null;
+	}
+
+	/**
+	 * Sets the field restrictions of the given query. If the query is null or has no field restrictions then
+	 * all elements are requested.
+	 * 
+	 * @param query The SIF Query of the request.
+	 */
+	public void setFieldRestrictions(Query query)
+	{
+		fieldRestrictions = null;
+		requestedFieldNames = null;
+		if ((query != null) && query.hasFieldRestrictions())
+		{
+			SIFVersion version = (sifMsgInfo != null) && (sifMsgInfo.getLatestSIFRequestVersion() != null) ? sifMsgInfo.getLatestSIFRequestVersion() : ADK.getSIFVersion();
+			fieldRestrictions = new ArrayList<String>();
+			for (ElementRef field : query.getFieldRestrictionRefs())
+			{
+				String xPath = (field.getXPath() != null) ? field.getXPath() : field.getField().getSQPPath(version);
+				fieldRestrictions.add(QueryTranslator.normaliseXPath(xPath, query.getObjectTag()));
+			}
+		}
+	}
+
+	/**
+	 * Returns the XPaths of the requested elements relative to the SIF Object or null if all elements are 
+	 * requested.
+	 */
+	public List<String> getFieldRestrictions()
+	{
+		return fieldRestrictions;
+	}
+
+	public boolean hasFieldRestrictions()
+	{
+		return fieldRestrictions != null;
+	}
+
+	/**
+	 * Returns TRUE if the element or attribute with the given XPath is required to build the requested elements.
+	 * This is the case if all elements are requested, if it is a requested element, a child or a parent of a 
+	 * requested element or an attribute of such an element. Attributes of the SIF Object itself (i.e. the RefId)
+	 * are always required. Predicates in the XPath are ignored.
+	 * 
+	 * @param xPath The XPath relative to the SIF Object.
+	 * 
+	 * @return See description.
+	 */
+	public boolean isRequested(String xPath)
+	{
+		if (fieldRestrictions == null)
+		{
+			return true;
+		}
+		String path = QueryTranslator.normaliseXPath(xPath, null);
+		String element = path;
+		int attribute = path.lastIndexOf('@');
+		if (attribute >= 0)
+		{
+			element = (attribute == 0) ? "" : path.substring(0, attribute - 1);
+			if (element.length() == 0)
+			{
+				return true;
+			}
+		}
+		for (String requested : fieldRestrictions)
+		{
+			if (isSelfOrAncestor(element, requested) || isSelfOrAncestor(requested, path))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the names of the fields of the mapping context that are required to build the requested elements
+	 * (see isRequested()). If all elements are requested or there is no mapping context then null is returned.
+	 * 
+	 * @return See description.
+	 */
+	public synchronized Set<String> getRequestedFieldNames()
+	{
+		if ((fieldRestrictions == null) || (mappingCtx == null) || (mappingCtx.getFieldMappings() == null))
+		{
+			return null;
+		}
+		if (requestedFieldNames == null)
+		{
+			Set<String> fieldNames = new HashSet<String>();
+			for (Mapping mapping : mappingCtx.getFieldMappings())
+			{
+				if (mapping instanceof FieldMapping)
+				{
+					FieldMapping fieldMapping = (FieldMapping)mapping;
+					if (!(fieldMapping.getRule() instanceof XPathRule) || isRequested(((XPathRule)fieldMapping.getRule()).getPathExpression()))
+					{
+						fieldNames.add((fieldMapping.getAlias() != null) ? fieldMapping.getAlias() : fieldMapping.getFieldName());
+					}
+				}
+			}
+			requestedFieldNames = fieldNames;
+		}
+		return requestedFieldNames;
+	}
+
+	private boolean isSelfOrAncestor(String ancestor, String path)
+	{
+		return (ancestor.length() == 0) || path.equals(ancestor) || path.startsWith(ancestor+"/");
 	}
 }
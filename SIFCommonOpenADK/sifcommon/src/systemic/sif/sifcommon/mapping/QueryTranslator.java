@@ -0,0 +1,361 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.mapping;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import openadk.library.ADK;
+import openadk.library.ComparisonOperators;
+import openadk.library.Condition;
+import openadk.library.ConditionGroup;
+import openadk.library.GroupOperators;
+import openadk.library.Query;
+import openadk.library.SIFDataObject;
+import openadk.library.tools.mapping.FieldMapping;
+import openadk.library.tools.mapping.Mapping;
+import openadk.library.tools.mapping.MappingsContext;
+import openadk.library.tools.mapping.Rule;
+import openadk.library.tools.mapping.XPathRule;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class translates the conditions of a SIF Query into a parameterised SQL WHERE clause. It is intended
+ * for publishers whose SIFResponseIterator reads a table through JDBC and maps the rows with the
+ * ResultSetAdapter. Rather than reading the whole table and leaving it to the subscriber to find the
+ * requested objects, the publisher can restrict the rows it reads:<p>
+ *
+ * <code>
+ * QueryTranslator where = new QueryTranslator(query, mappingInfo.getMappingCtx());<br/>
+ * PreparedStatement stmt = connection.prepareStatement("SELECT * FROM STUDENT" + where.getWhereClause(" WHERE "));<br/>
+ * where.bind(stmt, 1);<br/>
+ * ...<br/>
+ * if (where.matches(sifObject)) { return sifObject; }
+ * </code><p>
+ *
+ * A condition is translated if its XPath, including its predicates, matches the XPath rule of exactly one
+ * field mapping of the MappingsContext. A condition on OtherIdList/OtherId[@Type='0001'] is therefore not
+ * translated if the only mapping is for OtherIdList/OtherId[@Type='0004']. The field name of that mapping is used as the column name unless a different SQL
+ * expression is given for that field in the constructor. Conditions are not translated if the field mapping
+ * uses a value set, a default value, a value expression or a rule other than an XPath, because the value in
+ * the database is then not the value given in the query. Only conditions with the operator EQ are translated.
+ * All values are bound as strings, so an ordered comparison (LT, GT, LE, GE) would compare numeric and date
+ * columns as text, and NE would exclude rows where the column is NULL.<p>
+ *
+ * Conditions that cannot be translated are left out of the WHERE clause. Within an AND group this only widens
+ * the result. An OR group is left out as a whole if any of its conditions cannot be translated. In both cases
+ * isComplete() returns FALSE and matches() evaluates the full query against each SIF Object in memory.
+ *
+ * @author Joerg Huber
+ */
+public class QueryTranslator
+{
+	private static final Pattern COLUMN_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
+	protected Logger logger = ADK.getLog();
+
+	private Query query;
+	private Map<String, String> columns = new HashMap<String, String>();
+	private Map<String, String> sqlExpressions;
+	private String whereClause = null;
+	private List<String> parameters = new ArrayList<String>();
+	private boolean complete = true;
+
+	/**
+	 * Translates the conditions of the given query.
+	 *
+	 * @param query The query to translate. Can be null in which case there is no WHERE clause.
+	 * @param mappingCtx The outbound mapping context of the publisher. If null then no condition is translated.
+	 */
+	public QueryTranslator(Query query, MappingsContext mappingCtx)
+	{
+		this(query, mappingCtx, null);
+	}
+
+	/**
+	 * Translates the conditions of the given query.
+	 *
+	 * @param query The query to translate. Can be null in which case there is no WHERE clause.
+	 * @param mappingCtx The outbound mapping context of the publisher. If null then no condition is translated.
+	 * @param sqlExpressions SQL expressions to use instead of the field names of the field mappings (i.e. if
+	 *                       the field name is a column alias of the SELECT statement). The key is the field
+	 *                       name. Can be null.
+	 */
+	public QueryTranslator(Query query, MappingsContext mappingCtx, Map<String, String> sqlExpressions)
+	{
+		this.query = query;
+		this.sqlExpressions = sqlExpressions;
+		if ((query != null) && query.hasConditions())
+		{
+			loadColumns(mappingCtx);
+			whereClause = translate(query.getRootConditionGroup());
+		}
+		logger.debug("SQL condition for query: "+whereClause+" "+parameters+(complete ? "" : " (in-memory filter required)"));
+	}
+
+	/**
+	 * Returns the WHERE clause without the keyword WHERE or null if no condition could be translated.
+	 */
+	public String getWhereClause()
+	{
+		return whereClause;
+	}
+
+	/**
+	 * Returns the WHERE clause with the given prefix (i.e. " WHERE " or " AND ") or an empty string if no
+	 * condition could be translated. This allows the result to be appended to an SQL statement in any case.
+	 */
+	public String getWhereClause(String prefix)
+	{
+		return (whereClause == null) ? "" : prefix + whereClause;
+	}
+
+	/**
+	 * Returns the values of the parameters of the WHERE clause in the order of their occurrence.
+	 */
+	public List<String> getParameters()
+	{
+		return parameters;
+	}
+
+	/**
+	 * Binds the values of the parameters of the WHERE clause to the given statement.
+	 *
+	 * @param stmt The statement the WHERE clause is part of.
+	 * @param startIndex The index of the first parameter of the WHERE clause in the statement.
+	 *
+	 * @return The index of the next parameter after the WHERE clause.
+	 *
+	 * @throws SQLException If a value cannot be bound.
+	 */
+	public int bind(PreparedStatement stmt, int startIndex) throws SQLException
+	{
+		int index = startIndex;
+		for (String value : parameters)
+		{
+			stmt.setString(index++, value);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns TRUE if all conditions of the query are part of the WHERE clause. In this case all rows returned
+	 * by the statement match the query.
+	 */
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	/**
+	 * Returns TRUE if the given SIF Object matches the query. If all conditions are part of the WHERE clause
+	 * this is always TRUE. Otherwise the query is evaluated against the SIF Object.
+	 */
+	public boolean matches(SIFDataObject sifObject)
+	{
+		if (complete)
+		{
+			return true;
+		}
+		try
+		{
+			return query.evaluate(sifObject);
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to evaluate query against "+sifObject.getElementDef().name()+": "+ex.getMessage(), ex);
+			return false;
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Builds the map from XPath (with predicates) to column. An XPath used by several field mappings is
+	 * ambiguous and therefore mapped to null.
+	 */
+	private void loadColumns(MappingsContext mappingCtx)
+	{
+		if ((mappingCtx == null) || (mappingCtx.getFieldMappings() == null))
+		{
+			return;
+		}
+		for (Mapping mapping : mappingCtx.getFieldMappings())
+		{
+			if (!(mapping instanceof FieldMapping))
+			{
+				continue;
+			}
+			FieldMapping fieldMapping = (FieldMapping)mapping;
+			String xPath = getXPath(fieldMapping);
+			if (xPath != null)
+			{
+				String column = isTranslatable(fieldMapping) ? getColumn(fieldMapping.getFieldName()) : null;
+				columns.put(xPath, columns.containsKey(xPath) ? null : column);
+			}
+		}
+	}
+
+	private String getXPath(FieldMapping fieldMapping)
+	{
+		Rule rule = fieldMapping.getRule();
+		if (!(rule instanceof XPathRule))
+		{
+			return null;
+		}
+		return normalise(((XPathRule)rule).getPathExpression());
+	}
+
+	private boolean isTranslatable(FieldMapping fieldMapping)
+	{
+		return (fieldMapping.getValueSetID() == null) && !fieldMapping.hasDefaultValue() && (((XPathRule)fieldMapping.getRule()).getValueExpression() == null);
+	}
+
+	private String getColumn(String fieldName)
+	{
+		if ((sqlExpressions != null) && sqlExpressions.containsKey(fieldName))
+		{
+			return sqlExpressions.get(fieldName);
+		}
+		return ((fieldName != null) && COLUMN_NAME.matcher(fieldName).matches()) ? fieldName : null;
+	}
+
+	/*
+	 * Removes white space around the separators of the XPath, a leading '/' and the object name so that the
+	 * XPath of a condition and the XPath of a field mapping can be compared. Predicates are kept, because a
+	 * condition on an element with a predicate only matches a field mapping with the same predicate.
+	 */
+	private String normalise(String xPath)
+	{
+		if (xPath == null)
+		{
+			return null;
+		}
+		String path = xPath.replaceAll("\\s*([\\[\\]=/])\\s*", "$1").replace('"', '\'').trim();
+		return removeObjectTag(path, (query == null) ? null : query.getObjectTag());
+	}
+
+	/*
+	 * Removes predicates, a leading '/' and the given object name, which may be null, from the XPath.
+	 */
+	static String normaliseXPath(String xPath, String objectTag)
+	{
+		if (xPath == null)
+		{
+			return null;
+		}
+		return removeObjectTag(xPath.replaceAll("\\[[^\\]]*\\]", "").trim(), objectTag);
+	}
+
+	private static String removeObjectTag(String xPath, String objectTag)
+	{
+		String path = xPath;
+		if (path.startsWith("/"))
+		{
+			path = path.substring(1);
+		}
+		if ((objectTag != null) && path.startsWith(objectTag+"/"))
+		{
+			path = path.substring(objectTag.length() + 1);
+		}
+		return path;
+	}
+
+	/*
+	 * Returns the SQL of the given group or null if none of its conditions can be translated.
+	 */
+	private String translate(ConditionGroup group)
+	{
+		List<String> parts = new ArrayList<String>();
+		List<String> partParameters = new ArrayList<String>();
+		boolean isOr = (group.getOperator() == GroupOperators.OR);
+		int untranslated = 0;
+
+		if (group.getConditions() != null)
+		{
+			for (Condition condition : group.getConditions())
+			{
+				String column = (condition.getOperator() == ComparisonOperators.EQ) ? columns.get(normalise(getXPath(condition))) : null;
+				if (column != null)
+				{
+					parts.add(column+" = ?");
+					partParameters.add(condition.getValue());
+				}
+				else
+				{
+					untranslated++;
+				}
+			}
+		}
+		if (group.getGroups() != null)
+		{
+			for (ConditionGroup subGroup : group.getGroups())
+			{
+				int start = parameters.size();
+				String subClause = translate(subGroup);
+				// Parameters of sub groups are collected in 'parameters' => move them to this group.
+				List<String> subParameters = new ArrayList<String>(parameters.subList(start, parameters.size()));
+				parameters.subList(start, parameters.size()).clear();
+				if (subClause != null)
+				{
+					parts.add(subClause);
+					partParameters.addAll(subParameters);
+				}
+				else
+				{
+					untranslated++;
+				}
+			}
+		}
+
+		if (untranslated > 0)
+		{
+			complete = false;
+		}
+		if (parts.isEmpty() || (isOr && (untranslated > 0)))
+		{
+			return null; // an incomplete OR would exclude rows that match one of the missing conditions
+		}
+		parameters.addAll(partParameters);
+		StringBuilder sql = new StringBuilder("(");
+		for (int i = 0; i < parts.size(); i++)
+		{
+			if (i > 0)
+			{
+				sql.append(isOr ? " OR " : " AND ");
+			}
+			sql.append(parts.get(i));
+		}
+		return sql.append(")").toString();
+	}
+
+	private String getXPath(Condition condition)
+	{
+		String xPath = condition.getXPath();
+		if ((xPath == null) && (condition.getField() != null))
+		{
+			xPath = condition.getField().getSQPPath(query.getEffectiveVersion());
+		}
+		return xPath;
+	}
+}
@@ -18,6 +18,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.Set;
 
 import openadk.library.ADK;
 import openadk.library.DefaultValueBuilder;
@@ -32,6 +33,8 @@ import openadk.library.tools.mapping.MappingsContext;
 
 import org.apache.log4j.Logger;
 
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
 
 /**
  * Basic implementation of the ADK FieldAdaptor interface for  java.sql.ResultSet. An initial implementation
@@ -51,6 +54,9 @@ public class ResultSetAdapter implements FieldAdaptor
 	private HashMap<String,Integer> columnNames;
 	private ValueBuilder valueBuilder = null;
 	
+	/* Fields needed for the current map() call. Null if all fields are needed. */
+	private Set<String> requestedFields = null;
+	
 	@SuppressWarnings("rawtypes")
     private Class clazz = null;
 	
@@ -106,6 +112,31 @@ public class ResultSetAdapter implements FieldAdaptor
 		}
 	}
 	
+    /**
+     * This method works like map(MappingsContext) but only evaluates the field mappings that are required for
+     * the elements requested in the SIF Query (see MappingInfo.getRequestedFieldNames()). The other field 
+     * mappings are skipped, unless they have a default value. If the request has no field restrictions all
+     * field mappings are evaluated.
+     * 
+     * @param mappingInfo The mapping info of the request. Its mappingCtx is used to populate the sif object.
+     * 
+     * @return A SIF object of the type defined in the 'clazz' parameter in the constructor of this class.
+     * 
+     * @throws ADKMappingException Failure to map due to invalid mapping syntax, context or semantics.
+     */
+	public SIFDataObject map(MappingInfo mappingInfo) throws ADKMappingException
+	{
+		requestedFields = mappingInfo.getRequestedFieldNames();
+		try
+		{
+			return map(mappingInfo.getMappingCtx());
+		}
+		finally
+		{
+			requestedFields = null;
+		}
+	}
+	
 	/**
 	 * Moves the position in the resultset forward by one record. After this call the resultset points to
 	 * the latest position. If there are more resultsets then this method will return true, otherwise false 
@@ -157,7 +188,8 @@ public class ResultSetAdapter implements FieldAdaptor
 	 */
 	public boolean hasField(String fieldName) 
 	{
-		return columnNames.containsKey(fieldName);
+		// The ADK skips the field mapping of a field that doesn't exist.
+		return columnNames.containsKey(fieldName) && ((requestedFields == null) || requestedFields.contains(fieldName));
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,155 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import openadk.library.ADK;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.utils.SIFCommonProperties;
+
+
+/**
+ * This class runs a publisher at an interval that adapts to the number of events found in each run. It is
+ * used instead of a fixed delay if adaptive scheduling is enabled for a publisher (see
+ * SIFCommonProperties.getEventAdaptiveFrequency()). After each run the interval to the next run is determined
+ * as follows:<br />
+ * - The run was full (at least 'event.fullCycleSize' events) or has taken longer than 'event.cycleTimeBudget'
+ *   seconds: The next run starts after the min interval, so the remaining changes are drained quickly.<br />
+ * - The run has found no events: The interval is doubled up to the max interval.<br />
+ * - Otherwise: The configured event frequency is used.<p>
+ *
+ * The interval is always kept within the configured min and max interval. The current interval is logged
+ * after each run and available through getEffectiveFrequencyInSeconds().
+ *
+ * @author Joerg Huber
+ */
+public class AdaptivePublisherSchedule implements Runnable
+{
+	protected Logger logger = ADK.getLog();
+
+	private BasePublisher publisher;
+	private ScheduledExecutorService service;
+	private int frequency;
+	private int minFrequency;
+	private int maxFrequency;
+	private int fullCycleSize;
+	private int cycleTimeBudget;
+
+	private volatile int effectiveFrequency;
+
+	/**
+	 * Creates the schedule for the given publisher. The bounds and thresholds are read from the publisher's
+	 * framework properties.
+	 *
+	 * @param publisher The publisher to run.
+	 * @param service The executor used to run the publisher.
+	 * @param frequency The event frequency in seconds. This is the interval used if a run has found some but
+	 *                  not too many events.
+	 */
+	public AdaptivePublisherSchedule(BasePublisher publisher, ScheduledExecutorService service, int frequency)
+	{
+		SIFCommonProperties properties = publisher.getFrameworkProperties();
+		this.publisher = publisher;
+		this.service = service;
+		this.minFrequency = Math.max(1, properties.getEventMinFrequencyInSeconds(publisher.getAgentID(), publisher.getId(), Math.max(1, frequency / 10)));
+		this.maxFrequency = Math.max(minFrequency, properties.getEventMaxFrequencyInSeconds(publisher.getAgentID(), publisher.getId(), frequency * 10));
+		this.frequency = bound(frequency);
+		this.fullCycleSize = properties.getEventFullCycleSize(publisher.getAgentID(), publisher.getId());
+		this.cycleTimeBudget = properties.getEventCycleTimeBudgetInSeconds(publisher.getAgentID(), publisher.getId());
+		this.effectiveFrequency = this.frequency;
+	}
+
+	/**
+	 * Schedules the first run of the publisher.
+	 *
+	 * @param initialDelay Delay of the first run in seconds.
+	 */
+	public void start(long initialDelay)
+	{
+		logger.debug("Adaptive event frequency for Publisher "+publisher.getId()+": "+frequency+" seconds (min "+minFrequency+", max "+maxFrequency+").");
+		service.schedule(this, initialDelay, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the interval in seconds between the last and the next run of the publisher.
+	 */
+	public int getEffectiveFrequencyInSeconds()
+	{
+		return effectiveFrequency;
+	}
+
+	/**
+	 * Runs the publisher once and schedules the next run.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	//@Override
+	public void run()
+	{
+		if (service.isShutdown())
+		{
+			return; // a delayed run must not start once the agent is shutting down
+		}
+		try
+		{
+			publisher.run();
+		}
+		catch (Exception ex)
+		{
+			logger.error("Run of Publisher "+publisher.getId()+" failed: "+ex.getMessage(), ex);
+		}
+
+		effectiveFrequency = nextFrequency(publisher.getLastCycleEvents(), publisher.getLastCycleDuration());
+		publisher.setEffectiveEventFrequency(effectiveFrequency);
+		logger.info("Next run of Publisher "+publisher.getId()+" in "+effectiveFrequency+" seconds.");
+		try
+		{
+			if (!service.isShutdown())
+			{
+				service.schedule(this, effectiveFrequency, TimeUnit.SECONDS);
+			}
+		}
+		catch (RejectedExecutionException ex)
+		{
+			logger.debug("Publisher "+publisher.getId()+" not rescheduled. Agent is shutting down.");
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private int nextFrequency(int events, long durationMillis)
+	{
+		if (((fullCycleSize > 0) && (events >= fullCycleSize)) || ((cycleTimeBudget > 0) && (durationMillis >= cycleTimeBudget * 1000L)))
+		{
+			return minFrequency;
+		}
+		if (events == 0)
+		{
+			return bound((int)Math.min(Integer.MAX_VALUE, effectiveFrequency * 2L));
+		}
+		return frequency;
+	}
+
+	private int bound(int value)
+	{
+		return Math.max(minFrequency, Math.min(maxFrequency, value));
+	}
+}
@@ -14,10 +14,24 @@
 */
 package systemic.sif.sifcommon.publisher;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import openadk.library.ADKException;
+import openadk.library.AgentProperties;
 import openadk.library.DataObjectOutputStream;
 import openadk.library.Event;
 import openadk.library.EventAction;
@@ -26,6 +40,7 @@ import openadk.library.Publisher;
 import openadk.library.PublishingOptions;
 import openadk.library.Query;
 import openadk.library.SIFDataObject;
+import openadk.library.SIFErrorCategory;
 import openadk.library.SIFException;
 import openadk.library.SIFMessageInfo;
 import openadk.library.SIFParser;
@@ -36,7 +51,9 @@ import openadk.library.tools.mapping.MappingsContext;
 import systemic.sif.sifcommon.BaseInfo;
 import systemic.sif.sifcommon.mapping.MappingInfo;
 import systemic.sif.sifcommon.model.SIFEvent;
+import systemic.sif.sifcommon.utils.SCFObjectInfo;
 import systemic.sif.sifcommon.utils.SIFCommonProperties;
+import systemic.sif.sifcommon.utils.VirtualThreads;
 import au.com.systemic.framework.utils.FileReaderWriter;
 import au.com.systemic.framework.utils.StringUtils;
 
@@ -49,6 +66,78 @@ import au.com.systemic.framework.utils.StringUtils;
 public abstract class BasePublisher extends BaseInfo implements Publisher, Runnable
 {
 	private PublishingOptions options = new PublishingOptions(true);
+
+	/* Event batches per zone. Only set while broadcastEvents() runs with a batch size greater than 1. */
+	private Map<String, ZoneEventBatch> eventBatches = null;
+
+	/* Digests of the SIF Objects last published per zone. Only set while broadcastEvents() runs with change suppression. */
+	private Map<String, ChangeDigestStore> changeDigests = null;
+
+	/* Persists the watermark of each zone. Created with the first access to a watermark. */
+	private EventWatermarkStore watermarkStore = null;
+
+	/* Watermark set by getSIFEvents() for the current broadcastEvents() run. */
+	private Date pendingWatermark = null;
+
+	/* Snapshot comparison of the current broadcastEvents() run. Only set if the events are a full snapshot. */
+	private SnapshotDiffIterator snapshotDiff = null;
+
+	/* Zones to which not all events of the current broadcastEvents() run could be sent. */
+	private Set<String> failedZones = Collections.synchronizedSet(new HashSet<String>());
+
+	/* Statistics of the last run. Used for adaptive scheduling. */
+	private volatile int lastCycleEvents = 0;
+	private volatile long lastCycleDuration = 0;
+	private volatile int effectiveEventFrequency = 0;
+
+	/* Journals of unsent events per zone. Only created if the event journal is enabled for this publisher. */
+	private Map<String, ZoneEventJournal> journals = null;
+
+	/* Rate limiters per zone. Only created if a rate limit is configured for this publisher. */
+	private Map<String, ZoneRateLimiter> rateLimiters = new HashMap<String, ZoneRateLimiter>();
+
+	/* Ensures that scheduled and triggered runs don't overlap. Not a monitor: a run sends to the zones while holding it. */
+	private final ReentrantLock runLock = new ReentrantLock();
+
+	/* Merges triggers into runs. Created with the first trigger. */
+	private PublisherTrigger trigger = null;
+
+	/* Keys passed to the triggers of the current run. Null if the run is not restricted to any keys. */
+	private volatile Set<String> triggeredKeys = null;
+
+	/* Serialised SIF Objects. Created with the first access. */
+	private PayloadCache payloadCache = null;
+
+	/* Mapping info of the request for which getRequestedSIFObjects() is called in the current thread. */
+	private ThreadLocal<MappingInfo> requestMappingInfo = new ThreadLocal<MappingInfo>();
+
+	/* Cached responses to SIF_Requests. Only created if a response cache is configured for this publisher. */
+	private ResponseCache responseCache = null;
+
+	/* Scans that identical requests can still join. Only used if request coalescing is enabled for this publisher. */
+	private Map<String, SharedResponseScan> sharedScans = new HashMap<String, SharedResponseScan>();
+
+	/* Snapshot of all SIF Objects for requests without conditions. Only created if response snapshots are enabled. */
+	private ResponseSnapshot responseSnapshot = null;
+
+	/* Limits the number of requests that read from the data source. Only created if a limit is configured. */
+	private RequestAdmission requestAdmission = null;
+
+	/* Statistics of the request admission. */
+	private AtomicInteger queuedRequests = new AtomicInteger(0);
+	private long admittedRequests = 0;
+	private long totalRequestWaitMillis = 0;
+	private long maxRequestWaitMillis = 0;
+
+	/* Cancels responses whose deadline has passed. Created with the first cancellable response. */
+	private ScheduledExecutorService deadlineService = null;
+	private AtomicInteger cancelledRequests = new AtomicInteger(0);
+
+	/* Threads that build the SIF Objects of responses. Only created if a response parallelism is configured. */
+	private ExecutorService responseService = null;
+
+	/* Threads for the zone lanes. Only created if zone lanes are enabled for this publisher. */
+	private ExecutorService laneService = null;
 	
     /**
      * This class is a basic initialiser of a publisher. No properties except the publisherID and
@@ -88,6 +177,9 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
      * if the should respond to SIF Requests from a subscriber. The internal method onRequest() will utilise
      * this method to finally send the objects to the ZIS. The returned object must meet the given SIFQuery.<p>
      * 
+     * If the query has field restrictions then getRequestMappingInfo() returns the mapped fields that are needed
+     * to build the requested elements, so only these need to be read from the data source.<p>
+     * 
      * @param query The query this agent is requested to meet.
      * @param zone The Zone that for which the request has been received.
      *                    
@@ -122,6 +214,117 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
         this.options = options;
     }
 
+    /**
+     * Returns the interval in seconds at which this publisher is currently run. This is the configured event
+     * frequency unless adaptive scheduling is enabled. In this case it is the interval determined after the
+     * last run (see AdaptivePublisherSchedule).
+     */
+    public int getEffectiveEventFrequencyInSeconds()
+    {
+    	return (effectiveEventFrequency > 0) ? effectiveEventFrequency : getFrameworkProperties().getEventFrequencyInSeconds(getAgentID(), getId(), SIFCommonProperties.NO_EVENT);
+    }
+
+    void setEffectiveEventFrequency(int effectiveEventFrequency)
+    {
+    	this.effectiveEventFrequency = effectiveEventFrequency;
+    }
+
+    /* Number of events retrieved in the last run. */
+    int getLastCycleEvents()
+    {
+    	return lastCycleEvents;
+    }
+
+    /* Duration of the last run in milliseconds. */
+    long getLastCycleDuration()
+    {
+    	return lastCycleDuration;
+    }
+
+    /**
+     * Returns the mapping info of the request that is currently processed. This method can only be called within
+     * getRequestedSIFObjects(). Otherwise null is returned. The mapping info holds the field restrictions of the
+     * SIF Query and the names of the mapped fields that are required for them (see 
+     * MappingInfo.getRequestedFieldNames()). This allows getRequestedSIFObjects() to only select those fields 
+     * from the data source.
+     */
+    protected MappingInfo getRequestMappingInfo()
+    {
+    	return requestMappingInfo.get();
+    }
+
+    /**
+     * Returns the time in milliseconds a message to the given zone would currently have to wait due to the rate
+     * limit of this publisher (see SIFCommonProperties.getRateLimitMessagesPerSecond()). If no rate limit is 
+     * configured then 0 is returned.
+     * 
+     * @param zone The zone for which the wait time shall be returned.
+     */
+    public long getRateLimitWaitMillis(Zone zone)
+    {
+    	ZoneRateLimiter limiter = getRateLimiter(zone);
+    	return (limiter == null) ? 0 : limiter.getCurrentWaitMillis();
+    }
+
+    /**
+     * Returns the total time in milliseconds messages to the given zone had to wait due to the rate limit of 
+     * this publisher since the agent has been started. If no rate limit is configured then 0 is returned.
+     * 
+     * @param zone The zone for which the wait time shall be returned.
+     */
+    public long getRateLimitTotalWaitMillis(Zone zone)
+    {
+    	ZoneRateLimiter limiter = getRateLimiter(zone);
+    	return (limiter == null) ? 0 : limiter.getTotalWaitMillis();
+    }
+
+    /**
+     * Returns the number of requests to this publisher that currently wait for admission because the max number
+     * of concurrent requests of this publisher or of the agent has been reached (see 
+     * SIFCommonProperties.getRequestMaxConcurrent()).
+     */
+    public int getQueuedRequests()
+    {
+    	return queuedRequests.get();
+    }
+
+    /**
+     * Returns the number of requests to this publisher that have been admitted to read from the data source since
+     * the agent has been started. Only counted if the number of concurrent requests is limited.
+     */
+    public synchronized long getAdmittedRequests()
+    {
+    	return admittedRequests;
+    }
+
+    /**
+     * Returns the total time in milliseconds requests to this publisher had to wait for admission since the agent
+     * has been started.
+     */
+    public synchronized long getRequestTotalWaitMillis()
+    {
+    	return totalRequestWaitMillis;
+    }
+
+    /**
+     * Returns the longest time in milliseconds a request to this publisher had to wait for admission since the
+     * agent has been started.
+     */
+    public synchronized long getRequestMaxWaitMillis()
+    {
+    	return maxRequestWaitMillis;
+    }
+
+    /**
+     * Returns the number of requests to this publisher that have been cancelled since the agent has been started
+     * because their deadline has passed or their zone has disconnected (see 
+     * SIFCommonProperties.getRequestTimeoutInSeconds()).
+     */
+    public int getCancelledRequests()
+    {
+    	return cancelledRequests.get();
+    }
+
     /*----------------------------------------*/
     /* Implemented Method for Multi-threading */
     /*----------------------------------------*/
@@ -135,16 +338,95 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
     {
 		boolean sendEvents = (getFrameworkProperties().getEventFrequencyInSeconds(getAgentID(), getId(), SIFCommonProperties.NO_EVENT) != SIFCommonProperties.NO_EVENT);
     	logger.debug("Thread woken up for Publisher "+getId()+". Event sending required: "+sendEvents);
-		
-		if (sendEvents)
-		{
-	    	logger.debug("Start sending events for Publisher "+getId()+"...");
-			broadcastEvents();
-			logger.debug("Sending all events to all zones for Publisher "+getId()+" complete.");
-		}
+    	runLock.lock();
+    	try
+    	{
+	    	lastCycleEvents = 0;
+	    	lastCycleDuration = 0;
+			
+			if (sendEvents)
+			{
+				// This run covers all changes, including the ones that have been triggered so far.
+				PublisherTrigger currentTrigger = getTrigger(false);
+				if (currentTrigger != null)
+				{
+					currentTrigger.clear();
+				}
+		    	logger.debug("Start sending events for Publisher "+getId()+"...");
+				broadcastEvents();
+				logger.debug("Sending all events to all zones for Publisher "+getId()+" complete.");
+			}
+    	}
+    	finally
+    	{
+    		runLock.unlock();
+    	}
 		
 		logger.debug("Run() for Publisher "+getId()+" finished.");
     }
+
+    /*-------------------------*/
+    /* Trigger related methods */
+    /*-------------------------*/
+    /**
+     * Requests an immediate run of this publisher, i.e. because the source system has signalled a change. The
+     * run starts after a short window (see SIFCommonProperties.getEventTriggerWindowInMillis()). All triggers
+     * that arrive until the run starts are merged into that run. Triggers that arrive while a run is in progress
+     * are merged into one follow-up run. The publisher is triggered even if its event frequency is set to 0.
+     */
+    public void trigger()
+    {
+    	trigger(null);
+    }
+
+    /**
+     * Same as trigger() but passes the keys of the changed objects. The keys of all merged triggers are available
+     * to getSIFEvents() through getTriggeredKeys().
+     * 
+     * @param changedKeys The keys of the changed objects. If null or empty the run is not restricted to any keys.
+     */
+    public void trigger(Collection<String> changedKeys)
+    {
+    	getTrigger(true).trigger(changedKeys);
+    }
+
+    /**
+     * This method can be called by getSIFEvents() to determine the keys of the changed objects if the current run
+     * has been triggered with keys. In this case only the events for these keys need to be returned. If the current
+     * run has not been triggered or any of the merged triggers had no keys then null is returned. In this case 
+     * getSIFEvents() must determine the changes itself.
+     * 
+     * @return See description.
+     */
+    public Set<String> getTriggeredKeys()
+    {
+    	return triggeredKeys;
+    }
+
+    /*
+     * Called by the PublisherTrigger to run this publisher for the given keys.
+     */
+    void runTriggered(Set<String> keys)
+    {
+    	runLock.lock();
+    	try
+    	{
+	    	logger.debug("Triggered run for Publisher "+getId()+((keys == null) ? "" : " with "+keys.size()+" key(s)")+".");
+	    	triggeredKeys = (keys == null) ? null : Collections.unmodifiableSet(keys);
+	    	try
+	    	{
+	    		broadcastEvents();
+	    	}
+	    	finally
+	    	{
+	    		triggeredKeys = null;
+	    	}
+    	}
+    	finally
+    	{
+    		runLock.unlock();
+    	}
+    }
    
     /*-------------------------*/
     /* Request related methods */
@@ -152,7 +434,15 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
     /**
      * This is the implementation of the SIFWorks ADK method. It calls the abstract method getRequestedSIFObjects()
      * that is defined in this class. It iterates through all objects and sends it as a response to the
-     * subscriber that requested the data.<br/>
+     * subscriber that requested the data. If a prefetch depth is configured for this publisher then the SIF Objects
+     * are retrieved from the SIFResponseIterator in a separate thread ahead of sending them. If the iterator is a
+     * ParallelSIFResponseIterator and a response parallelism is configured then the SIF Objects are built by
+     * several threads while this thread keeps sending them (see SIFCommonProperties.getResponseParallelism()).
+     * If a rate limit is
+     * configured for this publisher then the SIF Objects are paced accordingly. If a response cache is configured
+     * for this publisher (see SIFCommonProperties.getResponseCacheSize()) then complete responses are cached and
+     * the same request to the same zone is answered from the cache until the response expires or the cache is
+     * invalidated (see invalidateResponseCache()).<br/>
      * It is not expected that any sub-classes call this method at all.
      *
      * @see #getRequestedSIFObjects
@@ -162,36 +452,126 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
     	logger.debug("================================ onRequest() called for publisher "+getId());
 		int totalRecords = 0;
 		int failedRecords = 0;    	
+		boolean complete = true;
 		MappingInfo mappingInfo = new MappingInfo((SIFMessageInfo)msgInfo, getOutboundMappingCtx((SIFMessageInfo)msgInfo));
-		SIFResponseIterator iterator = getRequestedSIFObjects(query, zone);
+		mappingInfo.setFieldRestrictions(query);
+		RequestDeadline deadline = new RequestDeadline(zone, (msgInfo == null) ? null : ((SIFMessageInfo)msgInfo).getTimestamp(), getFrameworkProperties().getRequestTimeoutInSeconds(getAgentID(), getId()));
+		ResponseCache cache = getResponseCache();
+		ResponseCache.Recorder recorder = null;
+		SIFResponseIterator iterator = null;
+		if (cache != null)
+		{
+			String cacheKey = ResponseCache.getKey(query, zone, (msgInfo == null) ? null : ((SIFMessageInfo)msgInfo).getLatestSIFRequestVersion(), getMappingId(mappingInfo));
+			iterator = cache.get(cacheKey);
+			if (iterator != null)
+			{
+				logger.debug("Response of publisher "+getId()+" to zone "+zone.getZoneId()+" is taken from the response cache.");
+			}
+			else
+			{
+				recorder = cache.record(cacheKey);
+			}
+		}
+		if (iterator == null)
+		{
+			iterator = openResponseIterator(query, zone, (SIFMessageInfo)msgInfo, mappingInfo, deadline);
+		}
 		if (iterator != null)
 		{
-			while (iterator.hasNext())
+			ZoneRateLimiter limiter = getRateLimiter(zone);
+			int packetSize = getResponsePacketSize(zone);
+			long responseBytes = 0;
+			if (limiter != null)
+			{
+				limiter.acquire(1, 0); // first SIF_Response packet
+			}
+			ResponseCheckpoint checkpoint = ResponseCheckpoint.getCheckpoint(iterator);
+			if ((checkpoint != null) && checkpoint.isResumed())
+			{
+				recorder = null; // only the rest of the response is sent
+			}
+			boolean brokenOff = true;
+			try
 			{
-				try
+				while (hasNext(iterator, deadline))
 				{
-					SIFDataObject sifObj = iterator.getNextSIFObject(this, mappingInfo);
-					// This should not return null since the hasNext() returned true, but just in case we check
-					// and exit the loop if it should return null. In this case we assume that there is no more
-					// data. We also log an error to make the coder aware of the issue.
-					if (sifObj != null)
+					try
 					{
-						sendData(dataobjectoutputstream, sifObj);
-						totalRecords++;
+						SIFDataObject sifObj = iterator.getNextSIFObject(this, mappingInfo);
+						// This should not return null since the hasNext() returned true, but just in case we check
+						// and exit the loop if it should return null. In this case we assume that there is no more
+						// data. We also log an error to make the coder aware of the issue.
+						if (sifObj != null)
+						{
+							// The size is needed to pace the SIF_Response packets even if only the messages are limited.
+							String xml = (((limiter != null) && (limiter.limitsBytes() || (packetSize > 0))) || (recorder != null)) ? sifObj.toXML() : null;
+							if (limiter != null)
+							{
+								// Each time the response grows beyond another packet a further SIF_Response is sent.
+								long bytes = (xml != null) ? xml.length() : 0;
+								int packets = (packetSize > 0) ? (int)((responseBytes + bytes) / packetSize - responseBytes / packetSize) : 0;
+								responseBytes += bytes;
+								limiter.acquire(packets, bytes);
+							}
+							sendData(dataobjectoutputstream, sifObj);
+							if (checkpoint != null)
+							{
+								checkpoint.sent(sifObj);
+							}
+							if (recorder != null)
+							{
+								recorder.add(xml);
+							}
+							totalRecords++;
+						}
+						else
+						{
+							logger.error("iterator.hasNext() has returned true but iterator.getNextSIFObject() has retrurned null => no further SIF Object are sent.");
+							complete = false;
+							break;
+						}
 					}
-					else
+					catch (Exception ex)
 					{
-						logger.error("iterator.hasNext() has returned true but iterator.getNextSIFObject() has retrurned null => no further SIF Object are sent.");
-						break;
+						logger.error("Failed to retrieve next sif object for publisher "+getId()+": "+ex.getMessage(), ex);
+						failedRecords++;
 					}
 				}
-				catch (Exception ex)
+				if (deadline.wasCancelled())
+				{
+					logger.info("Response of publisher "+getId()+" to zone "+zone.getZoneId()+" cancelled: "+deadline.getCancelReason());
+					cancelledRequests.incrementAndGet();
+					complete = false;
+				}
+				brokenOff = !complete;
+			}
+			finally
+			{
+				deadline.close();
+				iterator.releaseResources();
+				if (checkpoint != null)
 				{
-					logger.error("Failed to retrieve next sif object for publisher "+getId()+": "+ex.getMessage(), ex);
-					failedRecords++;
+					// A response that has been broken off can be continued when the subscriber sends the request again.
+					if (brokenOff)
+					{
+						checkpoint.save();
+					}
+					else
+					{
+						checkpoint.remove();
+					}
 				}
 			}
-			iterator.releaseResources();
+			if ((checkpoint != null) && brokenOff)
+			{
+				// The zone must not see an incomplete response as complete, otherwise the subscriber has no
+				// reason to send the request again (see ResumableSIFResponseIterator).
+				throw new ADKException("Response of publisher "+getId()+" broken off after "+totalRecords+" objects. Send the same request again to receive the remaining objects.", zone);
+			}
+			if ((recorder != null) && complete && (failedRecords == 0))
+			{
+				recorder.commit(getResponseCacheExpiryInMillis());
+			}
 		}
 		else
 		{
@@ -222,27 +602,86 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
         }
     }
 
+    /**
+     * Removes all responses from the response cache of this publisher as well as the serialised SIF Objects held
+     * in the payload cache (see SIFCommonProperties.getPayloadCacheSize()). This method is called by broadcastEvents()
+     * if getSIFEvents() has returned any events. Sub-classes must call it if the data of this publisher changes
+     * in any other way while the response cache is enabled (see SIFCommonProperties.getResponseCacheSize()).
+     */
+    public void invalidateResponseCache()
+    {
+    	ResponseCache cache = getResponseCache();
+    	if (cache != null)
+    	{
+    		logger.debug("Response cache of publisher "+getId()+" invalidated.");
+    		cache.invalidate();
+    	}
+    	getPayloadCache().invalidate();
+    }
+
     /*---------------------------*/
     /* SIF Event related methods */
     /*---------------------------*/
     
     /**
      * This method retrieves all events to be published by calling the abstract method getSIFEvents(). The returned list
-     * is then broadcasted to all zones known to the implementing agent.
+     * is then broadcasted to all zones known to the implementing agent.<p>
+     * 
+     * If an event batch size greater than 1 is configured for this publisher (see SIFCommonProperties.getEventBatchSize())
+     * then consecutive events with the same event action are grouped into one SIF_Event per zone. In this case the
+     * number of successful and failed batches is reported in addition to the number of events retrieved.<p>
+     * 
+     * If zone lanes are enabled for this publisher (see SIFCommonProperties.getEventZoneLanes()) then each event is
+     * retrieved once and handed to one lane per zone. Each lane calls sendEvent() for its zone in its own thread, so
+     * a slow zone doesn't hold back the delivery to the other zones. This method returns once all lanes have sent
+     * their events.<p>
+     * 
+     * If a prefetch depth is configured for this publisher (see SIFCommonProperties.getPrefetchDepth()) then the 
+     * events are retrieved from the SIFEventIterator in a separate thread ahead of sending them.<p>
+     * 
+     * If the event journal is enabled for this publisher (see SIFCommonProperties.getEventJournal()) then events 
+     * that a zone doesn't accept are written to a journal on disk and replayed in order, starting with the next 
+     * run. As long as a zone has events in its journal all new events for that zone are journaled as well.<p>
+     * 
+     * If a rate limit is configured for this publisher (see SIFCommonProperties.getRateLimitMessagesPerSecond())
+     * then the events are paced per zone accordingly.<p>
+     * 
+     * If getSIFEvents() has returned any events then the response cache of this publisher is invalidated.<p>
+     * 
+     * If getSIFEvents() has set a watermark with setBroadcastWatermark() then the watermark is stored for each zone
+     * to which all events have been sent successfully. It is not stored if any event could not be retrieved.<p>
+     * 
+     * If the events of this publisher are a full snapshot (see SIFCommonProperties.getEventSnapshotDiff()) then
+     * the snapshot is compared with the previously published snapshot and only ADD, CHANGE and DELETE events for
+     * the differences are sent.<p>
+     * 
+     * If unchanged objects shall be suppressed for this publisher (see SIFCommonProperties.getEventSuppressUnchanged())
+     * then a CHANGE event is only sent to a zone if the SIF Object differs from the one last published to that zone.
      * 
      * @see #getSIFEvents
      */
     public void broadcastEvents()
     {
     	logger.debug("================================ broadcastEvents() called for publisher "+getId());
+    	long startTime = System.currentTimeMillis();
     	MappingsContext mappingCtx = getOutboundMappingCtx(null);
 		int totalRecords = 0;
 		int failedRecords = 0;
+		boolean complete = false;
+		boolean lanesComplete = true;
+		pendingWatermark = null;
+		failedZones.clear();
+		replayJournals();
+		eventBatches = createEventBatches();
+		changeDigests = createChangeDigestStores();
+		List<ZoneEventLane> lanes = startZoneLanes();
 		try
 		{
 			SIFEventIterator iterator = getSIFEvents();
 			if (iterator != null)
 			{
+				iterator = diffSnapshot(iterator, mappingCtx);
+				iterator = prefetchEvents(iterator, mappingCtx);
 				while (iterator.hasNext())
 				{
 					try
@@ -253,11 +692,21 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
 						// data. We also log an error to make the coder aware of the issue.
 						if (sifEvent != null)
 						{
-				            for (Zone zone : getZones())
-				            {
-				                logger.debug(getId() + " broadcast event to zone: " + zone.getZoneId());
-				                sendEvent(sifEvent, zone);
-				            }
+							if (lanes != null)
+							{
+								for (ZoneEventLane lane : lanes)
+								{
+									lane.publish(sifEvent);
+								}
+							}
+							else
+							{
+					            for (Zone zone : getZones())
+					            {
+					                logger.debug(getId() + " broadcast event to zone: " + zone.getZoneId());
+					                sendEvent(sifEvent, zone);
+					            }
+							}
 				            totalRecords++;
 						}
 						else
@@ -278,11 +727,28 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
 			{
 				logger.info("getSIFEvents() for publisher "+getId()+" returned null.");
 			}
+			complete = (failedRecords == 0);
 		}
 		catch (Exception ex)
 		{
 			logger.error("Failed to retrieve events for publisher "+getId()+": "+ex.getMessage(), ex);								
 		}
+		finally
+		{
+			lanesComplete = closeZoneLanes(lanes);
+			flushEventBatches();
+			replayJournals();
+			saveChangeDigestStores();
+			commitSnapshot(complete && lanesComplete);
+			commitWatermark(complete);
+			if (totalRecords > 0)
+			{
+				invalidateResponseCache();
+			}
+			getPayloadCache().invalidate();
+		}
+		lastCycleEvents = totalRecords;
+		lastCycleDuration = System.currentTimeMillis() - startTime;
 		logger.info("Total SIF Events broadcasted: "+totalRecords);
 		logger.info("Total SIF Events failed     : "+failedRecords);
     	logger.debug("================================ Finished broadcastEvents() for publisher "+getId());
@@ -291,39 +757,994 @@ public abstract class BasePublisher extends BaseInfo implements Publisher, Runna
     /**
      * If one doesn't want certain events to be published to a given zone then this method needs to be 
      * overridden. It allows to test for the event and zone and make the appropriate decision if the event
-     * shall be sent.
+     * shall be sent. If event batching is enabled the event is added to the batch of the given zone and 
+     * sent once the batch is full or all events have been retrieved. If change suppression is enabled a 
+     * CHANGE event of an unchanged SIF Object is not sent.
      * 
      * @param event The event to be published to the zone.
      * @param zone The zone to which the event is published to.
      */
     protected void sendEvent(SIFEvent event, Zone zone)
     {
-		try
+    	ChangeDigestStore digests = (changeDigests != null) ? changeDigests.get(zone.getZoneId()) : null;
+    	if ((digests != null) && digests.isUnchanged(event))
+    	{
+    		logger.debug(getId() + ": SIF Object unchanged. Event not sent to zone " + zone.getZoneId());
+    		return;
+    	}
+
+    	ZoneEventBatch batch = (eventBatches != null) ? eventBatches.get(zone.getZoneId()) : null;
+    	if (batch != null)
+    	{
+    		batch.add(event);
+    	}
+    	else
+    	{
+    		List<SIFEvent> events = new ArrayList<SIFEvent>(1);
+    		events.add(event);
+    		deliverEvents(events, event.getEventAction(), zone);
+    	}
+    }
+
+    /*
+     * Sends the given events as one SIF_Event to the zone. All events must have the given event action. 
+     * Returns TRUE if the zone has accepted the SIF_Event, FALSE otherwise. Failures are logged.
+     */
+    boolean deliverEvents(List<SIFEvent> events, EventAction eventAction, Zone zone)
+    {
+    	boolean accepted = false;
+    	ZoneEventJournal journal = (journals != null) ? journals.get(zone.getZoneId()) : null;
+    	if ((journal != null) && journal.hasPending())
+    	{
+    		// Older events are still waiting for the zone. Don't overtake them.
+    		accepted = journal.append(events, eventAction);
+    	}
+    	else
+    	{
+    		try
+    		{
+    			reportEvents(events, eventAction, zone);
+    			accepted = true;
+    		}
+    		catch (Exception ex)
+    		{
+    			logReportFailure(events, eventAction, zone, ex);
+    			
+    			// Only journal the events if the zone wasn't available. Rejected events would be rejected again.
+    			if (!isRejected(ex) && (journal != null))
+    			{
+    				accepted = journal.append(events, eventAction);
+    				if (accepted)
+    				{
+    					logger.info(getId() + ": " + events.size() + " event(s) for zone " + zone.getZoneId() + " written to journal.");
+    				}
+    			}
+    		}
+    	}
+    	if (!accepted)
+    	{
+    		failedZones.add(zone.getZoneId());
+    	}
+    	ChangeDigestStore digests = (changeDigests != null) ? changeDigests.get(zone.getZoneId()) : null;
+    	if (digests != null)
+    	{
+    		digests.delivered(events, accepted);
+    	}
+    	SnapshotDiffIterator diff = snapshotDiff;
+    	if (diff != null)
+    	{
+    		diff.delivered(events, accepted);
+    	}
+    	return accepted;
+    }
+
+    /*
+     * Sends the given events as one SIF_Event to the zone. Throws an exception if the SIF_Event could not be
+     * sent or has been rejected by the zone (see isRejected()).
+     */
+    void reportEvents(List<SIFEvent> events, EventAction eventAction, Zone zone) throws Exception
+    {
+		ZoneRateLimiter limiter = getRateLimiter(zone);
+		if (limiter != null)
 		{
-			Event sifEvent = new Event(event.getSifObject(), event.getEventAction());
-			zone.reportEvent(sifEvent);
+			long bytes = 0;
+			if (limiter.limitsBytes())
+			{
+				for (SIFEvent event : events)
+				{
+					bytes += getXML(event.getSifObject()).length();
+				}
+			}
+			long waitMillis = limiter.acquire(1, bytes);
+			if (waitMillis > 0)
+			{
+				logger.debug(getId() + ": Event to zone " + zone.getZoneId() + " delayed by " + waitMillis + "ms due to rate limit.");
+			}
 		}
-		catch (Exception ex)
+
+		Event sifEvent = null;
+		if (events.size() == 1)
+		{
+			sifEvent = new Event(events.get(0).getSifObject(), eventAction);
+		}
+		else
+		{
+			SIFDataObject[] sifObjects = new SIFDataObject[events.size()];
+			for (int i = 0; i < sifObjects.length; i++)
+			{
+				sifObjects[i] = events.get(i).getSifObject();
+			}
+			sifEvent = new Event(sifObjects, getEventActionString(eventAction));
+		}
+		zone.reportEvent(sifEvent);
+    }
+
+    /*
+     * Logs that the given events could not be sent to the zone.
+     */
+    void logReportFailure(List<SIFEvent> events, EventAction eventAction, Zone zone, Exception ex)
+    {
+		logger.error(getId() + (isRejected(ex) ? " was rejected by zone " : " failed to broadcast to zone ") + zone.getZoneId() + ": " + ex.getMessage());
+		if (events.size() == 1)
 		{
-			logger.error(getId() + " failed to broadcast to zone " + zone.getZoneId() + ": " + ex.getMessage());
-			logger.error("SIFObject: " + event.toString());
+			logger.error("SIFObject: " + events.get(0).toString());
 		}
+		else
+		{
+			logger.error("Batch of " + events.size() + " SIF Objects with event action " + eventAction.name() + " not sent.");
+		}
+    }
+
+    /*
+     * Returns TRUE if the given exception of reportEvents() means that the zone has rejected the SIF_Event
+     * with a SIF_Ack error or that the SIF_Event could not be created. Sending the same events again will fail
+     * again. Returns FALSE if the zone wasn't available (transport errors, zone not connected, ZIS busy). In
+     * this case the events can be sent again later.
+     */
+    static boolean isRejected(Exception ex)
+    {
+    	if (ex instanceof SIFException)
+    	{
+    		SIFErrorCategory category = ((SIFException)ex).getSIFErrorCategory();
+    		return (category != SIFErrorCategory.TRANSPORT) && (category != SIFErrorCategory.SYSTEM);
+    	}
+    	if (ex instanceof ADKException)
+    	{
+    		ADKException adkEx = (ADKException)ex;
+    		return adkEx.hasSIFExceptions() && !adkEx.hasSIFError(SIFErrorCategory.TRANSPORT) && !adkEx.hasSIFError(SIFErrorCategory.SYSTEM);
+    	}
+    	return true;
     }
     
-	/**
-	 * This method shuts down this publisher gracefully. It is called by the Agent when a shutdown request
-	 * has been issued to the agent. It is not expected that sub-classes of this class call this method.
-	 * Specifics of the sub-class shutdowns must be handled in the finalise() method of the sub-class. The 
-	 * finalise() method is called as part of this method.
-	 */
-	public final void shutdownPublisher()
-	{
-		finalise();
-	}
-	
-	/*-----------------*/
-	/* Private methods */
-	/*-----------------*/
+    /*---------------------------*/
+    /* Watermark related methods */
+    /*---------------------------*/
+    /**
+     * Returns the watermark of the given zone. This is the value that has been passed to setBroadcastWatermark()
+     * in the last broadcastEvents() run in which all events have been sent to that zone successfully. The 
+     * watermark survives a restart of the agent. It allows getSIFEvents() to only retrieve the data that has 
+     * changed since then. If there is no watermark for the zone then null is returned.<p>
+     * 
+     * If an SCF database is configured the watermark is held per SIF Object and zone rather than per publisher,
+     * so only one publisher per SIF Object may use watermarks across all agents sharing that database.
+     * 
+     * @param zone The zone for which the watermark shall be returned.
+     * 
+     * @return See description.
+     */
+    public Date getLastBroadcast(Zone zone)
+    {
+    	return getWatermarkStore().load(zone.getZoneId());
+    }
+
+    /**
+     * Returns the earliest watermark of all zones of this publisher (see getLastBroadcast(Zone)). Since the 
+     * events returned by getSIFEvents() are sent to all zones this is the watermark that getSIFEvents() should
+     * use. If any zone has no watermark then null is returned. In this case all data should be retrieved.
+     * 
+     * @return See description.
+     */
+    public Date getLastBroadcast()
+    {
+    	Date earliest = null;
+    	if (getZones() != null)
+    	{
+	    	for (Zone zone : getZones())
+	    	{
+	    		Date watermark = getLastBroadcast(zone);
+	    		if (watermark == null)
+	    		{
+	    			return null;
+	    		}
+	    		if ((earliest == null) || watermark.before(earliest))
+	    		{
+	    			earliest = watermark;
+	    		}
+	    	}
+    	}
+    	return earliest;
+    }
+
+    /**
+     * This method should be called by getSIFEvents() with the point in time up to which the returned events
+     * include all changes (i.e. the time the data has been queried). Once all events have been sent this value
+     * becomes the watermark of each zone that has accepted all events. It is not stored if any event could not
+     * be retrieved or sent. 
+     * 
+     * @param watermark The point in time up to which the events of this run include all changes.
+     */
+    public void setBroadcastWatermark(Date watermark)
+    {
+    	pendingWatermark = watermark;
+    }
+
+	/**
+	 * This method starts the background thread that builds the response snapshot of this publisher if response
+	 * snapshots are enabled (see SIFCommonProperties.getResponseSnapshot()). It is called by the Agent when the
+	 * publisher is started. It is not expected that sub-classes of this class call this method.
+	 */
+	public final void startResponseSnapshot()
+	{
+		ResponseSnapshot snapshot = getResponseSnapshot();
+		if (snapshot != null)
+		{
+			logger.debug("Start building response snapshots for Publisher "+getId()+".");
+			snapshot.start();
+		}
+	}
+
+	/**
+	 * This method shuts down this publisher gracefully. It is called by the Agent when a shutdown request
+	 * has been issued to the agent. It is not expected that sub-classes of this class call this method.
+	 * Specifics of the sub-class shutdowns must be handled in the finalise() method of the sub-class. The 
+	 * finalise() method is called as part of this method.
+	 */
+	public final void shutdownPublisher()
+	{
+		PublisherTrigger currentTrigger = getTrigger(false);
+		if (currentTrigger != null)
+		{
+			currentTrigger.shutdown();
+		}
+		if (laneService != null)
+		{
+			laneService.shutdown();
+		}
+		synchronized (this)
+		{
+			if (responseService != null)
+			{
+				responseService.shutdown();
+			}
+			if (responseSnapshot != null)
+			{
+				responseSnapshot.shutdown();
+			}
+			if (deadlineService != null)
+			{
+				deadlineService.shutdown();
+			}
+		}
+		finalise();
+	}
+	
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Wraps the given iterator in a snapshot diff iterator if the events of this publisher are a full snapshot.
+	 */
+	private SIFEventIterator diffSnapshot(SIFEventIterator iterator, MappingsContext mappingCtx)
+	{
+		if (getFrameworkProperties().getEventSnapshotDiff(getAgentID(), getId()))
+		{
+			int chunkSize = getFrameworkProperties().getEventSnapshotChunkSize(getAgentID(), getId());
+			logger.debug("Compare snapshot of Publisher "+getId()+" with previous snapshot in chunks of "+chunkSize+" objects.");
+			snapshotDiff = new SnapshotDiffIterator(iterator, this, mappingCtx, SCFObjectInfo.getInstance(getFrameworkProperties(), getAgentID()), new File(getWorkDir(), "snapshots/"+getId()), chunkSize);
+			return snapshotDiff;
+		}
+		return iterator;
+	}
+
+	/*
+	 * Replaces the previous snapshot once all events of this run have been sent to the zones. Objects whose
+	 * event has not been accepted by every zone keep their previous state (see SnapshotDiffIterator.commit()).
+	 */
+	private void commitSnapshot(boolean allSent)
+	{
+		if (snapshotDiff != null)
+		{
+			snapshotDiff.commit(allSent);
+			snapshotDiff = null;
+		}
+	}
+
+	/*
+	 * Wraps the given iterator in a prefetching iterator if a prefetch depth is configured for this publisher.
+	 */
+	private SIFEventIterator prefetchEvents(SIFEventIterator iterator, MappingsContext mappingCtx)
+	{
+		int depth = getFrameworkProperties().getPrefetchDepth(getAgentID(), getId());
+		if (depth > 0)
+		{
+			logger.debug("Prefetch up to "+depth+" events for Publisher "+getId());
+			return new PrefetchingEventIterator(iterator, this, mappingCtx, depth);
+		}
+		return iterator;
+	}
+
+	/*
+	 * Returns the iterator over the SIF Objects of the given request. If request coalescing is enabled and an
+	 * identical request is already being answered then the request joins the scan of that request rather than
+	 * calling getRequestedSIFObjects() again (see SharedResponseScan). The zone is not part of the key, so this
+	 * must only be enabled if the response of the publisher doesn't depend on the zone.
+	 */
+	private SIFResponseIterator openResponseIterator(Query query, Zone zone, SIFMessageInfo msgInfo, MappingInfo mappingInfo, RequestDeadline deadline) throws ADKException
+	{
+		SIFResponseIterator snapshotIterator = openResponseSnapshot(query, mappingInfo);
+		if (snapshotIterator != null)
+		{
+			logger.debug("Response of publisher "+getId()+" to zone "+zone.getZoneId()+" is taken from the snapshot.");
+			return prefetchResponses(snapshotIterator, mappingInfo);
+		}
+		if (!getFrameworkProperties().getResponseCoalesce(getAgentID(), getId()))
+		{
+			boolean resumable = getFrameworkProperties().getResponseResumable(getAgentID(), getId());
+			return getResponseIterator(query, zone, mappingInfo, resumable ? getCheckpointKey(query, zone, msgInfo, mappingInfo) : null, deadline);
+		}
+
+		String key = ResponseCache.getQueryKey(query, (msgInfo == null) ? null : msgInfo.getLatestSIFRequestVersion())+"|"+getMappingId(mappingInfo);
+		SharedResponseScan scan = null;
+		SharedResponseScan.Subscriber subscriber = null;
+		boolean first = false;
+		synchronized (sharedScans)
+		{
+			scan = sharedScans.get(key);
+			subscriber = (scan == null) ? null : scan.join();
+			if (subscriber == null)
+			{
+				scan = new SharedResponseScan(this, sharedScans, key, getFrameworkProperties().getResponseCoalesceBuffer(getAgentID(), getId()));
+				sharedScans.put(key, scan);
+				subscriber = scan.join();
+				first = true;
+			}
+		}
+
+		if (first)
+		{
+			try
+			{
+				scan.start(getResponseIterator(query, zone, mappingInfo, null, null), mappingInfo);
+			}
+			catch (ADKException ex)
+			{
+				scan.fail(ex);
+				throw ex;
+			}
+			catch (RuntimeException ex)
+			{
+				scan.fail(ex);
+				throw ex;
+			}
+		}
+		else
+		{
+			logger.debug("Request of zone "+zone.getZoneId()+" joins identical request in progress for Publisher "+getId()+".");
+		}
+		if (!subscriber.awaitStart())
+		{
+			subscriber.releaseResources();
+			return null;
+		}
+		return subscriber;
+	}
+
+	/*
+	 * Returns an iterator over the response snapshot if the query has neither conditions nor field restrictions
+	 * and the snapshot is recent enough. Otherwise null is returned.
+	 */
+	private SIFResponseIterator openResponseSnapshot(Query query, MappingInfo mappingInfo)
+	{
+		ResponseSnapshot snapshot = getResponseSnapshot();
+		if ((snapshot == null) || ((query != null) && (query.hasConditions() || query.hasFieldRestrictions())))
+		{
+			return null;
+		}
+		int frequency = getFrameworkProperties().getResponseSnapshotFrequencyInSeconds(getAgentID(), getId());
+		int maxAge = getFrameworkProperties().getResponseSnapshotMaxAgeInSeconds(getAgentID(), getId(), frequency * 2);
+		return snapshot.open(getMappingId(mappingInfo), maxAge * 1000L, 0);
+	}
+
+	/*
+	 * Returns the response snapshot of this publisher or null if response snapshots are not enabled.
+	 */
+	private synchronized ResponseSnapshot getResponseSnapshot()
+	{
+		if ((responseSnapshot == null) && getFrameworkProperties().getResponseSnapshot(getAgentID(), getId()))
+		{
+			int frequency = getFrameworkProperties().getResponseSnapshotFrequencyInSeconds(getAgentID(), getId());
+			responseSnapshot = new ResponseSnapshot(this, new File(getWorkDir(), "responseSnapshots/"+getId()), frequency * 1000L);
+		}
+		return responseSnapshot;
+	}
+
+	/*
+	 * Returns the mapping info with which the response snapshot is built.
+	 */
+	MappingInfo getSnapshotMappingInfo()
+	{
+		return new MappingInfo(null, getOutboundMappingCtx(null));
+	}
+
+	/*
+	 * Returns an iterator over all SIF Objects of this publisher for the response snapshot. The query is sent as
+	 * if from the first zone of this publisher. Returns null if there is no zone.
+	 */
+	SIFResponseIterator getAllSIFObjects(MappingInfo mappingInfo) throws ADKException
+	{
+		List<Zone> zones = getZones();
+		if ((zones == null) || zones.isEmpty())
+		{
+			return null;
+		}
+		return getResponseIterator(new Query(getDtd()), zones.get(0), mappingInfo, null, null);
+	}
+
+	/*
+	 * Returns the id of the mappings of the given mapping info or an empty string if there are no mappings.
+	 */
+	static String getMappingId(MappingInfo mappingInfo)
+	{
+		MappingsContext mappingCtx = mappingInfo.getMappingCtx();
+		return ((mappingCtx == null) || (mappingCtx.getMappings().getId() == null)) ? "" : mappingCtx.getMappings().getId();
+	}
+
+	/*
+	 * Calls getRequestedSIFObjects() and wraps the returned iterator as configured for this publisher. If a
+	 * checkpoint key is given and the iterator is resumable then the response continues from the checkpoint
+	 * saved for that key, if any, and a new checkpoint is saved if the response breaks off. If a deadline is
+	 * given and the iterator is cancellable then it is cancelled when the deadline passes. The iterator of a
+	 * coalesced scan has no deadline because it is shared by several requests.
+	 */
+	private SIFResponseIterator getResponseIterator(Query query, Zone zone, MappingInfo mappingInfo, String checkpointKey, RequestDeadline deadline) throws ADKException
+	{
+		RequestAdmission publisherAdmission = getRequestAdmission();
+		RequestAdmission agentAdmission = RequestAdmission.getAgentAdmission(getAgentID(), getFrameworkProperties().getRequestMaxConcurrentPerAgent(getAgentID()));
+		admit(RequestAdmission.getPriority(query), publisherAdmission, agentAdmission);
+
+		SIFResponseIterator iterator = null;
+		requestMappingInfo.set(mappingInfo);
+		try
+		{
+			iterator = getRequestedSIFObjects(query, zone);
+		}
+		finally
+		{
+			requestMappingInfo.remove();
+			if (iterator == null)
+			{
+				release(publisherAdmission, agentAdmission);
+			}
+		}
+		if (iterator == null)
+		{
+			return null;
+		}
+		if ((deadline != null) && (iterator instanceof CancellableSIFResponseIterator))
+		{
+			deadline.watch((CancellableSIFResponseIterator)iterator, getDeadlineService());
+		}
+		ResponseCheckpoint checkpoint = null;
+		if ((checkpointKey != null) && (iterator instanceof ResumableSIFResponseIterator))
+		{
+			int expiry = getFrameworkProperties().getResponseCheckpointExpiryInSeconds(getAgentID(), getId());
+			checkpoint = new ResponseCheckpoint(new File(getWorkDir(), "checkpoints/"+getId()), checkpointKey, (ResumableSIFResponseIterator)iterator, expiry * 1000L);
+			iterator = checkpoint.track((ResumableSIFResponseIterator)iterator);
+		}
+		else
+		{
+			iterator = buildInParallel(iterator, mappingInfo);
+		}
+		iterator = prefetchResponses(iterator, mappingInfo);
+		if ((publisherAdmission != null) || (agentAdmission != null))
+		{
+			// The request counts as running until the iterator is released.
+			iterator = RequestAdmission.releaseOnClose(iterator, publisherAdmission, agentAdmission);
+		}
+		return (checkpoint == null) ? iterator : checkpoint.attach(iterator);
+	}
+
+	/*
+	 * Returns the key of the checkpoint of a resumable response. It is the key of the request (see
+	 * ResponseCache.getKey()) and the SIF_SourceId of the requester, so the checkpoints of different subscribers
+	 * don't interfere.
+	 */
+	private String getCheckpointKey(Query query, Zone zone, SIFMessageInfo msgInfo, MappingInfo mappingInfo)
+	{
+		String key = ResponseCache.getKey(query, zone, (msgInfo == null) ? null : msgInfo.getLatestSIFRequestVersion(), getMappingId(mappingInfo));
+		return key+"|"+(((msgInfo == null) || (msgInfo.getSourceId() == null)) ? "" : msgInfo.getSourceId());
+	}
+
+	/*
+	 * Returns the timer that cancels responses when their deadline passes.
+	 */
+	private synchronized ScheduledExecutorService getDeadlineService()
+	{
+		if (deadlineService == null)
+		{
+			deadlineService = Executors.newSingleThreadScheduledExecutor();
+		}
+		return deadlineService;
+	}
+
+	/*
+	 * Returns FALSE if the request has been cancelled. An exception thrown by hasNext() because the iterator has
+	 * been cancelled is ignored.
+	 */
+	private boolean hasNext(SIFResponseIterator iterator, RequestDeadline deadline)
+	{
+		if (deadline.isCancelled())
+		{
+			return false;
+		}
+		try
+		{
+			return iterator.hasNext();
+		}
+		catch (RuntimeException ex)
+		{
+			if (deadline.wasCancelled())
+			{
+				return false;
+			}
+			throw ex;
+		}
+	}
+
+	/*
+	 * Returns the admission of this publisher or null if the number of concurrent requests is not limited.
+	 */
+	private synchronized RequestAdmission getRequestAdmission()
+	{
+		if (requestAdmission == null)
+		{
+			int limit = getFrameworkProperties().getRequestMaxConcurrent(getAgentID(), getId());
+			if (limit > 0)
+			{
+				requestAdmission = new RequestAdmission(limit);
+			}
+		}
+		return requestAdmission;
+	}
+
+	/*
+	 * Waits for the admission of this publisher and then for the admission of the agent. Either can be null.
+	 */
+	private void admit(int priority, RequestAdmission publisherAdmission, RequestAdmission agentAdmission) throws ADKException
+	{
+		if ((publisherAdmission == null) && (agentAdmission == null))
+		{
+			return;
+		}
+		queuedRequests.incrementAndGet();
+		boolean publisherAdmitted = false;
+		try
+		{
+			long waitMillis = 0;
+			if (publisherAdmission != null)
+			{
+				waitMillis += publisherAdmission.acquire(priority);
+				publisherAdmitted = true;
+			}
+			if (agentAdmission != null)
+			{
+				waitMillis += agentAdmission.acquire(priority);
+			}
+			recordRequestWait(waitMillis);
+			if (waitMillis > 0)
+			{
+				logger.debug("Request for Publisher "+getId()+" admitted after "+waitMillis+"ms.");
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			if (publisherAdmitted)
+			{
+				publisherAdmission.release();
+			}
+			throw new ADKException("Interrupted while waiting for admission of request to Publisher "+getId()+".", null);
+		}
+		finally
+		{
+			queuedRequests.decrementAndGet();
+		}
+	}
+
+	private void release(RequestAdmission publisherAdmission, RequestAdmission agentAdmission)
+	{
+		if (agentAdmission != null)
+		{
+			agentAdmission.release();
+		}
+		if (publisherAdmission != null)
+		{
+			publisherAdmission.release();
+		}
+	}
+
+	private synchronized void recordRequestWait(long waitMillis)
+	{
+		admittedRequests++;
+		totalRequestWaitMillis += waitMillis;
+		maxRequestWaitMillis = Math.max(maxRequestWaitMillis, waitMillis);
+	}
+
+	/*
+	 * Wraps the given iterator in a prefetching iterator if a prefetch depth is configured for this publisher.
+	 */
+	private SIFResponseIterator prefetchResponses(SIFResponseIterator iterator, MappingInfo mappingInfo)
+	{
+		int depth = getFrameworkProperties().getPrefetchDepth(getAgentID(), getId());
+		if (depth > 0)
+		{
+			logger.debug("Prefetch up to "+depth+" SIF Objects for Publisher "+getId());
+			return new PrefetchingResponseIterator(iterator, this, mappingInfo, depth);
+		}
+		return iterator;
+	}
+
+	/*
+	 * Wraps the given iterator so that its SIF Objects are built in parallel if it supports this and a response
+	 * parallelism is configured for this publisher.
+	 */
+	private SIFResponseIterator buildInParallel(SIFResponseIterator iterator, MappingInfo mappingInfo)
+	{
+		int parallelism = getFrameworkProperties().getResponseParallelism(getAgentID(), getId());
+		if ((parallelism <= 1) || !(iterator instanceof ParallelSIFResponseIterator<?>))
+		{
+			return iterator;
+		}
+
+		synchronized (this)
+		{
+			if (responseService == null)
+			{
+				responseService = Executors.newFixedThreadPool(parallelism);
+			}
+		}
+		int window = getFrameworkProperties().getResponseWindow(getAgentID(), getId(), parallelism * 4);
+		boolean ordered = getFrameworkProperties().getResponseOrdered(getAgentID(), getId());
+		logger.debug("Build SIF Objects for Publisher "+getId()+" in "+parallelism+" threads with up to "+window+" objects in flight ("+(ordered ? "ordered" : "unordered")+").");
+		return createParallelIterator((ParallelSIFResponseIterator<?>)iterator, mappingInfo, window, ordered);
+	}
+
+	private <S> SIFResponseIterator createParallelIterator(ParallelSIFResponseIterator<S> iterator, MappingInfo mappingInfo, int window, boolean ordered)
+	{
+		return new ParallelResponseIterator<S>(iterator, this, mappingInfo, responseService, window, ordered);
+	}
+
+	/*
+	 * Returns the XML of the given SIF Object of an event. The XML is taken from the payload cache if the same
+	 * instance has been serialised before. The SIF Objects of a response are serialised directly because each of
+	 * them is only serialised once.
+	 */
+	String getXML(SIFDataObject sifObject)
+	{
+		return getPayloadCache().getXML(sifObject);
+	}
+
+	private synchronized PayloadCache getPayloadCache()
+	{
+		if (payloadCache == null)
+		{
+			payloadCache = new PayloadCache(getFrameworkProperties().getPayloadCacheSize(getAgentID(), getId()));
+		}
+		return payloadCache;
+	}
+
+	/*
+	 * Returns the response cache of this publisher or null if no response cache is configured.
+	 */
+	private synchronized ResponseCache getResponseCache()
+	{
+		if (responseCache == null)
+		{
+			int cacheSize = getFrameworkProperties().getResponseCacheSize(getAgentID(), getId());
+			if (cacheSize > 0)
+			{
+				responseCache = new ResponseCache(cacheSize);
+			}
+		}
+		return responseCache;
+	}
+
+	/*
+	 * The expiry of a cached response is taken from SCF_OBJECT.DEFAULT_EXPIRY_IN_MINUTES of the SIF Object of this
+	 * publisher. If that is not set then the configured response cache expiry is used.
+	 */
+	private long getResponseCacheExpiryInMillis()
+	{
+		Integer minutes = SCFObjectInfo.getInstance(getFrameworkProperties(), getAgentID()).getDefaultExpiryInMinutes(getDtd().name());
+		if (minutes == null)
+		{
+			minutes = getFrameworkProperties().getResponseCacheExpiryInMinutes(getAgentID(), getId());
+		}
+		return minutes * 60000L;
+	}
+
+	/*
+	 * Returns the working directory of the agent. If none is configured then the current directory is returned.
+	 */
+	String getWorkDir()
+	{
+		String workDir = getFrameworkProperties().getWorkDir(getAgentID());
+		return (workDir == null) ? "." : workDir;
+	}
+
+	/*
+	 * Returns the rate limiter of the given zone or null if no rate limit is configured for this publisher.
+	 */
+	private ZoneRateLimiter getRateLimiter(Zone zone)
+	{
+		synchronized (rateLimiters)
+		{
+			if (!rateLimiters.containsKey(zone.getZoneId()))
+			{
+				SIFCommonProperties properties = getFrameworkProperties();
+				int messagesPerSecond = properties.getRateLimitMessagesPerSecond(getAgentID(), getId());
+				int bytesPerSecond = properties.getRateLimitBytesPerSecond(getAgentID(), getId());
+				ZoneRateLimiter limiter = null;
+				if ((messagesPerSecond > 0) || (bytesPerSecond > 0))
+				{
+					limiter = new ZoneRateLimiter(messagesPerSecond, bytesPerSecond, properties.getRateLimitBurstInSeconds(getAgentID(), getId()));
+				}
+				rateLimiters.put(zone.getZoneId(), limiter);
+			}
+			return rateLimiters.get(zone.getZoneId());
+		}
+	}
+
+	/*
+	 * Returns the max size in bytes of a SIF_Response packet to the given zone or 0 if it is not known.
+	 */
+	private int getResponsePacketSize(Zone zone)
+	{
+		AgentProperties properties = zone.getProperties();
+		return (properties == null) ? 0 : properties.getMaxBufferSize();
+	}
+
+	private synchronized PublisherTrigger getTrigger(boolean create)
+	{
+		if ((trigger == null) && create)
+		{
+			trigger = new PublisherTrigger(this, getFrameworkProperties().getEventTriggerWindowInMillis(getAgentID(), getId()));
+		}
+		return trigger;
+	}
+
+	private synchronized EventWatermarkStore getWatermarkStore()
+	{
+		if (watermarkStore == null)
+		{
+			watermarkStore = new EventWatermarkStore(SCFObjectInfo.getInstance(getFrameworkProperties(), getAgentID()), getDtd().name(), new File(getWorkDir(), "watermarks/"+getId()+".properties"));
+		}
+		return watermarkStore;
+	}
+
+	/*
+	 * Stores the watermark set by getSIFEvents() for each zone that has accepted all events.
+	 */
+	private void commitWatermark(boolean complete)
+	{
+		if ((pendingWatermark == null) || (getZones() == null))
+		{
+			return;
+		}
+		if (!complete)
+		{
+			logger.error("Not all events of Publisher "+getId()+" could be retrieved. Watermark not updated.");
+		}
+		else
+		{
+			for (Zone zone : getZones())
+			{
+				if (failedZones.contains(zone.getZoneId()))
+				{
+					logger.error("Not all events of Publisher "+getId()+" have been sent to zone "+zone.getZoneId()+". Watermark not updated.");
+				}
+				else if (getWatermarkStore().save(zone.getZoneId(), pendingWatermark))
+				{
+					logger.debug("Watermark of Publisher "+getId()+" for zone "+zone.getZoneId()+" set to "+pendingWatermark);
+				}
+			}
+		}
+		pendingWatermark = null;
+	}
+
+	/*
+	 * Replays the journal of each zone if the event journal is enabled for this publisher. The journals are
+	 * created with the first call.
+	 */
+	private void replayJournals()
+	{
+		if (!getFrameworkProperties().getEventJournal(getAgentID(), getId()) || (getZones() == null))
+		{
+			return;
+		}
+		if (journals == null)
+		{
+			long segmentSize = getFrameworkProperties().getEventJournalSegmentSize(getAgentID(), getId());
+			File dir = new File(getWorkDir(), "journal/"+getId());
+			Map<String, ZoneEventJournal> zoneJournals = new HashMap<String, ZoneEventJournal>();
+			for (Zone zone : getZones())
+			{
+				zoneJournals.put(zone.getZoneId(), new ZoneEventJournal(this, zone, new File(dir, zone.getZoneId()), segmentSize));
+			}
+			journals = zoneJournals;
+		}
+
+		int replayRate = getFrameworkProperties().getEventJournalReplayRate(getAgentID(), getId());
+		for (Zone zone : getZones())
+		{
+			ZoneEventJournal journal = journals.get(zone.getZoneId());
+			if (journal.hasPending())
+			{
+				int replayed = journal.replay(replayRate);
+				logger.info("Total SIF Events replayed from journal for zone "+zone.getZoneId()+": "+replayed+" ("+journal.getPendingEvents()+" remaining)");
+			}
+		}
+	}
+
+	/*
+	 * Creates a change digest store for each zone if unchanged SIF Objects shall be suppressed for this
+	 * publisher. If no suppression is required then null is returned.
+	 */
+	private Map<String, ChangeDigestStore> createChangeDigestStores()
+	{
+		if (!getFrameworkProperties().getEventSuppressUnchanged(getAgentID(), getId()) || (getZones() == null))
+		{
+			return null;
+		}
+
+		SCFObjectInfo objectInfo = SCFObjectInfo.getInstance(getFrameworkProperties(), getAgentID());
+		File dir = new File(getWorkDir(), "digests/"+getId());
+		Map<String, ChangeDigestStore> stores = new HashMap<String, ChangeDigestStore>();
+		for (Zone zone : getZones())
+		{
+			stores.put(zone.getZoneId(), new ChangeDigestStore(new File(dir, zone.getZoneId()+".digest"), objectInfo, getPayloadCache()));
+		}
+		return stores;
+	}
+
+	/*
+	 * Writes the digests of all zones to their files and logs the number of suppressed events.
+	 */
+	private void saveChangeDigestStores()
+	{
+		if (changeDigests != null)
+		{
+			int eventsSuppressed = 0;
+			for (ChangeDigestStore store : changeDigests.values())
+			{
+				store.save();
+				eventsSuppressed += store.getEventsSuppressed();
+			}
+			changeDigests = null;
+			logger.info("Total SIF Events suppressed (unchanged): "+eventsSuppressed);
+		}
+	}
+
+	/*
+	 * Creates an empty event batch for each zone if a batch size greater than 1 is configured for this
+	 * publisher. If no batching is required then null is returned.
+	 */
+	private Map<String, ZoneEventBatch> createEventBatches()
+	{
+		int batchSize = getFrameworkProperties().getEventBatchSize(getAgentID(), getId());
+		if ((batchSize <= 1) || (getZones() == null))
+		{
+			return null;
+		}
+
+		int maxBytes = getFrameworkProperties().getEventBatchMaxBytes(getAgentID(), getId());
+		logger.debug("Event batching for Publisher "+getId()+": max "+batchSize+" objects, max "+maxBytes+" bytes per SIF_Event.");
+		Map<String, ZoneEventBatch> batches = new HashMap<String, ZoneEventBatch>();
+		for (Zone zone : getZones())
+		{
+			batches.put(zone.getZoneId(), new ZoneEventBatch(this, zone, batchSize, maxBytes));
+		}
+		return batches;
+	}
+
+	/*
+	 * Starts one lane for each zone if zone lanes are enabled for this publisher. If zone lanes are not
+	 * required then null is returned.
+	 */
+	private List<ZoneEventLane> startZoneLanes()
+	{
+		if (!getFrameworkProperties().getEventZoneLanes(getAgentID(), getId()) || (getZones() == null) || getZones().isEmpty())
+		{
+			return null;
+		}
+
+		int depth = getFrameworkProperties().getEventLaneDepth(getAgentID(), getId());
+		int maxLag = getFrameworkProperties().getEventMaxLaneLagInSeconds(getAgentID(), getId());
+		synchronized (this)
+		{
+			if (laneService == null)
+			{
+				laneService = Executors.newCachedThreadPool(VirtualThreads.getThreadFactory(getId()+"Lane ", getFrameworkProperties().getPublisherVirtualThreads(getAgentID(), getId())));
+			}
+		}
+		logger.debug("Start "+getZones().size()+" zone lane(s) for Publisher "+getId()+" with depth "+depth+" and max lag of "+maxLag+" seconds.");
+		List<ZoneEventLane> lanes = new ArrayList<ZoneEventLane>();
+		for (Zone zone : getZones())
+		{
+			ZoneEventLane lane = new ZoneEventLane(this, zone, depth, maxLag);
+			laneService.execute(lane);
+			lanes.add(lane);
+		}
+		return lanes;
+	}
+
+	/*
+	 * Waits for all lanes to send their remaining events and logs the events that could not be handed to
+	 * lagging lanes. Returns FALSE if any lane has dropped events.
+	 */
+	private boolean closeZoneLanes(List<ZoneEventLane> lanes)
+	{
+		boolean allSent = true;
+		if (lanes != null)
+		{
+			for (ZoneEventLane lane : lanes)
+			{
+				lane.close();
+				if (lane.isLagging())
+				{
+					failedZones.add(lane.getZone().getZoneId());
+					logger.error("Total SIF Events not sent to lagging zone "+lane.getZone().getZoneId()+": "+lane.getEventsDropped());
+					allSent = false;
+				}
+			}
+		}
+		return allSent;
+	}
+
+	/*
+	 * Sends all remaining events of the event batches and logs the batch counts.
+	 */
+	private void flushEventBatches()
+	{
+		if (eventBatches != null)
+		{
+			int batchesSent = 0;
+			int batchesFailed = 0;
+			for (ZoneEventBatch batch : eventBatches.values())
+			{
+				batch.flush();
+				batchesSent += batch.getBatchesSent();
+				batchesFailed += batch.getBatchesFailed();
+			}
+			eventBatches = null;
+			logger.info("Total SIF Event batches sent  : "+batchesSent);
+			logger.info("Total SIF Event batches failed: "+batchesFailed);
+		}
+	}
+
+	private String getEventActionString(EventAction eventAction)
+	{
+		switch (eventAction)
+		{
+			case ADD:
+				return "Add";
+			case DELETE:
+				return "Delete";
+			default:
+				return "Change";
+		}
+	}
+
 	private MappingsContext getOutboundMappingCtx(SIFMessageInfo msgInfo)
 	{
 		MappingsContext mappingCtx = null;
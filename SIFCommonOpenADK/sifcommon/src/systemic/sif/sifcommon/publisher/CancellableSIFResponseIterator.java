@@ -0,0 +1,39 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+
+/**
+ * A SIFResponseIterator that can abort a long running operation when the request it serves is cancelled. A
+ * request is cancelled once its deadline has passed (see SIFCommonProperties.getRequestTimeoutInSeconds()) or
+ * the zone it has been received from has disconnected.<p>
+ *
+ * onRequest() stops retrieving SIF Objects from any SIFResponseIterator as soon as it notices the cancellation
+ * and then calls releaseResources(). This only happens between two SIF Objects though. If hasNext() or
+ * getNextSIFObject() can block for a long time (i.e. while a database executes a query) then the iterator
+ * should implement this interface. cancel() is called as soon as the deadline passes, even while another
+ * thread is blocked in hasNext() or getNextSIFObject().
+ *
+ * @author Joerg Huber
+ */
+public interface CancellableSIFResponseIterator extends SIFResponseIterator
+{
+	/**
+	 * This method is called from a different thread when the request is cancelled. It should abort any
+	 * operation in progress (i.e. call Statement.cancel()) and must return quickly. hasNext() and
+	 * getNextSIFObject() may throw an exception afterwards. releaseResources() is still called.
+	 */
+	public void cancel();
+}
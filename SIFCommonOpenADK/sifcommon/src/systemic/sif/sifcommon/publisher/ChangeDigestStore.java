@@ -0,0 +1,277 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import openadk.library.ADK;
+import openadk.library.EventAction;
+import openadk.library.SIFDataObject;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.model.SIFEvent;
+import systemic.sif.sifcommon.utils.SCFObjectInfo;
+
+
+/**
+ * This class holds the digest of each SIF Object that has last been published to one zone by one publisher.
+ * It is used to suppress CHANGE events of SIF Objects that have not changed since they were last published.
+ * The SIF Objects are identified by their key as defined in the SCF database (see SCFObjectInfo). The
+ * digest is the MD5 of the XML of the SIF Object.<p>
+ *
+ * A digest is only recorded once the zone has accepted the event. If the delivery fails the event will be
+ * sent again the next time. ADD events are never suppressed but record the digest. DELETE events are never
+ * suppressed and remove the digest.<p>
+ *
+ * The digests are held in memory and written to a file when save() is called. An instance of this class is
+ * not thread safe. It is expected that only one thread sends events for a given zone.
+ *
+ * @author Joerg Huber
+ */
+class ChangeDigestStore
+{
+	private static final String FILE_ENCODING = "UTF-8";
+
+	protected Logger logger = ADK.getLog();
+
+	private File file;
+	private SCFObjectInfo objectInfo;
+	private PayloadCache payloadCache;
+	private Map<String, String> digests = null;
+	private boolean modified = false;
+
+	/* Digests of the events that have been checked but are not yet delivered */
+	private Map<SIFEvent, String[]> pending = new IdentityHashMap<SIFEvent, String[]>();
+
+	private int eventsSuppressed = 0;
+
+	/**
+	 * Creates a store that is persisted in the given file. The file is read with the first call to
+	 * isUnchanged().
+	 *
+	 * @param file The file that holds the digests.
+	 * @param objectInfo Used to determine the key of the SIF Objects.
+	 * @param payloadCache Used to compute the digest of the SIF Objects.
+	 */
+	ChangeDigestStore(File file, SCFObjectInfo objectInfo, PayloadCache payloadCache)
+	{
+		this.file = file;
+		this.objectInfo = objectInfo;
+		this.payloadCache = payloadCache;
+	}
+
+	/**
+	 * Returns TRUE if the event is a CHANGE event and the SIF Object has the same digest as the one last
+	 * published. In this case the event shall not be sent. In all other cases FALSE is returned and the digest
+	 * of the event is remembered until the event is confirmed with delivered().
+	 */
+	boolean isUnchanged(SIFEvent event)
+	{
+		load();
+		String key = objectInfo.getKey(event.getSifObject());
+		if (key == null)
+		{
+			return false; // cannot track objects without a key
+		}
+		String digest = null;
+		if (event.getEventAction() != EventAction.DELETE)
+		{
+			digest = payloadCache.getDigest(event.getSifObject());
+			if (digest == null)
+			{
+				return false;
+			}
+		}
+		if ((event.getEventAction() == EventAction.CHANGE) && digest.equals(digests.get(key)))
+		{
+			eventsSuppressed++;
+			return true;
+		}
+		pending.put(event, new String[] {key, digest});
+		return false;
+	}
+
+	/**
+	 * Must be called once the given events have been sent to the zone. If they have been accepted then the
+	 * digests of the events are recorded.
+	 */
+	void delivered(List<SIFEvent> events, boolean accepted)
+	{
+		for (SIFEvent event : events)
+		{
+			String[] keyAndDigest = pending.remove(event);
+			if (accepted && (keyAndDigest != null))
+			{
+				if (keyAndDigest[1] == null)
+				{
+					digests.remove(keyAndDigest[0]);
+				}
+				else
+				{
+					digests.put(keyAndDigest[0], keyAndDigest[1]);
+				}
+				modified = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the digests to the file if they have been modified since they were read.
+	 */
+	void save()
+	{
+		pending.clear();
+		if (!modified)
+		{
+			return;
+		}
+		File tmpFile = new File(file.getPath()+".tmp");
+		BufferedWriter writer = null;
+		try
+		{
+			file.getParentFile().mkdirs();
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), FILE_ENCODING));
+			for (Map.Entry<String, String> entry : digests.entrySet())
+			{
+				writer.write(entry.getValue());
+				writer.write('\t');
+				writer.write(entry.getKey());
+				writer.newLine();
+			}
+			writer.close();
+			writer = null;
+			if (file.exists() && !file.delete())
+			{
+				throw new IllegalStateException("Cannot replace "+file.getPath());
+			}
+			if (!tmpFile.renameTo(file))
+			{
+				throw new IllegalStateException("Cannot rename "+tmpFile.getPath()+" to "+file.getPath());
+			}
+			modified = false;
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to write change digests to "+file.getPath()+": "+ex.getMessage(), ex);
+		}
+		finally
+		{
+			close(writer);
+		}
+	}
+
+	int getEventsSuppressed()
+	{
+		return eventsSuppressed;
+	}
+
+	/**
+	 * Returns the digest (MD5 in hex) of the XML of the given SIF Object. If the digest cannot be computed
+	 * then the error is logged and null is returned.
+	 */
+	static String getDigest(SIFDataObject sifObject)
+	{
+		return getDigest(sifObject.toXML());
+	}
+
+	/**
+	 * Returns the digest (MD5 in hex) of the given XML of a SIF Object. If the digest cannot be computed then
+	 * the error is logged and null is returned.
+	 */
+	static String getDigest(String xml)
+	{
+		try
+		{
+			byte[] hash = MessageDigest.getInstance("MD5").digest(xml.getBytes(FILE_ENCODING));
+			StringBuilder digest = new StringBuilder(hash.length * 2);
+			for (byte b : hash)
+			{
+				digest.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return digest.toString();
+		}
+		catch (Exception ex)
+		{
+			ADK.getLog().error("Failed to compute digest of SIF Object: "+ex.getMessage(), ex);
+			return null;
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private void load()
+	{
+		if (digests != null)
+		{
+			return;
+		}
+		digests = new HashMap<String, String>();
+		if (!file.exists())
+		{
+			return;
+		}
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), FILE_ENCODING));
+			String line = null;
+			while ((line = reader.readLine()) != null)
+			{
+				int pos = line.indexOf('\t');
+				if (pos > 0)
+				{
+					digests.put(line.substring(pos+1), line.substring(0, pos));
+				}
+			}
+			logger.debug("Loaded "+digests.size()+" change digests from "+file.getPath());
+		}
+		catch (Exception ex)
+		{
+			// We start with no digests. This means that no event is suppressed in this run.
+			logger.error("Failed to read change digests from "+file.getPath()+": "+ex.getMessage(), ex);
+			digests.clear();
+		}
+		finally
+		{
+			close(reader);
+		}
+	}
+
+	private void close(Closeable closeable)
+	{
+		if (closeable != null)
+		{
+			try
+			{
+				closeable.close();
+			}
+			catch (Exception ex) {}
+		}
+	}
+}
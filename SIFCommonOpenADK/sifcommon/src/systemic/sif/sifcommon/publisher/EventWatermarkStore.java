@@ -0,0 +1,234 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Properties;
+
+import openadk.library.ADK;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.utils.SCFObjectInfo;
+
+
+/**
+ * This class persists the watermark of each zone of a publisher. The watermark is the point in time up to
+ * which all events have been successfully broadcast to the zone. It allows getSIFEvents() to only retrieve
+ * the data that has changed since then, even after a restart of the agent.<p>
+ *
+ * If an SCF database is configured (see SCFObjectInfo) the watermark is held in the LAST_REQUESTED column of
+ * the table SCF_OBJECT_ZONE_SYNC for the SIF Object of the publisher and the zone. Otherwise it is held in
+ * the file 'watermarks/_publisherID_.properties' in the working directory of the agent.<p>
+ *
+ * SCF_OBJECT_ZONE_SYNC only identifies a row by the SIF Object (a foreign key to SCF_OBJECT) and the zone. With
+ * an SCF database there must therefore only be one publisher with watermarks per SIF Object and zone across all
+ * agents that share the database, otherwise the publishers overwrite each other's watermark. Without an SCF
+ * database the watermark is held per publisher.
+ *
+ * @author Joerg Huber
+ */
+class EventWatermarkStore
+{
+	protected Logger logger = ADK.getLog();
+
+	/* Number of attempts to insert a new watermark if another agent has taken the same OBJECT_ZONE_SYNC_ID. */
+	private static final int INSERT_ATTEMPTS = 3;
+
+	private SCFObjectInfo objectInfo;
+	private String sifObjectName;
+	private File file;
+
+	/**
+	 * Creates the store for one publisher.
+	 *
+	 * @param objectInfo Gives access to the SCF database.
+	 * @param sifObjectName The name of the SIF Object the publisher deals with. Used in the SCF database.
+	 * @param file The file used if no SCF database is configured.
+	 */
+	EventWatermarkStore(SCFObjectInfo objectInfo, String sifObjectName, File file)
+	{
+		this.objectInfo = objectInfo;
+		this.sifObjectName = sifObjectName;
+		this.file = file;
+	}
+
+	/**
+	 * Returns the watermark of the given zone or null if there is none or it cannot be read.
+	 */
+	Date load(String zoneID)
+	{
+		try
+		{
+			if (objectInfo.hasDatabase())
+			{
+				return loadFromDB(zoneID);
+			}
+			String value = loadFile().getProperty(zoneID);
+			return (value == null) ? null : new Date(Long.parseLong(value));
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to read watermark of "+sifObjectName+" for zone "+zoneID+": "+ex.getMessage(), ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the watermark of the given zone. Returns TRUE if the watermark has been stored.
+	 */
+	synchronized boolean save(String zoneID, Date watermark)
+	{
+		try
+		{
+			if (objectInfo.hasDatabase())
+			{
+				saveToDB(zoneID, watermark);
+			}
+			else
+			{
+				Properties watermarks = loadFile();
+				watermarks.setProperty(zoneID, String.valueOf(watermark.getTime()));
+				saveFile(watermarks);
+			}
+			return true;
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to store watermark of "+sifObjectName+" for zone "+zoneID+": "+ex.getMessage(), ex);
+			return false;
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private Date loadFromDB(String zoneID) throws Exception
+	{
+		Connection connection = objectInfo.getConnection();
+		try
+		{
+			PreparedStatement stmt = connection.prepareStatement("SELECT LAST_REQUESTED FROM SCF_OBJECT_ZONE_SYNC WHERE SIF_OBJECT_NAME = ? AND ZONE_ID = ?");
+			stmt.setString(1, sifObjectName);
+			stmt.setString(2, zoneID);
+			ResultSet rs = stmt.executeQuery();
+			Timestamp lastRequested = rs.next() ? rs.getTimestamp(1) : null;
+			rs.close();
+			stmt.close();
+			return (lastRequested == null) ? null : new Date(lastRequested.getTime());
+		}
+		finally
+		{
+			connection.close();
+		}
+	}
+
+	/*
+	 * Updates the row of the zone or inserts it if there is none. OBJECT_ZONE_SYNC_ID is not auto incremented, so
+	 * the next id is MAX + 1. If another agent inserts a row at the same time then the insert fails with a
+	 * duplicate primary key. In this case the update and insert are attempted again.
+	 */
+	private void saveToDB(String zoneID, Date watermark) throws Exception
+	{
+		Connection connection = objectInfo.getConnection();
+		try
+		{
+			for (int attempt = 1; ; attempt++)
+			{
+				PreparedStatement stmt = connection.prepareStatement("UPDATE SCF_OBJECT_ZONE_SYNC SET LAST_REQUESTED = ? WHERE SIF_OBJECT_NAME = ? AND ZONE_ID = ?");
+				stmt.setTimestamp(1, new Timestamp(watermark.getTime()));
+				stmt.setString(2, sifObjectName);
+				stmt.setString(3, zoneID);
+				int rows = stmt.executeUpdate();
+				stmt.close();
+				if (rows > 0)
+				{
+					return;
+				}
+
+				stmt = connection.prepareStatement("INSERT INTO SCF_OBJECT_ZONE_SYNC (OBJECT_ZONE_SYNC_ID, SIF_OBJECT_NAME, ZONE_ID, LAST_REQUESTED) SELECT COALESCE(MAX(OBJECT_ZONE_SYNC_ID), 0) + 1, ?, ?, ? FROM SCF_OBJECT_ZONE_SYNC");
+				try
+				{
+					stmt.setString(1, sifObjectName);
+					stmt.setString(2, zoneID);
+					stmt.setTimestamp(3, new Timestamp(watermark.getTime()));
+					stmt.executeUpdate();
+					return;
+				}
+				catch (SQLException ex)
+				{
+					if (attempt >= INSERT_ATTEMPTS)
+					{
+						throw ex;
+					}
+					logger.info("Failed to insert watermark of "+sifObjectName+" for zone "+zoneID+" (attempt "+attempt+"): "+ex.getMessage()+". Trying again.");
+				}
+				finally
+				{
+					stmt.close();
+				}
+			}
+		}
+		finally
+		{
+			connection.close();
+		}
+	}
+
+	private Properties loadFile() throws Exception
+	{
+		Properties watermarks = new Properties();
+		if (file.exists())
+		{
+			FileInputStream in = new FileInputStream(file);
+			try
+			{
+				watermarks.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		return watermarks;
+	}
+
+	private void saveFile(Properties watermarks) throws Exception
+	{
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getPath()+".tmp");
+		FileOutputStream out = new FileOutputStream(tmpFile);
+		try
+		{
+			watermarks.store(out, "Last successful broadcast per zone (milliseconds since 1970-01-01)");
+		}
+		finally
+		{
+			out.close();
+		}
+		if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+		{
+			throw new IllegalStateException("Cannot replace "+file.getPath());
+		}
+	}
+}
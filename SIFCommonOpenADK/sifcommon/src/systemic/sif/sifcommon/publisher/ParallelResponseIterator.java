@@ -0,0 +1,187 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import openadk.library.SIFDataObject;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * A SIFResponseIterator that builds the SIF Objects of a ParallelSIFResponseIterator on a pool of worker
+ * threads. The data of each SIF Object is read sequentially on the publisher thread and then handed to a
+ * worker that builds the SIF Object. The publisher thread remains the only thread that writes to the
+ * response.<p>
+ *
+ * At most 'window' SIF Objects are in flight at any time, i.e. read but not yet returned by getNextSIFObject().
+ * If the output is ordered then the SIF Objects are returned in the order of the underlying iterator, even if
+ * a later one is built first. Otherwise they are returned in the order they are built, which keeps the workers
+ * busy if the time to build a SIF Object varies a lot.<p>
+ *
+ * As with the PrefetchingResponseIterator the baseInfo and mappingInfo must be given in the constructor. The
+ * parameters of getNextSIFObject() are ignored.
+ *
+ * @param <S> The type of the data a SIF Object is built from.
+ *
+ * @author Joerg Huber
+ */
+class ParallelResponseIterator<S> implements SIFResponseIterator
+{
+	private ParallelSIFResponseIterator<S> iterator;
+	private BaseInfo baseInfo;
+	private MappingInfo mappingInfo;
+	private int window;
+	private boolean ordered;
+
+	private ExecutorService service;
+	private CompletionService<SIFDataObject> completionService = null;
+	private LinkedList<Future<SIFDataObject>> inFlight = new LinkedList<Future<SIFDataObject>>();
+	private volatile boolean released = false;
+
+	/**
+	 * Creates the iterator.
+	 *
+	 * @param iterator The iterator to read the data from.
+	 * @param baseInfo Passed to iterator.createSIFObject().
+	 * @param mappingInfo Passed to iterator.createSIFObject().
+	 * @param service The worker threads that build the SIF Objects.
+	 * @param window Max number of SIF Objects in flight.
+	 * @param ordered TRUE if the SIF Objects shall be returned in the order of the underlying iterator.
+	 */
+	ParallelResponseIterator(ParallelSIFResponseIterator<S> iterator, BaseInfo baseInfo, MappingInfo mappingInfo, ExecutorService service, int window, boolean ordered)
+	{
+		this.iterator = iterator;
+		this.baseInfo = baseInfo;
+		this.mappingInfo = mappingInfo;
+		this.window = Math.max(1, window);
+		this.ordered = ordered;
+		this.service = service;
+		if (!ordered)
+		{
+			// Only needed to find the next finished SIF Object. In ordered mode its queue would just grow.
+			this.completionService = new ExecutorCompletionService<SIFDataObject>(service);
+		}
+	}
+
+	//@Override
+	public boolean hasNext()
+	{
+		return !inFlight.isEmpty() || iterator.hasNext();
+	}
+
+	//@Override
+	public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+	{
+		fill();
+		if (inFlight.isEmpty())
+		{
+			return null;
+		}
+
+		Future<SIFDataObject> future = null;
+		try
+		{
+			if (ordered)
+			{
+				future = inFlight.removeFirst();
+			}
+			else
+			{
+				future = completionService.take();
+				inFlight.remove(future);
+			}
+			return future.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for SIF Object to be built.", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof ADKMappingException)
+			{
+				throw (ADKMappingException)ex.getCause();
+			}
+			if (ex.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause().getMessage(), ex.getCause());
+		}
+	}
+
+	/**
+	 * Waits for the SIF Objects still in flight, discards them and then releases the resources of the
+	 * underlying iterator.
+	 */
+	//@Override
+	public void releaseResources()
+	{
+		released = true;
+		for (Future<SIFDataObject> future : inFlight)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (ExecutionException ex)
+			{
+				// Not sent anyway.
+			}
+		}
+		inFlight.clear();
+		iterator.releaseResources();
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Reads the data of further SIF Objects and submits them to the workers until the window is full.
+	 */
+	private void fill()
+	{
+		while ((inFlight.size() < window) && iterator.hasNext())
+		{
+			final S source = iterator.getNextSource();
+			Callable<SIFDataObject> task = new Callable<SIFDataObject>()
+			{
+				//@Override
+				public SIFDataObject call() throws ADKMappingException
+				{
+					// Tasks not started before releaseResources() are skipped.
+					return released ? null : iterator.createSIFObject(source, baseInfo, mappingInfo);
+				}
+			};
+			inFlight.add(ordered ? service.submit(task) : completionService.submit(task));
+		}
+	}
+}
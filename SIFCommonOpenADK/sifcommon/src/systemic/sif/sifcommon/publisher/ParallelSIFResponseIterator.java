@@ -0,0 +1,65 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import openadk.library.SIFDataObject;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * A SIFResponseIterator that allows the SIF Objects to be built in parallel. Building and mapping a SIF Object
+ * is often far more expensive than reading the underlying data. Implementations of this interface split the
+ * two steps: getNextSource() reads the data of the next SIF Object (i.e. a row of a result set) and is always
+ * called sequentially by the publisher thread. createSIFObject() builds the SIF Object from that data and is
+ * called concurrently by several worker threads if a response parallelism is configured for the publisher
+ * (see SIFCommonProperties.getResponseParallelism()).<p>
+ *
+ * If no response parallelism is configured then the SIF Objects are retrieved through getNextSIFObject() as
+ * for any other SIFResponseIterator. A typical implementation of getNextSIFObject() is therefore:<p>
+ *
+ * <code>return createSIFObject(getNextSource(), baseInfo, mappingInfo);</code>
+ *
+ * @param <S> The type of the data a SIF Object is built from.
+ *
+ * @author Joerg Huber
+ */
+public interface ParallelSIFResponseIterator<S> extends SIFResponseIterator
+{
+	/**
+	 * This method returns the data of the next SIF Object. It is only called if hasNext() has returned TRUE.
+	 * The returned value must not depend on any resources of this iterator that are released or reused by
+	 * subsequent calls to this method (i.e. copy the values of a row rather than returning the result set).
+	 *
+	 * @return The data the next SIF Object is built from.
+	 */
+	public S getNextSource();
+
+	/**
+	 * This method builds a SIF Object from the given data. It must be thread safe because it can be called
+	 * by several threads at the same time. It is not called anymore once releaseResources() has returned.
+	 *
+	 * @param source The data returned by getNextSource().
+	 * @param baseInfo The base info object of the given publisher.
+	 * @param mappingInfo The mapping info that can be used if mapping is available. See getNextSIFObject().
+	 *
+	 * @return The SIF Object built from the given data.
+	 *
+	 * @throws ADKMappingException if mapping is used and there is an issue with the mapping.
+	 */
+	public SIFDataObject createSIFObject(S source, BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException;
+}
@@ -0,0 +1,192 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import openadk.library.ADK;
+import openadk.library.SIFDataObject;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class caches the XML and the digest of the SIF Objects of events so that a SIF Object that is handled for
+ * several zones is only serialised once. The same event is i.e. checked for changes, sized for the batch and the
+ * rate limit and written to the journal for each zone. Each of these needs the XML of the SIF Object. The SIF
+ * Objects of responses are not cached since each of them is only serialised once.<p>
+ *
+ * The SIF Objects are identified by identity, so the cache only helps if the publisher hands out the same
+ * instance more than once. Because a SIF Object can be modified after it has been cached the cache must be
+ * invalidated whenever this can happen. BasePublisher does this at the end of each broadcastEvents() run and
+ * whenever the response cache is invalidated.<p>
+ *
+ * The total size of the cached entries is limited to 'maxBytes'. Each entry also keeps its SIF Object in
+ * memory, so an entry is counted as twice the size of its XML: once for the XML and once for the SIF Object it 
+ * has been serialised from. If the limit is exceeded the least recently used entries are removed. With a limit
+ * of 0 nothing is cached and each call serialises the SIF Object.
+ *
+ * @author Joerg Huber
+ */
+class PayloadCache
+{
+	protected Logger logger = ADK.getLog();
+
+	private long maxBytes;
+	private long totalBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private LinkedHashMap<Identity, Payload> entries = new LinkedHashMap<Identity, Payload>(16, 0.75f, true);
+
+	/*
+	 * Key of the cache. Compares the SIF Objects by identity because SIFDataObject doesn't compare by value.
+	 */
+	private static class Identity
+	{
+		private SIFDataObject sifObject;
+
+		Identity(SIFDataObject sifObject)
+		{
+			this.sifObject = sifObject;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(sifObject);
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			return (other instanceof Identity) && (((Identity)other).sifObject == sifObject);
+		}
+	}
+
+	/*
+	 * The cached values of one SIF Object. The digest is only computed when it is requested for the first time.
+	 */
+	private static class Payload
+	{
+		private String xml;
+		private String digest = null;
+
+		Payload(String xml)
+		{
+			this.xml = xml;
+		}
+	}
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxBytes Max total size of the cached XML in bytes. 0 means nothing is cached.
+	 */
+	PayloadCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the XML of the given SIF Object.
+	 */
+	String getXML(SIFDataObject sifObject)
+	{
+		return getPayload(sifObject).xml;
+	}
+
+	/**
+	 * Returns the digest of the given SIF Object (see ChangeDigestStore.getDigest()) or null if it cannot be
+	 * computed.
+	 */
+	String getDigest(SIFDataObject sifObject)
+	{
+		Payload payload = getPayload(sifObject);
+		synchronized (payload)
+		{
+			if (payload.digest == null)
+			{
+				payload.digest = ChangeDigestStore.getDigest(payload.xml);
+			}
+			return payload.digest;
+		}
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	synchronized void invalidate()
+	{
+		if (!entries.isEmpty())
+		{
+			logger.debug("Payload cache invalidated ("+hits+" hits, "+misses+" misses, "+entries.size()+" objects, "+totalBytes+" bytes).");
+		}
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private Payload getPayload(SIFDataObject sifObject)
+	{
+		if (maxBytes <= 0)
+		{
+			return new Payload(sifObject.toXML());
+		}
+
+		Identity identity = new Identity(sifObject);
+		synchronized (this)
+		{
+			Payload payload = entries.get(identity);
+			if (payload != null)
+			{
+				hits++;
+				return payload;
+			}
+			misses++;
+		}
+
+		// Serialise outside of the lock. Two threads might serialise the same object at the same time, which is harmless.
+		Payload payload = new Payload(sifObject.toXML());
+		long bytes = getSize(payload);
+		synchronized (this)
+		{
+			if ((bytes <= maxBytes) && !entries.containsKey(identity))
+			{
+				entries.put(identity, payload);
+				totalBytes += bytes;
+				Iterator<Map.Entry<Identity, Payload>> iter = entries.entrySet().iterator();
+				while ((totalBytes > maxBytes) && iter.hasNext())
+				{
+					totalBytes -= getSize(iter.next().getValue());
+					iter.remove();
+				}
+			}
+		}
+		return payload;
+	}
+
+	/*
+	 * Returns the memory held by an entry: the XML string (2 bytes per character) plus the SIF Object, which is
+	 * estimated at the size of its XML.
+	 */
+	private long getSize(Payload payload)
+	{
+		return payload.xml.length() * 4L;
+	}
+}
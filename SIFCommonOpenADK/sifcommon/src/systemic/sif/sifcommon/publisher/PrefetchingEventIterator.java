@@ -0,0 +1,93 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import openadk.library.tools.mapping.ADKMappingException;
+import openadk.library.tools.mapping.MappingsContext;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.model.SIFEvent;
+
+
+/**
+ * A SIFEventIterator that retrieves the events of another SIFEventIterator in a separate thread ahead of
+ * the publisher. The number of events retrieved ahead is limited by the depth given in the constructor.<p>
+ *
+ * Because the events are retrieved in a separate thread the baseInfo and mappingCtx must be given in the
+ * constructor. The parameters of getNextEvent() are ignored.
+ *
+ * @see PrefetchingIterator
+ *
+ * @author Joerg Huber
+ */
+class PrefetchingEventIterator extends PrefetchingIterator<SIFEvent> implements SIFEventIterator
+{
+	private SIFEventIterator iterator;
+	private BaseInfo baseInfo;
+	private MappingsContext mappingCtx;
+
+	/**
+	 * Creates the iterator and starts retrieving events from the given iterator.
+	 *
+	 * @param iterator The iterator to retrieve the events from.
+	 * @param baseInfo Passed to iterator.getNextEvent().
+	 * @param mappingCtx Passed to iterator.getNextEvent().
+	 * @param depth Max number of events retrieved ahead.
+	 */
+	PrefetchingEventIterator(SIFEventIterator iterator, BaseInfo baseInfo, MappingsContext mappingCtx, int depth)
+	{
+		super(depth);
+		this.iterator = iterator;
+		this.baseInfo = baseInfo;
+		this.mappingCtx = mappingCtx;
+		start(baseInfo.getId()+"-EventPrefetch");
+	}
+
+	//@Override
+	public SIFEvent getNextEvent(BaseInfo baseInfo, MappingsContext mappingCtx) throws ADKMappingException
+	{
+		return next();
+	}
+
+	//@Override
+	public boolean hasNext()
+	{
+		return hasMore();
+	}
+
+	//@Override
+	public void releaseResources()
+	{
+		release();
+	}
+
+	@Override
+	boolean sourceHasNext()
+	{
+		return iterator.hasNext();
+	}
+
+	@Override
+	SIFEvent sourceNext() throws ADKMappingException
+	{
+		return iterator.getNextEvent(baseInfo, mappingCtx);
+	}
+
+	@Override
+	void sourceReleaseResources()
+	{
+		iterator.releaseResources();
+	}
+}
@@ -0,0 +1,257 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import openadk.library.ADK;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Base class of the prefetching SIFEventIterator and SIFResponseIterator. A producer thread drains the
+ * underlying iterator into a bounded buffer while the publisher thread takes the elements off the buffer
+ * and sends them to the zone. This way the time needed to fetch and map the data overlaps with the time
+ * needed to send the data.<p>
+ *
+ * Exceptions thrown by the underlying iterator are passed through the buffer and re-thrown to the publisher
+ * thread in the same order as they have occurred. A null element is passed through as well, so the publisher
+ * sees it exactly as without prefetching. No further elements are fetched after it. The resources of the underlying iterator are released on
+ * the publisher thread once the producer thread has finished.
+ *
+ * @author Joerg Huber
+ */
+abstract class PrefetchingIterator<T>
+{
+	protected Logger logger = ADK.getLog();
+
+	private BlockingQueue<Item<T>> buffer;
+	private CountDownLatch finished = new CountDownLatch(1);
+	private volatile boolean stopped = false;
+	private Item<T> nextItem = null;
+	private boolean released = false;
+
+	/*
+	 * The elements held in the buffer. An element is either a value, an exception that occurred when the
+	 * value was retrieved or the end of the data.
+	 */
+	private static class Item<T>
+	{
+		private T value;
+		private Exception exception;
+		private boolean end;
+
+		Item(T value, Exception exception, boolean end)
+		{
+			this.value = value;
+			this.exception = exception;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Initialises the buffer. The producer thread is started with start().
+	 *
+	 * @param depth The max number of elements fetched ahead.
+	 */
+	PrefetchingIterator(int depth)
+	{
+		buffer = new ArrayBlockingQueue<Item<T>>(Math.max(1, depth));
+	}
+
+	/*----------------------------------------------*/
+	/* Access to the underlying iterator (producer) */
+	/*----------------------------------------------*/
+	abstract boolean sourceHasNext();
+
+	abstract T sourceNext() throws ADKMappingException;
+
+	abstract void sourceReleaseResources();
+
+	/**
+	 * Starts the producer thread with the given name.
+	 */
+	void start(String threadName)
+	{
+		Thread producer = new Thread(new Runnable()
+		{
+			//@Override
+			public void run()
+			{
+				produce();
+			}
+		}, threadName);
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/*-------------------------------*/
+	/* Methods used by the publisher */
+	/*-------------------------------*/
+	/**
+	 * Returns TRUE if there are more elements. Blocks until the producer has fetched the next element or has
+	 * reached the end of the data. If the underlying hasNext() has failed then the exception is re-thrown.
+	 */
+	boolean hasMore()
+	{
+		if (nextItem == null)
+		{
+			try
+			{
+				while ((nextItem = buffer.poll(100, TimeUnit.MILLISECONDS)) == null)
+				{
+					// Producer terminated without marking the end of the data (i.e. interrupted).
+					if ((finished.getCount() == 0) && buffer.isEmpty())
+					{
+						nextItem = new Item<T>(null, null, true);
+					}
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for prefetched data.", ex);
+			}
+		}
+		if (nextItem.end && (nextItem.exception != null))
+		{
+			Exception ex = nextItem.exception;
+			nextItem = new Item<T>(null, null, true);
+			throw (ex instanceof RuntimeException) ? (RuntimeException)ex : new IllegalStateException(ex.getMessage(), ex);
+		}
+		return !nextItem.end;
+	}
+
+	/**
+	 * Returns the next element or null if there are no more elements. If the underlying iterator has thrown
+	 * an exception for this element then that exception is re-thrown.
+	 */
+	T next() throws ADKMappingException
+	{
+		if (!hasMore())
+		{
+			return null;
+		}
+		Item<T> item = nextItem;
+		nextItem = null;
+		if (item.exception != null)
+		{
+			if (item.exception instanceof ADKMappingException)
+			{
+				throw (ADKMappingException)item.exception;
+			}
+			throw (RuntimeException)item.exception;
+		}
+		return item.value;
+	}
+
+	/**
+	 * Stops the producer thread, waits for it to finish and then releases the resources of the underlying
+	 * iterator.
+	 */
+	void release()
+	{
+		if (released)
+		{
+			return;
+		}
+		released = true;
+		stopped = true;
+		try
+		{
+			// The producer might be blocked on a full buffer => make room until it has finished.
+			while (!finished.await(100, TimeUnit.MILLISECONDS))
+			{
+				buffer.clear();
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		buffer.clear();
+		sourceReleaseResources();
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private void produce()
+	{
+		try
+		{
+			while (!stopped && sourceHasNext())
+			{
+				try
+				{
+					T value = sourceNext();
+					if (value == null)
+					{
+						// Hand the null to the publisher, which treats it as an incomplete result.
+						logger.error("hasNext() has returned true but the next element is null => no further elements are prefetched.");
+						put(new Item<T>(null, null, false));
+						break;
+					}
+					put(new Item<T>(value, null, false));
+				}
+				catch (ADKMappingException ex)
+				{
+					put(new Item<T>(null, ex, false));
+				}
+				catch (RuntimeException ex)
+				{
+					put(new Item<T>(null, ex, false));
+				}
+			}
+			put(new Item<T>(null, null, true));
+		}
+		catch (RuntimeException ex)
+		{
+			// hasNext() of the underlying iterator has failed.
+			put(new Item<T>(null, ex, true));
+		}
+		finally
+		{
+			finished.countDown();
+		}
+	}
+
+	/*
+	 * Puts the item into the buffer. Waits for a free slot unless release() has been called.
+	 */
+	private void put(Item<T> item)
+	{
+		try
+		{
+			while (!stopped)
+			{
+				if (buffer.offer(item, 100, TimeUnit.MILLISECONDS))
+				{
+					return;
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			logger.error("Prefetching thread interrupted.");
+			stopped = true;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import openadk.library.SIFDataObject;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * A SIFResponseIterator that retrieves the SIF Objects of another SIFResponseIterator in a separate thread
+ * ahead of the publisher. The number of SIF Objects retrieved ahead is limited by the depth given in the
+ * constructor.<p>
+ *
+ * Because the SIF Objects are retrieved in a separate thread the baseInfo and mappingInfo must be given in
+ * the constructor. The parameters of getNextSIFObject() are ignored.
+ *
+ * @see PrefetchingIterator
+ *
+ * @author Joerg Huber
+ */
+class PrefetchingResponseIterator extends PrefetchingIterator<SIFDataObject> implements SIFResponseIterator
+{
+	private SIFResponseIterator iterator;
+	private BaseInfo baseInfo;
+	private MappingInfo mappingInfo;
+
+	/**
+	 * Creates the iterator and starts retrieving SIF Objects from the given iterator.
+	 *
+	 * @param iterator The iterator to retrieve the SIF Objects from.
+	 * @param baseInfo Passed to iterator.getNextSIFObject().
+	 * @param mappingInfo Passed to iterator.getNextSIFObject().
+	 * @param depth Max number of SIF Objects retrieved ahead.
+	 */
+	PrefetchingResponseIterator(SIFResponseIterator iterator, BaseInfo baseInfo, MappingInfo mappingInfo, int depth)
+	{
+		super(depth);
+		this.iterator = iterator;
+		this.baseInfo = baseInfo;
+		this.mappingInfo = mappingInfo;
+		start(baseInfo.getId()+"-ResponsePrefetch");
+	}
+
+	//@Override
+	public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+	{
+		return next();
+	}
+
+	//@Override
+	public boolean hasNext()
+	{
+		return hasMore();
+	}
+
+	//@Override
+	public void releaseResources()
+	{
+		release();
+	}
+
+	@Override
+	boolean sourceHasNext()
+	{
+		return iterator.hasNext();
+	}
+
+	@Override
+	SIFDataObject sourceNext() throws ADKMappingException
+	{
+		return iterator.getNextSIFObject(baseInfo, mappingInfo);
+	}
+
+	@Override
+	void sourceReleaseResources()
+	{
+		iterator.releaseResources();
+	}
+}
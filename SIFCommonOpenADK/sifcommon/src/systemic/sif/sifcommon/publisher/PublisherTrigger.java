@@ -0,0 +1,140 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import openadk.library.ADK;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class runs a publisher when it is triggered rather than at its scheduled time. The first trigger
+ * schedules a run after a short window. All triggers that arrive before that run starts are merged into it,
+ * so a burst of triggers results in one run only. Triggers that arrive while a run is in progress are merged
+ * into one follow-up run.<p>
+ *
+ * Each trigger can pass the keys of the changed objects. The keys of all merged triggers are handed to the
+ * run. If any of the merged triggers has no keys then the run is not restricted to any keys.
+ *
+ * @author Joerg Huber
+ */
+class PublisherTrigger implements Runnable
+{
+	protected Logger logger = ADK.getLog();
+
+	private BasePublisher publisher;
+	private long windowMillis;
+	private ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+
+	private boolean pending = false;
+	private boolean allKeys = false;
+	private Set<String> keys = new HashSet<String>();
+
+	/**
+	 * Creates the trigger for the given publisher.
+	 *
+	 * @param publisher The publisher to run.
+	 * @param windowMillis Time in milliseconds between the first trigger and the run.
+	 */
+	PublisherTrigger(BasePublisher publisher, long windowMillis)
+	{
+		this.publisher = publisher;
+		this.windowMillis = Math.max(0, windowMillis);
+	}
+
+	/**
+	 * Requests a run of the publisher for the given keys. If keys is null or empty the run is not restricted
+	 * to any keys.
+	 */
+	synchronized void trigger(Collection<String> changedKeys)
+	{
+		if ((changedKeys == null) || changedKeys.isEmpty())
+		{
+			allKeys = true;
+			keys.clear();
+		}
+		else if (!allKeys)
+		{
+			keys.addAll(changedKeys);
+		}
+
+		if (!pending)
+		{
+			pending = true;
+			try
+			{
+				service.schedule(this, windowMillis, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException ex)
+			{
+				logger.debug("Trigger for Publisher "+publisher.getId()+" ignored. Publisher is shutting down.");
+			}
+		}
+	}
+
+	/**
+	 * Removes all pending triggers. Called when a scheduled run starts which covers all changes anyway.
+	 */
+	synchronized void clear()
+	{
+		allKeys = false;
+		keys.clear();
+		// 'pending' stays set until the scheduled trigger run has started. That run finds nothing to do.
+	}
+
+	void shutdown()
+	{
+		service.shutdown();
+	}
+
+	/**
+	 * Runs the publisher with the keys of all triggers merged since the last run.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	//@Override
+	public void run()
+	{
+		Set<String> runKeys = null;
+		synchronized (this)
+		{
+			pending = false;
+			if (!allKeys && keys.isEmpty())
+			{
+				return; // covered by a scheduled run
+			}
+			runKeys = allKeys ? null : keys;
+			allKeys = false;
+			keys = new HashSet<String>();
+		}
+
+		try
+		{
+			publisher.runTriggered(runKeys);
+		}
+		catch (Exception ex)
+		{
+			logger.error("Triggered run of Publisher "+publisher.getId()+" failed: "+ex.getMessage(), ex);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import openadk.library.ComparisonOperators;
+import openadk.library.Condition;
+import openadk.library.ConditionGroup;
+import openadk.library.Query;
+import openadk.library.SIFDataObject;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * This class limits the number of SIF_Requests that read from the data source at the same time. There is one
+ * instance per publisher and, if configured, one per agent that is shared by all its publishers. A request
+ * that exceeds the limit waits in a queue until a running request has released its iterator.<p>
+ *
+ * The queue is ordered by the priority of the requests: requests that only have equals conditions (i.e. look
+ * up objects by key) first, then other requests with conditions and full scans last. Requests with the same
+ * priority are admitted in the order they have arrived. So that full scans are not held back forever, the
+ * priority of a waiting request improves by one level every AGING_MILLIS milliseconds.
+ *
+ * @author Joerg Huber
+ */
+class RequestAdmission
+{
+	static final int KEYED = 0;
+	static final int FILTERED = 1;
+	static final int FULL_SCAN = 2;
+
+	private static final long AGING_MILLIS = 10000;
+
+	private static Map<String, RequestAdmission> agentAdmissions = new HashMap<String, RequestAdmission>();
+
+	private int limit;
+	private int running = 0;
+	private long sequence = 0;
+	private List<Waiter> waiting = new ArrayList<Waiter>();
+
+	/*
+	 * A request waiting for admission.
+	 */
+	private static class Waiter
+	{
+		private int priority;
+		private long since;
+		private long sequence;
+
+		Waiter(int priority, long since, long sequence)
+		{
+			this.priority = priority;
+			this.since = since;
+			this.sequence = sequence;
+		}
+
+		long getEffectivePriority(long now)
+		{
+			return priority - (now - since) / AGING_MILLIS;
+		}
+	}
+
+	/**
+	 * Creates an admission that allows 'limit' requests at a time.
+	 */
+	RequestAdmission(int limit)
+	{
+		this.limit = Math.max(1, limit);
+	}
+
+	/**
+	 * Returns the admission shared by all publishers of the given agent or null if the given limit is 0 or less.
+	 * The limit is only used when the admission is created.
+	 */
+	static RequestAdmission getAgentAdmission(String agentID, int limit)
+	{
+		if (limit <= 0)
+		{
+			return null;
+		}
+		synchronized (agentAdmissions)
+		{
+			RequestAdmission admission = agentAdmissions.get(agentID);
+			if (admission == null)
+			{
+				admission = new RequestAdmission(limit);
+				agentAdmissions.put(agentID, admission);
+			}
+			return admission;
+		}
+	}
+
+	/**
+	 * Returns the priority of the given query (KEYED, FILTERED or FULL_SCAN).
+	 */
+	static int getPriority(Query query)
+	{
+		if ((query == null) || !query.hasConditions())
+		{
+			return FULL_SCAN;
+		}
+		return isKeyed(query.getRootConditionGroup()) ? KEYED : FILTERED;
+	}
+
+	/**
+	 * Waits until a request with the given priority can be admitted.
+	 *
+	 * @return The time in milliseconds the request has waited.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting. The request is not admitted.
+	 */
+	synchronized long acquire(int priority) throws InterruptedException
+	{
+		if ((running < limit) && waiting.isEmpty())
+		{
+			running++;
+			return 0;
+		}
+
+		Waiter waiter = new Waiter(priority, System.currentTimeMillis(), sequence++);
+		waiting.add(waiter);
+		try
+		{
+			while ((running >= limit) || (getNext() != waiter))
+			{
+				wait();
+			}
+		}
+		finally
+		{
+			waiting.remove(waiter);
+			notifyAll(); // the next waiter might be admitted as well
+		}
+		running++;
+		return System.currentTimeMillis() - waiter.since;
+	}
+
+	/**
+	 * Releases a request admitted by acquire().
+	 */
+	synchronized void release()
+	{
+		running--;
+		notifyAll();
+	}
+
+	/**
+	 * Returns an iterator that releases the given admissions when its resources are released. Admissions that
+	 * are null are ignored.
+	 */
+	static SIFResponseIterator releaseOnClose(SIFResponseIterator iterator, RequestAdmission... admissions)
+	{
+		return new AdmittedResponseIterator(iterator, admissions);
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private Waiter getNext()
+	{
+		long now = System.currentTimeMillis();
+		Waiter next = null;
+		for (Waiter waiter : waiting)
+		{
+			if ((next == null) || (waiter.getEffectivePriority(now) < next.getEffectivePriority(now)) || ((waiter.getEffectivePriority(now) == next.getEffectivePriority(now)) && (waiter.sequence < next.sequence)))
+			{
+				next = waiter;
+			}
+		}
+		return next;
+	}
+
+	/*
+	 * A group is keyed if all its conditions and the conditions of all its sub groups are equals conditions.
+	 */
+	private static boolean isKeyed(ConditionGroup group)
+	{
+		if (group.getConditions() != null)
+		{
+			for (Condition condition : group.getConditions())
+			{
+				if (condition.getOperator() != ComparisonOperators.EQ)
+				{
+					return false;
+				}
+			}
+		}
+		if (group.getGroups() != null)
+		{
+			for (ConditionGroup subGroup : group.getGroups())
+			{
+				if (!isKeyed(subGroup))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Releases the admissions of a request once the request has released its iterator.
+	 */
+	private static class AdmittedResponseIterator implements SIFResponseIterator
+	{
+		private SIFResponseIterator iterator;
+		private RequestAdmission[] admissions;
+		private boolean released = false;
+
+		AdmittedResponseIterator(SIFResponseIterator iterator, RequestAdmission[] admissions)
+		{
+			this.iterator = iterator;
+			this.admissions = admissions;
+		}
+
+		//@Override
+		public boolean hasNext()
+		{
+			return iterator.hasNext();
+		}
+
+		//@Override
+		public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+		{
+			return iterator.getNextSIFObject(baseInfo, mappingInfo);
+		}
+
+		//@Override
+		public void releaseResources()
+		{
+			try
+			{
+				iterator.releaseResources();
+			}
+			finally
+			{
+				if (!released)
+				{
+					released = true;
+					for (RequestAdmission admission : admissions)
+					{
+						if (admission != null)
+						{
+							admission.release();
+						}
+					}
+				}
+			}
+		}
+	}
+}
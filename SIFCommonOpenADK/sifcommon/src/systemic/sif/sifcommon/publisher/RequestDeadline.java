@@ -0,0 +1,157 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.Calendar;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import openadk.library.ADK;
+import openadk.library.Zone;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class tracks whether a SIF_Request is still worth answering. A request is cancelled once its deadline
+ * has passed or the zone it has been received from has disconnected. The deadline is the time the request has
+ * been sent (SIF_Timestamp of the SIF_Header) plus the request timeout. If the request has no timestamp then
+ * the time the request has been received is used.<p>
+ *
+ * onRequest() calls isCancelled() before each SIF Object. If the iterator of the response is a
+ * CancellableSIFResponseIterator then a timer additionally cancels it as soon as the deadline passes.
+ *
+ * @author Joerg Huber
+ */
+class RequestDeadline implements Runnable
+{
+	protected Logger logger = ADK.getLog();
+
+	private Zone zone;
+	private long deadline = 0;
+	private volatile String cancelReason = null;
+	private CancellableSIFResponseIterator cancellable = null;
+	private ScheduledFuture<?> timer = null;
+
+	/**
+	 * Creates the deadline of a request.
+	 *
+	 * @param zone The zone the request has been received from.
+	 * @param requestTime The time the request has been sent. Can be null.
+	 * @param timeoutSeconds The request timeout in seconds. 0 or less means that there is no deadline.
+	 */
+	RequestDeadline(Zone zone, Calendar requestTime, int timeoutSeconds)
+	{
+		this.zone = zone;
+		if (timeoutSeconds > 0)
+		{
+			long start = (requestTime == null) ? System.currentTimeMillis() : requestTime.getTimeInMillis();
+			deadline = start + timeoutSeconds * 1000L;
+		}
+	}
+
+	/**
+	 * Returns TRUE if the request has been cancelled, checking the deadline and the zone first.
+	 */
+	boolean isCancelled()
+	{
+		if (cancelReason == null)
+		{
+			if ((deadline > 0) && (System.currentTimeMillis() >= deadline))
+			{
+				cancel("deadline has passed");
+			}
+			else if ((zone != null) && !zone.isConnected())
+			{
+				cancel("zone "+zone.getZoneId()+" has disconnected");
+			}
+		}
+		return cancelReason != null;
+	}
+
+	/**
+	 * Returns TRUE if the request has been cancelled at the last check. Doesn't check again.
+	 */
+	boolean wasCancelled()
+	{
+		return cancelReason != null;
+	}
+
+	/**
+	 * Returns the reason why the request has been cancelled or null if it hasn't been cancelled.
+	 */
+	String getCancelReason()
+	{
+		return cancelReason;
+	}
+
+	/**
+	 * Cancels the given iterator when the deadline passes. Does nothing if there is no deadline.
+	 */
+	synchronized void watch(CancellableSIFResponseIterator iterator, ScheduledExecutorService service)
+	{
+		if (deadline > 0)
+		{
+			cancellable = iterator;
+			timer = service.schedule(this, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the timer. Called once the response is finished.
+	 */
+	synchronized void close()
+	{
+		if (timer != null)
+		{
+			timer.cancel(false);
+		}
+		cancellable = null;
+	}
+
+	/**
+	 * Called by the timer when the deadline passes.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	//@Override
+	public void run()
+	{
+		isCancelled();
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private synchronized void cancel(String reason)
+	{
+		if (cancelReason == null)
+		{
+			cancelReason = reason;
+			if (cancellable != null)
+			{
+				try
+				{
+					cancellable.cancel();
+				}
+				catch (Exception ex)
+				{
+					logger.error("Failed to cancel response iterator: "+ex.getMessage(), ex);
+				}
+			}
+		}
+	}
+}
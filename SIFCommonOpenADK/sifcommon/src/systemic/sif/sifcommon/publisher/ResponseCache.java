@@ -0,0 +1,323 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import openadk.library.ADK;
+import openadk.library.Condition;
+import openadk.library.ConditionGroup;
+import openadk.library.ElementRef;
+import openadk.library.Query;
+import openadk.library.SIFDataObject;
+import openadk.library.SIFParser;
+import openadk.library.SIFVersion;
+import openadk.library.Zone;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * This class caches the responses of a publisher to SIF_Requests. A response is identified by the normalised
+ * query, the zone, the SIF Version of the request and the outbound mappings used for it, so the same request
+ * sent by several subscribers or repeatedly by one subscriber is answered from the cache rather than from the
+ * data source. Subscribers whose requests are mapped differently get separate responses.<p>
+ *
+ * The SIF Objects of a response are held as XML. Each response expires after the time to live given to put().
+ * The total size of all responses is limited to 'maxBytes'. If it is exceeded the least recently used
+ * responses are removed. Responses larger than that limit are not cached at all.<p>
+ *
+ * invalidate() removes all responses. It must be called whenever the data of the publisher changes. A
+ * response that is being recorded while invalidate() is called is not cached.
+ *
+ * @author Joerg Huber
+ */
+class ResponseCache
+{
+	protected Logger logger = ADK.getLog();
+
+	private long maxBytes;
+	private long totalBytes = 0;
+	private long generation = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/*
+	 * A cached response.
+	 */
+	private static class Entry
+	{
+		private List<String> xml;
+		private long bytes;
+		private long expires;
+
+		Entry(List<String> xml, long bytes, long expires)
+		{
+			this.xml = xml;
+			this.bytes = bytes;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Collects the SIF Objects of one response while they are sent.
+	 */
+	class Recorder
+	{
+		private String key;
+		private long startGeneration;
+		private List<String> xml = new ArrayList<String>();
+		private long bytes = 0;
+
+		private Recorder(String key, long startGeneration)
+		{
+			this.key = key;
+			this.startGeneration = startGeneration;
+		}
+
+		/**
+		 * Adds the XML of a SIF Object to the response. Once the response exceeds the size of the cache the
+		 * SIF Objects are not collected anymore.
+		 */
+		void add(String objectXML)
+		{
+			if (xml != null)
+			{
+				bytes += objectXML.length() * 2L;
+				xml = (bytes <= maxBytes) ? xml : null;
+				if (xml != null)
+				{
+					xml.add(objectXML);
+				}
+			}
+		}
+
+		/**
+		 * Puts the recorded response into the cache.
+		 *
+		 * @param ttlMillis Time to live of the response in milliseconds.
+		 */
+		void commit(long ttlMillis)
+		{
+			if (xml != null)
+			{
+				put(this, ttlMillis);
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxBytes Max total size of all cached responses in bytes.
+	 */
+	ResponseCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the key of the response to the given query.
+	 *
+	 * @param mappingId The id of the outbound mappings of the request (see BasePublisher.getMappingId()).
+	 */
+	static String getKey(Query query, Zone zone, SIFVersion version, String mappingId)
+	{
+		return zone.getZoneId()+"|"+getQueryKey(query, version)+"|"+mappingId;
+	}
+
+	/**
+	 * Returns the key of the given query regardless of the zone it has been sent to.
+	 */
+	static String getQueryKey(Query query, SIFVersion version)
+	{
+		StringBuilder key = new StringBuilder();
+		key.append((version == null) ? "" : version.toString());
+		if (query != null)
+		{
+			key.append('|').append(query.getObjectTag()).append('|');
+			if (query.hasConditions())
+			{
+				appendConditions(key, query.getRootConditionGroup());
+			}
+			key.append('|');
+			if (query.hasFieldRestrictions())
+			{
+				List<String> fields = new ArrayList<String>();
+				for (ElementRef field : query.getFieldRestrictionRefs())
+				{
+					fields.add((field.getXPath() != null) ? field.getXPath() : field.getField().getSQPPath(version));
+				}
+				String[] sortedFields = fields.toArray(new String[fields.size()]);
+				Arrays.sort(sortedFields);
+				key.append(Arrays.toString(sortedFields));
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns an iterator over the cached response with the given key or null if there is no such response
+	 * or it has expired.
+	 */
+	synchronized SIFResponseIterator get(String key)
+	{
+		Entry entry = entries.get(key);
+		if ((entry != null) && (entry.expires <= System.currentTimeMillis()))
+		{
+			remove(key);
+			entry = null;
+		}
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		logger.debug("Response cache hit ("+hits+" hits, "+misses+" misses, "+entries.size()+" responses, "+totalBytes+" bytes).");
+		return new CachedResponseIterator(entry.xml);
+	}
+
+	/**
+	 * Starts recording the response with the given key.
+	 */
+	synchronized Recorder record(String key)
+	{
+		return new Recorder(key, generation);
+	}
+
+	/**
+	 * Removes all responses from the cache.
+	 */
+	synchronized void invalidate()
+	{
+		generation++;
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private synchronized void put(Recorder recorder, long ttlMillis)
+	{
+		if ((recorder.startGeneration != generation) || (ttlMillis <= 0))
+		{
+			return; // data has changed while the response was recorded
+		}
+		remove(recorder.key);
+		entries.put(recorder.key, new Entry(recorder.xml, recorder.bytes, System.currentTimeMillis() + ttlMillis));
+		totalBytes += recorder.bytes;
+
+		Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+		while ((totalBytes > maxBytes) && iter.hasNext())
+		{
+			totalBytes -= iter.next().getValue().bytes;
+			iter.remove();
+		}
+	}
+
+	private void remove(String key)
+	{
+		Entry entry = entries.remove(key);
+		if (entry != null)
+		{
+			totalBytes -= entry.bytes;
+		}
+	}
+
+	/*
+	 * Conditions and groups are sorted so that the order in which they are given in the query doesn't matter.
+	 */
+	private static void appendConditions(StringBuilder key, ConditionGroup group)
+	{
+		List<String> parts = new ArrayList<String>();
+		if (group.getConditions() != null)
+		{
+			for (Condition condition : group.getConditions())
+			{
+				parts.add(condition.getXPath()+" "+condition.getOperator()+" '"+condition.getValue()+"'");
+			}
+		}
+		if (group.getGroups() != null)
+		{
+			for (ConditionGroup subGroup : group.getGroups())
+			{
+				StringBuilder subKey = new StringBuilder();
+				appendConditions(subKey, subGroup);
+				parts.add(subKey.toString());
+			}
+		}
+		String[] sortedParts = parts.toArray(new String[parts.size()]);
+		Arrays.sort(sortedParts);
+		key.append(group.getOperator()).append(Arrays.toString(sortedParts));
+	}
+
+	/*
+	 * Returns the SIF Objects of a cached response.
+	 */
+	private static class CachedResponseIterator implements SIFResponseIterator
+	{
+		private Iterator<String> xml;
+		private SIFParser parser = null;
+
+		CachedResponseIterator(List<String> xml)
+		{
+			this.xml = xml.iterator();
+		}
+
+		//@Override
+		public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+		{
+			if (!xml.hasNext())
+			{
+				return null;
+			}
+			try
+			{
+				if (parser == null)
+				{
+					parser = SIFParser.newInstance();
+				}
+				return (SIFDataObject)parser.parse(xml.next());
+			}
+			catch (Exception ex)
+			{
+				throw new IllegalStateException("Failed to parse cached SIF Object: "+ex.getMessage(), ex);
+			}
+		}
+
+		//@Override
+		public boolean hasNext()
+		{
+			return xml.hasNext();
+		}
+
+		//@Override
+		public void releaseResources()
+		{
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import openadk.library.ADK;
+import openadk.library.SIFDataObject;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * This class keeps track of the checkpoint of a response of a ResumableSIFResponseIterator and saves it in a
+ * file if the response breaks off. The file is named after the digest of the request key (zone, query, SIF
+ * Version and SIF_SourceId of the requester) and is ignored and removed once it is older than the checkpoint
+ * expiry.<p>
+ *
+ * A response that breaks off ends with an error, so the subscriber knows it is incomplete and sends the request
+ * again. Only that next request from the same subscriber resumes (see ResumableSIFResponseIterator). Once a
+ * response is complete its checkpoint is removed, so later requests receive the full response.<p>
+ *
+ * The SIF Objects can be retrieved ahead by a prefetching iterator. Therefore the checkpoint of each SIF Object
+ * is taken when it is retrieved from the ResumableSIFResponseIterator (see track()) and is only used once that
+ * SIF Object has been handed to the response (see sent()).
+ *
+ * @author Joerg Huber
+ */
+class ResponseCheckpoint
+{
+	protected Logger logger = ADK.getLog();
+
+	private File file;
+	private String key;
+	private String resumedFrom = null;
+	private long sentObjects = 0;
+	private String lastSent = null;
+
+	/* SIF Objects retrieved but not yet sent, with their checkpoints. */
+	private LinkedList<Object[]> pending = new LinkedList<Object[]>();
+
+	/**
+	 * Loads the checkpoint of the given request if there is one that hasn't expired and resumes the given
+	 * iterator from it.
+	 *
+	 * @param dir The directory that holds the checkpoints of the publisher.
+	 * @param key The key of the request (see ResponseCache.getKey()) including the SIF_SourceId of the requester.
+	 * @param iterator The iterator of the response.
+	 * @param expiryMillis Time in milliseconds after which a checkpoint is not used anymore.
+	 */
+	ResponseCheckpoint(File dir, String key, ResumableSIFResponseIterator iterator, long expiryMillis)
+	{
+		this.file = new File(dir, ChangeDigestStore.getDigest(key)+".checkpoint");
+		this.key = key;
+		if (file.exists())
+		{
+			Properties values = load();
+			if ((file.lastModified() + expiryMillis < System.currentTimeMillis()) || (values == null) || !key.equals(values.getProperty("key")))
+			{
+				file.delete();
+			}
+			else
+			{
+				resumedFrom = values.getProperty("checkpoint");
+				sentObjects = Long.parseLong(values.getProperty("sentObjects", "0"));
+				logger.info("Response resumes after "+sentObjects+" objects from checkpoint "+resumedFrom+".");
+				iterator.resumeFrom(resumedFrom);
+			}
+		}
+	}
+
+	/**
+	 * Returns TRUE if the response continues an earlier response.
+	 */
+	boolean isResumed()
+	{
+		return resumedFrom != null;
+	}
+
+	/**
+	 * Returns an iterator that records the checkpoint of each SIF Object retrieved from the given iterator.
+	 */
+	SIFResponseIterator track(final ResumableSIFResponseIterator iterator)
+	{
+		return new SIFResponseIterator()
+		{
+			//@Override
+			public boolean hasNext()
+			{
+				return iterator.hasNext();
+			}
+
+			//@Override
+			public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+			{
+				SIFDataObject sifObject = iterator.getNextSIFObject(baseInfo, mappingInfo);
+				if (sifObject != null)
+				{
+					synchronized (pending)
+					{
+						pending.add(new Object[] {sifObject, iterator.getCheckpoint()});
+					}
+				}
+				return sifObject;
+			}
+
+			//@Override
+			public void releaseResources()
+			{
+				iterator.releaseResources();
+			}
+		};
+	}
+
+	/**
+	 * Returns an iterator that delegates to the given iterator and gives access to this checkpoint through
+	 * getCheckpoint().
+	 */
+	SIFResponseIterator attach(SIFResponseIterator iterator)
+	{
+		return new AttachedResponseIterator(iterator, this);
+	}
+
+	/**
+	 * Returns the checkpoint attached to the given iterator or null if there is none.
+	 */
+	static ResponseCheckpoint getCheckpoint(SIFResponseIterator iterator)
+	{
+		return (iterator instanceof AttachedResponseIterator) ? ((AttachedResponseIterator)iterator).checkpoint : null;
+	}
+
+	/**
+	 * Called once the given SIF Object has been handed to the response.
+	 */
+	void sent(SIFDataObject sifObject)
+	{
+		synchronized (pending)
+		{
+			while (!pending.isEmpty())
+			{
+				Object[] entry = pending.removeFirst();
+				if (entry[0] == sifObject)
+				{
+					lastSent = (String)entry[1];
+					sentObjects++;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the checkpoint of the SIF Object last sent, so the same request can continue from there. If no SIF
+	 * Object has been sent then the checkpoint the response has been resumed from remains.
+	 */
+	void save()
+	{
+		if (lastSent == null)
+		{
+			return;
+		}
+		Properties values = new Properties();
+		values.setProperty("key", key);
+		values.setProperty("checkpoint", lastSent);
+		values.setProperty("sentObjects", String.valueOf(sentObjects));
+		FileOutputStream out = null;
+		try
+		{
+			file.getParentFile().mkdirs();
+			out = new FileOutputStream(file);
+			values.store(out, "Checkpoint of response");
+			logger.info("Response broken off after "+sentObjects+" objects. Checkpoint "+lastSent+" saved in "+file.getPath()+".");
+		}
+		catch (IOException ex)
+		{
+			logger.error("Failed to save checkpoint "+file.getPath()+": "+ex.getMessage(), ex);
+		}
+		finally
+		{
+			if (out != null)
+			{
+				try
+				{
+					out.close();
+				}
+				catch (Exception ex) {}
+			}
+		}
+	}
+
+	/**
+	 * Removes the checkpoint once the response is complete.
+	 */
+	void remove()
+	{
+		if (file.exists() && !file.delete())
+		{
+			logger.error("Failed to remove checkpoint "+file.getPath()+".");
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * The outermost iterator of a response with a checkpoint.
+	 */
+	private static class AttachedResponseIterator implements SIFResponseIterator
+	{
+		private SIFResponseIterator iterator;
+		private ResponseCheckpoint checkpoint;
+
+		AttachedResponseIterator(SIFResponseIterator iterator, ResponseCheckpoint checkpoint)
+		{
+			this.iterator = iterator;
+			this.checkpoint = checkpoint;
+		}
+
+		//@Override
+		public boolean hasNext()
+		{
+			return iterator.hasNext();
+		}
+
+		//@Override
+		public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+		{
+			return iterator.getNextSIFObject(baseInfo, mappingInfo);
+		}
+
+		//@Override
+		public void releaseResources()
+		{
+			iterator.releaseResources();
+		}
+	}
+
+	private Properties load()
+	{
+		FileInputStream in = null;
+		try
+		{
+			in = new FileInputStream(file);
+			Properties values = new Properties();
+			values.load(in);
+			return values;
+		}
+		catch (IOException ex)
+		{
+			logger.error("Failed to read checkpoint "+file.getPath()+": "+ex.getMessage(), ex);
+			return null;
+		}
+		finally
+		{
+			if (in != null)
+			{
+				try
+				{
+					in.close();
+				}
+				catch (Exception ex) {}
+			}
+		}
+	}
+}
@@ -0,0 +1,618 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import openadk.library.ADK;
+import openadk.library.SIFDataObject;
+import openadk.library.SIFParser;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * This class holds a snapshot of all SIF Objects of a publisher in a file, so SIF_Requests without conditions
+ * can be answered from that file rather than by extracting all objects from the data source each time. The
+ * snapshot is rebuilt in a background thread every 'frequency' milliseconds. A request is only answered from
+ * the snapshot if it isn't older than the max age given to open().<p>
+ *
+ * The file consists of a header, blocks of up to BLOCK_OBJECTS SIF Objects and an index. Each block holds the
+ * XML of its SIF Objects compressed with deflate. The index holds the offset and the number of the first SIF
+ * Object of each block, so a response can start at any SIF Object without decompressing the blocks before
+ * it. The file is memory-mapped and shared by all responses. Each build writes a new file whose name holds
+ * the build time ('snapshot-_time_.dat'), so a file is never renamed or replaced while it is mapped. Once the
+ * new file is complete it becomes the current snapshot. Responses in progress continue to read the mapping
+ * of the previous file. The previous file is unmapped and deleted once the last of these responses has
+ * finished, since a mapped file cannot be deleted on all platforms. Snapshot files are limited to 2GB.<p>
+ *
+ * The snapshot is built with the outbound mapping that applies if no SIF_Request is given. It is only used
+ * for requests with the same mapping.
+ *
+ * @author Joerg Huber
+ */
+class ResponseSnapshot implements Runnable
+{
+	private static final int MAGIC = 0x53524E50;
+	private static final int BLOCK_OBJECTS = 256;
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_EXTENSION = ".dat";
+
+	protected Logger logger = ADK.getLog();
+
+	private BasePublisher publisher;
+	private File dir;
+	private long frequencyMillis;
+	private ScheduledExecutorService service = null;
+
+	private boolean loaded = false;
+	private Snapshot current = null;
+
+	/*
+	 * A complete snapshot file mapped into memory. 'users' is the number of responses that read the mapping.
+	 * A retired snapshot has been replaced by a newer one and is discarded once it has no users anymore.
+	 */
+	private static class Snapshot
+	{
+		private File file;
+		private MappedByteBuffer buffer;
+		private int users = 0;
+		private boolean retired = false;
+		private long builtAt;
+		private String mappingId;
+		private long objects;
+		private long[] blockOffsets;
+		private long[] blockFirstObjects;
+	}
+
+	/**
+	 * Creates the snapshot of the given publisher. An existing snapshot file is loaded with the first access.
+	 *
+	 * @param publisher The publisher that provides the SIF Objects.
+	 * @param dir The directory that holds the snapshot file.
+	 * @param frequencyMillis Interval in milliseconds at which the snapshot is rebuilt.
+	 */
+	ResponseSnapshot(BasePublisher publisher, File dir, long frequencyMillis)
+	{
+		this.publisher = publisher;
+		this.dir = dir;
+		this.frequencyMillis = Math.max(1000, frequencyMillis);
+	}
+
+	/**
+	 * Starts the background thread that rebuilds the snapshot. If the existing snapshot file is younger than
+	 * the frequency then the first build is delayed accordingly.
+	 */
+	synchronized void start()
+	{
+		if (service == null)
+		{
+			Snapshot snapshot = getCurrent();
+			long age = (snapshot == null) ? frequencyMillis : System.currentTimeMillis() - snapshot.builtAt;
+			service = Executors.newSingleThreadScheduledExecutor();
+			service.scheduleWithFixedDelay(this, Math.max(0, frequencyMillis - age), frequencyMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void shutdown()
+	{
+		if (service != null)
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Returns an iterator over the SIF Objects of the snapshot, starting at the given SIF Object. Returns null
+	 * if there is no snapshot, it is older than maxAgeMillis or it has been built with a different mapping.
+	 *
+	 * @param mappingId The id of the mappings of the request. Empty if there are no mappings.
+	 * @param maxAgeMillis Max age of the snapshot in milliseconds.
+	 * @param firstObject The index of the first SIF Object to return.
+	 */
+	SIFResponseIterator open(String mappingId, long maxAgeMillis, long firstObject)
+	{
+		Snapshot snapshot = null;
+		synchronized (this)
+		{
+			snapshot = getCurrent();
+			if ((snapshot == null) || !snapshot.mappingId.equals(mappingId))
+			{
+				return null;
+			}
+			long age = System.currentTimeMillis() - snapshot.builtAt;
+			if (age > maxAgeMillis)
+			{
+				logger.debug("Snapshot of Publisher "+publisher.getId()+" is "+(age / 1000)+" seconds old and therefore not used.");
+				return null;
+			}
+			snapshot.users++;
+		}
+		try
+		{
+			return new SnapshotIterator(this, snapshot, firstObject);
+		}
+		catch (RuntimeException ex)
+		{
+			release(snapshot);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Rebuilds the snapshot.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	//@Override
+	public void run()
+	{
+		try
+		{
+			build();
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to build snapshot of Publisher "+publisher.getId()+": "+ex.getMessage(), ex);
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Returns the current snapshot. With the first call the newest snapshot file is loaded and all other files
+	 * are deleted. They are left over from a previous run and not mapped.
+	 */
+	private synchronized Snapshot getCurrent()
+	{
+		if (!loaded)
+		{
+			loaded = true;
+			String[] names = dir.list(new FilenameFilter()
+			{
+				//@Override
+				public boolean accept(File directory, String name)
+				{
+					return name.startsWith(SNAPSHOT_PREFIX) || name.startsWith("snapshot.");
+				}
+			});
+			File newest = null;
+			long newestVersion = -1;
+			for (String name : (names == null) ? new String[0] : names)
+			{
+				long version = getVersion(name);
+				if (version > newestVersion)
+				{
+					newestVersion = version;
+					newest = new File(dir, name);
+				}
+			}
+			for (String name : (names == null) ? new String[0] : names)
+			{
+				File file = new File(dir, name);
+				if (!file.equals(newest))
+				{
+					file.delete();
+				}
+			}
+			if (newest != null)
+			{
+				try
+				{
+					current = load(newest);
+					logger.debug("Loaded snapshot of Publisher "+publisher.getId()+" with "+current.objects+" objects.");
+				}
+				catch (IOException ex)
+				{
+					logger.error("Failed to load snapshot "+newest.getPath()+": "+ex.getMessage(), ex);
+				}
+			}
+		}
+		return current;
+	}
+
+	/*
+	 * Returns the build time in the name of a snapshot file or -1 if it isn't a complete snapshot file.
+	 */
+	private long getVersion(String name)
+	{
+		if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_EXTENSION))
+		{
+			try
+			{
+				return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_EXTENSION.length()));
+			}
+			catch (NumberFormatException ex)
+			{
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Called when a response has finished reading the given snapshot.
+	 */
+	private synchronized void release(Snapshot snapshot)
+	{
+		snapshot.users--;
+		if (snapshot.retired && (snapshot.users <= 0))
+		{
+			discard(snapshot);
+		}
+	}
+
+	/*
+	 * Unmaps the given snapshot and deletes its file. If the file cannot be deleted it is removed with the
+	 * next start.
+	 */
+	private void discard(Snapshot snapshot)
+	{
+		MappedByteBuffer buffer = snapshot.buffer;
+		snapshot.buffer = null;
+		unmap(buffer);
+		if (!snapshot.file.delete())
+		{
+			logger.debug("Snapshot file "+snapshot.file.getPath()+" cannot be deleted yet. It is removed with the next start.");
+		}
+	}
+
+	private void build() throws Exception
+	{
+		long builtAt = System.currentTimeMillis();
+		MappingInfo mappingInfo = publisher.getSnapshotMappingInfo();
+		SIFResponseIterator iterator = publisher.getAllSIFObjects(mappingInfo);
+		if (iterator == null)
+		{
+			logger.debug("No SIF Objects for snapshot of Publisher "+publisher.getId()+".");
+			return;
+		}
+
+		File file = new File(dir, SNAPSHOT_PREFIX+builtAt+SNAPSHOT_EXTENSION);
+		File tmpFile = new File(dir, SNAPSHOT_PREFIX+builtAt+".tmp");
+		RandomAccessFile out = null;
+		boolean complete = false;
+		long objects = 0;
+		try
+		{
+			if (!dir.exists())
+			{
+				dir.mkdirs();
+			}
+			out = new RandomAccessFile(tmpFile, "rw");
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeLong(builtAt);
+			out.writeLong(0); // index offset, set once the file is complete
+			out.writeLong(0); // number of objects
+			out.writeUTF(BasePublisher.getMappingId(mappingInfo));
+
+			List<long[]> index = new ArrayList<long[]>();
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			DataOutputStream blockData = new DataOutputStream(block);
+			int blockObjects = 0;
+			while (iterator.hasNext())
+			{
+				SIFDataObject sifObject = iterator.getNextSIFObject(publisher, mappingInfo);
+				if (sifObject == null)
+				{
+					logger.error("hasNext() has returned true but getNextSIFObject() has returned null => snapshot of Publisher "+publisher.getId()+" is incomplete and not used.");
+					return;
+				}
+				byte[] xml = sifObject.toXML().getBytes("UTF-8");
+				blockData.writeInt(xml.length);
+				blockData.write(xml);
+				blockObjects++;
+				objects++;
+				if (blockObjects == BLOCK_OBJECTS)
+				{
+					index.add(new long[] {out.getFilePointer(), objects - blockObjects});
+					writeBlock(out, block, blockObjects);
+					blockObjects = 0;
+				}
+			}
+			if (blockObjects > 0)
+			{
+				index.add(new long[] {out.getFilePointer(), objects - blockObjects});
+				writeBlock(out, block, blockObjects);
+			}
+
+			long indexOffset = out.getFilePointer();
+			ByteArrayOutputStream indexBytes = new ByteArrayOutputStream(index.size() * 16 + 4);
+			DataOutputStream indexData = new DataOutputStream(indexBytes);
+			indexData.writeInt(index.size());
+			for (long[] entry : index)
+			{
+				indexData.writeLong(entry[0]);
+				indexData.writeLong(entry[1]);
+			}
+			indexData.close();
+			out.write(indexBytes.toByteArray());
+			out.seek(12);
+			out.writeLong(indexOffset);
+			out.writeLong(objects);
+			complete = true;
+		}
+		finally
+		{
+			iterator.releaseResources();
+			if (out != null)
+			{
+				out.close();
+			}
+			if (!complete)
+			{
+				tmpFile.delete();
+			}
+		}
+
+		// The new file has never been mapped, so it can be renamed on all platforms. Responses in progress keep
+		// the mapping of the previous file until they have finished.
+		if (!tmpFile.renameTo(file))
+		{
+			tmpFile.delete();
+			logger.error("Failed to rename snapshot "+tmpFile.getPath()+". The previous snapshot is used.");
+			return;
+		}
+		Snapshot snapshot = load(file);
+		synchronized (this)
+		{
+			Snapshot previous = current;
+			current = snapshot;
+			loaded = true;
+			if (previous != null)
+			{
+				previous.retired = true;
+				if (previous.users <= 0)
+				{
+					discard(previous);
+				}
+			}
+		}
+		logger.info("Snapshot of Publisher "+publisher.getId()+" with "+objects+" objects built in "+(System.currentTimeMillis() - builtAt)+"ms.");
+	}
+
+	private void writeBlock(RandomAccessFile out, ByteArrayOutputStream block, int blockObjects) throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 4 + 64);
+		DeflaterOutputStream deflater = new DeflaterOutputStream(compressed);
+		block.writeTo(deflater);
+		deflater.close();
+
+		ByteArrayOutputStream record = new ByteArrayOutputStream(compressed.size() + 12);
+		DataOutputStream data = new DataOutputStream(record);
+		data.writeInt(compressed.size());
+		data.writeInt(block.size());
+		data.writeInt(blockObjects);
+		compressed.writeTo(data);
+		data.close();
+		out.write(record.toByteArray());
+		block.reset();
+	}
+
+	private Snapshot load(File file) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try
+		{
+			if (in.length() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Snapshot is larger than 2GB.");
+			}
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			Snapshot snapshot = new Snapshot();
+			snapshot.file = file;
+			snapshot.buffer = buffer;
+			if ((in.length() < 32) || (buffer.getInt(0) != MAGIC))
+			{
+				unmap(buffer);
+				throw new IOException("Not a snapshot file.");
+			}
+			snapshot.builtAt = buffer.getLong(4);
+			long indexOffset = buffer.getLong(12);
+			snapshot.objects = buffer.getLong(20);
+			if ((indexOffset <= 0) || (indexOffset > in.length() - 4))
+			{
+				unmap(buffer);
+				throw new IOException("Snapshot file is incomplete.");
+			}
+			in.seek(28);
+			snapshot.mappingId = in.readUTF();
+
+			int blocks = buffer.getInt((int)indexOffset);
+			snapshot.blockOffsets = new long[blocks];
+			snapshot.blockFirstObjects = new long[blocks];
+			for (int i = 0; i < blocks; i++)
+			{
+				snapshot.blockOffsets[i] = buffer.getLong((int)indexOffset + 4 + i * 16);
+				snapshot.blockFirstObjects[i] = buffer.getLong((int)indexOffset + 12 + i * 16);
+			}
+			return snapshot;
+		}
+		finally
+		{
+			in.close(); // the mapping stays valid
+		}
+	}
+
+	/*
+	 * Releases the mapping of a snapshot right away, so the file can be deleted on all platforms. This is only
+	 * possible from Java 9 on. Before that the mapping is released when the buffer is garbage collected.
+	 */
+	private static void unmap(MappedByteBuffer buffer)
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(unsafeField.get(null), buffer);
+		}
+		catch (Exception ex)
+		{
+			// Not supported by this JVM.
+		}
+	}
+
+	/*
+	 * Returns the SIF Objects of a snapshot, starting at a given SIF Object. The snapshot is released with
+	 * releaseResources().
+	 */
+	private static class SnapshotIterator implements SIFResponseIterator
+	{
+		private ResponseSnapshot owner;
+		private Snapshot snapshot;
+		private boolean released = false;
+		private ByteBuffer buffer;
+		private long nextObject;
+		private int nextBlock;
+		private ByteBuffer block = null;
+		private Inflater inflater = new Inflater();
+		private SIFParser parser = null;
+
+		SnapshotIterator(ResponseSnapshot owner, Snapshot snapshot, long firstObject)
+		{
+			this.owner = owner;
+			this.snapshot = snapshot;
+			this.buffer = snapshot.buffer.duplicate();
+			this.nextObject = Math.max(0, firstObject);
+
+			// Find the block that holds the first object.
+			int low = 0;
+			int high = snapshot.blockFirstObjects.length - 1;
+			while (low < high)
+			{
+				int mid = (low + high + 1) / 2;
+				if (snapshot.blockFirstObjects[mid] <= nextObject)
+				{
+					low = mid;
+				}
+				else
+				{
+					high = mid - 1;
+				}
+			}
+			nextBlock = low;
+			if (hasNext())
+			{
+				readBlock();
+				for (long skip = nextObject - snapshot.blockFirstObjects[nextBlock - 1]; skip > 0; skip--)
+				{
+					block.position(block.position() + 4 + block.getInt(block.position()));
+				}
+			}
+		}
+
+		//@Override
+		public boolean hasNext()
+		{
+			return nextObject < snapshot.objects;
+		}
+
+		//@Override
+		public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+		{
+			if (!hasNext())
+			{
+				return null;
+			}
+			try
+			{
+				if (!block.hasRemaining())
+				{
+					readBlock();
+				}
+				int length = block.getInt();
+				String xml = new String(block.array(), block.position(), length, "UTF-8");
+				block.position(block.position() + length);
+				nextObject++;
+				if (parser == null)
+				{
+					parser = SIFParser.newInstance();
+				}
+				return (SIFDataObject)parser.parse(xml);
+			}
+			catch (Exception ex)
+			{
+				throw new IllegalStateException("Failed to read SIF Object from snapshot: "+ex.getMessage(), ex);
+			}
+		}
+
+		//@Override
+		public void releaseResources()
+		{
+			inflater.end();
+			if (!released)
+			{
+				released = true;
+				owner.release(snapshot);
+			}
+		}
+
+		private void readBlock()
+		{
+			int offset = (int)snapshot.blockOffsets[nextBlock++];
+			int compressedLength = buffer.getInt(offset);
+			byte[] compressed = new byte[compressedLength];
+			buffer.position(offset + 12);
+			buffer.get(compressed);
+			byte[] raw = new byte[buffer.getInt(offset + 4)];
+			inflater.reset();
+			inflater.setInput(compressed);
+			try
+			{
+				int length = 0;
+				while ((length < raw.length) && !inflater.finished())
+				{
+					int inflated = inflater.inflate(raw, length, raw.length - length);
+					if ((inflated == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+					{
+						throw new DataFormatException("Unexpected end of block.");
+					}
+					length += inflated;
+				}
+			}
+			catch (DataFormatException ex)
+			{
+				throw new IllegalStateException("Snapshot block at "+offset+" is corrupt: "+ex.getMessage(), ex);
+			}
+			block = ByteBuffer.wrap(raw);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+
+/**
+ * A SIFResponseIterator that can continue a response from a checkpoint. If a response breaks off before all
+ * SIF Objects have been sent (i.e. because hasNext() has failed due to a lost database connection) then the
+ * checkpoint of the last SIF Object sent is saved in the working directory of the agent.<p>
+ *
+ * The contract with the subscriber is as follows: a response that breaks off is not completed normally.
+ * onRequest() throws an ADKException, so the zone receives a SIF_Error after the SIF Objects sent so far and
+ * the subscriber knows that the response is incomplete. If the subscriber then sends the same query again
+ * (a new SIF_Request from the same SIF_SourceId to the same zone, with the same SIF Version and mappings)
+ * within the checkpoint expiry (see SIFCommonProperties.getResponseCheckpointExpiryInSeconds()) then
+ * resumeFrom() is called with that checkpoint and the response only contains the SIF Objects after it. A
+ * subscriber that wants all SIF Objects after an incomplete response must wait for the checkpoint to expire.
+ * Requests from other subscribers and requests after a complete response always receive the full response.<p>
+ *
+ * A checkpoint is typically the key of the last SIF Object returned, so resumeFrom() can restrict the query
+ * of the data source to the rows after that key. This requires the SIF Objects to be returned in the order of
+ * that key.<p>
+ *
+ * Resumable iterators are not built in parallel, even if they implement ParallelSIFResponseIterator, because
+ * the checkpoint must match the SIF Object last returned.
+ *
+ * @author Joerg Huber
+ */
+public interface ResumableSIFResponseIterator extends SIFResponseIterator
+{
+	/**
+	 * This method returns the checkpoint after the SIF Object last returned by getNextSIFObject(). It is called
+	 * right after each call to getNextSIFObject() by the same thread.
+	 *
+	 * @return A string from which resumeFrom() can continue. Must not be null.
+	 */
+	public String getCheckpoint();
+
+	/**
+	 * This method is called before the first call to hasNext() if the response shall continue after the given
+	 * checkpoint. The next SIF Object returned must be the one after the SIF Object the checkpoint has been
+	 * taken for.
+	 *
+	 * @param checkpoint A value returned by getCheckpoint() for an earlier response to the same request.
+	 */
+	public void resumeFrom(String checkpoint);
+}
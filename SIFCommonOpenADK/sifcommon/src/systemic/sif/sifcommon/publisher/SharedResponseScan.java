@@ -0,0 +1,422 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import openadk.library.ADK;
+import openadk.library.ADKException;
+import openadk.library.SIFDataObject;
+import openadk.library.SIFException;
+import openadk.library.SIFParser;
+import openadk.library.tools.mapping.ADKMappingException;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.mapping.MappingInfo;
+
+
+/**
+ * This class shares one SIFResponseIterator between several identical requests. The first request opens the
+ * iterator. Identical requests that arrive while the scan has not yet moved past its first 'capacity' SIF
+ * Objects join the scan and receive all SIF Objects from the start. Each request reads the scan through its
+ * own Subscriber on its own thread and writes to its own response.<p>
+ *
+ * There is no separate thread for the scan. Whichever subscriber needs the next SIF Object first retrieves it
+ * from the iterator while the others wait for it. The SIF Objects are held in a buffer until all subscribers
+ * have read them. The buffer holds at most 'capacity' SIF Objects. If it is full the scan waits for the
+ * slowest subscriber, so a slow response slows down the other responses rather than filling up memory.<p>
+ *
+ * The ADK might modify a SIF Object when it writes it to a response (i.e. to apply field restrictions).
+ * Therefore a subscriber only receives the SIF Object of the iterator if it is the only subscriber and no
+ * further subscriber can join. Otherwise it receives a copy that is parsed from the XML of the SIF Object.
+ *
+ * @author Joerg Huber
+ */
+class SharedResponseScan
+{
+	protected Logger logger = ADK.getLog();
+
+	private BasePublisher publisher;
+	private Map<String, SharedResponseScan> registry;
+	private String key;
+	private int capacity;
+
+	private boolean started = false;
+	private Exception startFailure = null;
+	private SIFResponseIterator iterator = null;
+	private MappingInfo mappingInfo = null;
+
+	private LinkedList<Item> buffer = new LinkedList<Item>();
+	private long firstIndex = 0;
+	private long produced = 0;
+	private boolean producing = false;
+	private boolean ended = false;
+	private boolean joinable = true;
+	private List<Subscriber> subscribers = new ArrayList<Subscriber>();
+
+	/*
+	 * A SIF Object of the scan, an exception that occurred when it was retrieved or the end of the scan.
+	 */
+	private static class Item
+	{
+		private SIFDataObject value;
+		private String xml;
+		private Exception exception;
+		private boolean end;
+
+		Item(SIFDataObject value, String xml, Exception exception, boolean end)
+		{
+			this.value = value;
+			this.xml = xml;
+			this.exception = exception;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * The view of one request on the scan. The baseInfo and mappingInfo parameters of getNextSIFObject() are
+	 * ignored because the SIF Objects are built with the mapping info of the first request.
+	 */
+	class Subscriber implements SIFResponseIterator
+	{
+		private long cursor = 0;
+		private SIFParser parser = null;
+
+		/**
+		 * Waits until the first request has opened the iterator. Returns FALSE if getRequestedSIFObjects()
+		 * has returned null.
+		 */
+		boolean awaitStart() throws ADKException
+		{
+			return SharedResponseScan.this.awaitStart();
+		}
+
+		//@Override
+		public boolean hasNext()
+		{
+			return SharedResponseScan.this.hasNext(this);
+		}
+
+		//@Override
+		public SIFDataObject getNextSIFObject(BaseInfo baseInfo, MappingInfo mappingInfo) throws ADKMappingException
+		{
+			return next(this);
+		}
+
+		//@Override
+		public void releaseResources()
+		{
+			leave(this);
+		}
+
+		private SIFDataObject copy(String xml)
+		{
+			try
+			{
+				if (parser == null)
+				{
+					parser = SIFParser.newInstance();
+				}
+				return (SIFDataObject)parser.parse(xml);
+			}
+			catch (Exception ex)
+			{
+				throw new IllegalStateException("Failed to copy shared SIF Object: "+ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Creates a scan that is registered in the given registry under the given key as long as it can be
+	 * joined.
+	 *
+	 * @param publisher Used to serialise the SIF Objects.
+	 * @param registry The scans of the publisher that can be joined. Used as lock for the registry.
+	 * @param key The key of the request.
+	 * @param capacity Max number of SIF Objects held in the buffer.
+	 */
+	SharedResponseScan(BasePublisher publisher, Map<String, SharedResponseScan> registry, String key, int capacity)
+	{
+		this.publisher = publisher;
+		this.registry = registry;
+		this.key = key;
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Adds a subscriber that starts at the first SIF Object. Returns null if the scan cannot be joined anymore.
+	 */
+	synchronized Subscriber join()
+	{
+		if (!joinable)
+		{
+			return null;
+		}
+		Subscriber subscriber = new Subscriber();
+		subscribers.add(subscriber);
+		return subscriber;
+	}
+
+	/**
+	 * Called by the first request once it has opened the iterator. The iterator can be null. The SIF Objects
+	 * are retrieved with the mapping info of the first request.
+	 */
+	synchronized void start(SIFResponseIterator responseIterator, MappingInfo requestMappingInfo)
+	{
+		iterator = responseIterator;
+		mappingInfo = requestMappingInfo;
+		ended = (iterator == null);
+		started = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called by the first request if it has failed to open the iterator. All subscribers fail the same way.
+	 */
+	void fail(Exception ex)
+	{
+		synchronized (this)
+		{
+			startFailure = ex;
+			started = true;
+			ended = true;
+			joinable = false;
+			notifyAll();
+		}
+		unregister();
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private synchronized boolean awaitStart() throws ADKException
+	{
+		while (!started)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new ADKException("Interrupted while waiting for shared request.", null);
+			}
+		}
+		if (startFailure instanceof SIFException)
+		{
+			throw (SIFException)startFailure;
+		}
+		if (startFailure instanceof ADKException)
+		{
+			throw (ADKException)startFailure;
+		}
+		if (startFailure != null)
+		{
+			throw (RuntimeException)startFailure;
+		}
+		return iterator != null;
+	}
+
+	private boolean hasNext(Subscriber subscriber)
+	{
+		while (true)
+		{
+			boolean unregister = false;
+			synchronized (this)
+			{
+				if (subscriber.cursor < produced)
+				{
+					Item item = buffer.get((int)(subscriber.cursor - firstIndex));
+					if (item.end && (item.exception != null))
+					{
+						subscriber.cursor++;
+						throw (item.exception instanceof RuntimeException) ? (RuntimeException)item.exception : new IllegalStateException(item.exception.getMessage(), item.exception);
+					}
+					return !item.end;
+				}
+				if (ended || (iterator == null))
+				{
+					return false;
+				}
+				if (!producing && (produced - firstIndex >= capacity))
+				{
+					unregister = trim();
+				}
+				if (producing || (produced - firstIndex >= capacity))
+				{
+					// Another subscriber retrieves the next SIF Object or the slowest subscriber is a full buffer behind.
+					waitForChange();
+					continue;
+				}
+				producing = true;
+			}
+			if (unregister)
+			{
+				unregister();
+			}
+			Item item = produce();
+			synchronized (this)
+			{
+				buffer.add(item);
+				produced++;
+				ended = item.end || ((item.value == null) && (item.exception == null)); // nothing is retrieved after a null
+				producing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	private SIFDataObject next(Subscriber subscriber) throws ADKMappingException
+	{
+		if (!hasNext(subscriber))
+		{
+			return null;
+		}
+		Item item = null;
+		boolean original = false;
+		synchronized (this)
+		{
+			item = buffer.get((int)(subscriber.cursor - firstIndex));
+			subscriber.cursor++;
+			original = (subscribers.size() == 1) && !joinable;
+			notifyAll();
+		}
+		if (item.exception instanceof ADKMappingException)
+		{
+			throw (ADKMappingException)item.exception;
+		}
+		if (item.exception != null)
+		{
+			throw (RuntimeException)item.exception;
+		}
+		return (original || (item.xml == null)) ? item.value : subscriber.copy(item.xml);
+	}
+
+	private void leave(Subscriber subscriber)
+	{
+		SIFResponseIterator releaseIterator = null;
+		synchronized (this)
+		{
+			subscribers.remove(subscriber);
+			if (subscribers.isEmpty())
+			{
+				joinable = false;
+				ended = true;
+				buffer.clear();
+				releaseIterator = iterator;
+				iterator = null;
+			}
+			notifyAll();
+		}
+		unregister();
+		if (releaseIterator != null)
+		{
+			releaseIterator.releaseResources();
+		}
+	}
+
+	/*
+	 * Retrieves the next SIF Object from the iterator. Called without holding the lock. Only one subscriber
+	 * at a time calls this method.
+	 */
+	private Item produce()
+	{
+		try
+		{
+			if (!iterator.hasNext())
+			{
+				return new Item(null, null, null, true);
+			}
+			try
+			{
+				SIFDataObject sifObject = iterator.getNextSIFObject(publisher, mappingInfo);
+				if (sifObject == null)
+				{
+					// Each request receives the null and treats its response as incomplete.
+					return new Item(null, null, null, false);
+				}
+				boolean shared;
+				synchronized (this)
+				{
+					shared = joinable || (subscribers.size() > 1);
+				}
+				return new Item(sifObject, shared ? sifObject.toXML() : null, null, false);
+			}
+			catch (ADKMappingException ex)
+			{
+				return new Item(null, null, ex, false);
+			}
+			catch (RuntimeException ex)
+			{
+				return new Item(null, null, ex, false);
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			return new Item(null, null, ex, true); // hasNext() has failed
+		}
+	}
+
+	/*
+	 * Removes the SIF Objects all subscribers have read. Once the first SIF Object is removed no further
+	 * subscriber can join. Returns TRUE if the scan must be removed from the registry for that reason.
+	 */
+	private boolean trim()
+	{
+		long minCursor = produced;
+		for (Subscriber subscriber : subscribers)
+		{
+			minCursor = Math.min(minCursor, subscriber.cursor);
+		}
+		boolean wasJoinable = joinable;
+		while ((firstIndex < minCursor) && !buffer.isEmpty())
+		{
+			buffer.removeFirst();
+			firstIndex++;
+			joinable = false;
+		}
+		return wasJoinable && !joinable;
+	}
+
+	private void waitForChange()
+	{
+		try
+		{
+			wait(1000);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for shared request.", ex);
+		}
+	}
+
+	private void unregister()
+	{
+		synchronized (registry)
+		{
+			if (registry.get(key) == this)
+			{
+				registry.remove(key);
+			}
+		}
+	}
+}
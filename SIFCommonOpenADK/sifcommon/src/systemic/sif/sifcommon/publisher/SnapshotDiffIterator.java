@@ -0,0 +1,724 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import openadk.library.ADK;
+import openadk.library.EventAction;
+import openadk.library.SIFDataObject;
+import openadk.library.SIFParser;
+import openadk.library.tools.mapping.ADKMappingException;
+import openadk.library.tools.mapping.MappingsContext;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.BaseInfo;
+import systemic.sif.sifcommon.model.SIFEvent;
+import systemic.sif.sifcommon.utils.SCFObjectInfo;
+
+
+/**
+ * This iterator turns a full snapshot of SIF Objects into ADD, CHANGE and DELETE events. It is used for
+ * publishers whose SIFEventIterator can only return all current objects rather than the actual changes.
+ * The event action of the events returned by the underlying iterator is ignored.<p>
+ *
+ * The current snapshot is compared with the snapshot that has been published last time. The objects are
+ * identified by their key (see SCFObjectInfo) and compared by the digest of their XML:<br />
+ * - Object not in the previous snapshot: ADD<br />
+ * - Object in the previous snapshot with a different digest: CHANGE<br />
+ * - Object in the previous snapshot with the same digest: no event<br />
+ * - Object only in the previous snapshot: DELETE (only the key of the object is sent)<p>
+ *
+ * To deal with millions of objects the comparison is done with an external merge sort. The current
+ * snapshot is read in chunks of 'chunkSize' objects. Each chunk is sorted by key and written to a run file.
+ * The run files are then merged and compared with the previous snapshot which is held in a file sorted by
+ * key. While doing so the new snapshot file is written. If the underlying iterator has failed to return some
+ * objects then no DELETE events are created and the missing objects are kept in the snapshot.<p>
+ *
+ * The new snapshot only replaces the previous one with commit(), once the events have been delivered to the
+ * zones. The publisher reports each delivery with delivered(), the same way as for the ChangeDigestStore. An
+ * object whose event has not been accepted by every zone keeps its previous state in the snapshot, so its
+ * event is created again next time. Zones that have accepted the event get it again as well.
+ *
+ * @author Joerg Huber
+ */
+class SnapshotDiffIterator implements SIFEventIterator
+{
+	private static final String SNAPSHOT_FILE = "snapshot.dat";
+
+	protected Logger logger = ADK.getLog();
+
+	private SIFEventIterator source;
+	private BaseInfo baseInfo;
+	private MappingsContext mappingCtx;
+	private SCFObjectInfo objectInfo;
+	private File dir;
+	private int chunkSize;
+
+	private boolean prepared = false;
+	private boolean completed = false;
+	private boolean sourceFailed = false;
+	private List<File> runFiles = new ArrayList<File>();
+	private PriorityQueue<RecordReader> currentReaders = null;
+	private RecordReader previousReader = null;
+	private DataOutputStream snapshotWriter = null;
+	private Record lastCurrent = null;
+	private SIFEvent nextEvent = null;
+
+	private int added = 0;
+	private int changed = 0;
+	private int unchanged = 0;
+	private int deleted = 0;
+
+	/* Keys of the objects whose event has not been accepted by at least one zone. */
+	private Set<String> failedKeys = Collections.synchronizedSet(new HashSet<String>());
+
+	/*
+	 * One object of a snapshot. The xml is only held for objects of the current snapshot.
+	 */
+	private static class Record
+	{
+		private String key;
+		private String digest;
+		private String keyXML;
+		private String xml;
+
+		Record(String key, String digest, String keyXML, String xml)
+		{
+			this.key = key;
+			this.digest = digest;
+			this.keyXML = keyXML;
+			this.xml = xml;
+		}
+
+		void write(DataOutputStream out) throws IOException
+		{
+			out.writeUTF(key);
+			out.writeUTF(digest);
+			writeString(out, keyXML);
+			writeString(out, xml);
+		}
+
+		static Record read(DataInputStream in) throws IOException
+		{
+			String key = null;
+			try
+			{
+				key = in.readUTF();
+			}
+			catch (EOFException ex)
+			{
+				return null;
+			}
+			return new Record(key, in.readUTF(), readString(in), readString(in));
+		}
+
+		/* writeUTF() is limited to 64K, so longer strings are written as length and bytes. */
+		private static void writeString(DataOutputStream out, String value) throws IOException
+		{
+			if (value == null)
+			{
+				out.writeInt(-1);
+			}
+			else
+			{
+				byte[] bytes = value.getBytes("UTF-8");
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+
+		private static String readString(DataInputStream in) throws IOException
+		{
+			int length = in.readInt();
+			if (length < 0)
+			{
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		}
+	}
+
+	/*
+	 * Reads the records of a sorted file one by one.
+	 */
+	private static class RecordReader
+	{
+		private DataInputStream in;
+		private Record current;
+
+		RecordReader(File file) throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			advance();
+		}
+
+		Record current()
+		{
+			return current;
+		}
+
+		Record advance() throws IOException
+		{
+			Record previous = current;
+			current = Record.read(in);
+			if (current == null)
+			{
+				close();
+			}
+			return previous;
+		}
+
+		void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch (Exception ex) {}
+		}
+	}
+
+	private static final Comparator<Record> KEY_ORDER = new Comparator<Record>()
+	{
+		//@Override
+		public int compare(Record r1, Record r2)
+		{
+			return r1.key.compareTo(r2.key);
+		}
+	};
+
+	/**
+	 * Creates an iterator that returns the difference between the snapshot returned by the given iterator
+	 * and the snapshot held in the given directory.
+	 *
+	 * @param source The iterator that returns the current snapshot.
+	 * @param baseInfo The publisher. Passed to the underlying iterator.
+	 * @param mappingCtx The outbound mapping. Passed to the underlying iterator.
+	 * @param objectInfo Used to determine the key of the SIF Objects.
+	 * @param dir The directory that holds the snapshot file and the temporary run files.
+	 * @param chunkSize The max number of objects that are sorted in memory.
+	 */
+	SnapshotDiffIterator(SIFEventIterator source, BaseInfo baseInfo, MappingsContext mappingCtx, SCFObjectInfo objectInfo, File dir, int chunkSize)
+	{
+		this.source = source;
+		this.baseInfo = baseInfo;
+		this.mappingCtx = mappingCtx;
+		this.objectInfo = objectInfo;
+		this.dir = dir;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/*-------------------------------------*/
+	/* Implementation of SIFEventIterator */
+	/*-------------------------------------*/
+	//@Override
+	public boolean hasNext()
+	{
+		prepare();
+		return (nextEvent != null);
+	}
+
+	//@Override
+	public SIFEvent getNextEvent(BaseInfo baseInfo, MappingsContext mappingCtx) throws ADKMappingException
+	{
+		prepare();
+		SIFEvent event = nextEvent;
+		nextEvent = null;
+		try
+		{
+			findNextEvent();
+		}
+		catch (Exception ex)
+		{
+			// Stop here. The previous snapshot remains in place, so the events are determined again next time.
+			logger.error(baseInfo.getId()+": Failed to compare snapshots: "+ex.getMessage(), ex);
+			closeFiles();
+		}
+		return event;
+	}
+
+	//@Override
+	public void releaseResources()
+	{
+		if (!prepared)
+		{
+			source.releaseResources();
+		}
+		closeFiles();
+		deleteRunFiles();
+		logger.info("Snapshot comparison for "+baseInfo.getId()+": "+added+" added, "+changed+" changed, "+deleted+" deleted, "+unchanged+" unchanged.");
+	}
+
+	/**
+	 * Must be called once the given events have been sent to a zone. If the zone has not accepted them then
+	 * their objects keep their previous state when the snapshot is committed. Can be called by several threads
+	 * (one per zone).
+	 */
+	void delivered(List<SIFEvent> events, boolean accepted)
+	{
+		if (accepted)
+		{
+			return;
+		}
+		for (SIFEvent event : events)
+		{
+			String key = objectInfo.getKey(event.getSifObject());
+			if (key != null)
+			{
+				failedKeys.add(key);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the previous snapshot with the new one. Must be called after releaseResources() once all events
+	 * have been sent to the zones. Objects whose event has not been accepted by every zone keep their previous
+	 * state. If all events have been retrieved but not all of them have been passed to the zones (i.e. a zone 
+	 * lane has dropped events) then 'allSent' must be FALSE. In this case the previous snapshot is kept.
+	 *
+	 * @param allSent TRUE if every event has been sent to every zone and reported with delivered().
+	 */
+	void commit(boolean allSent)
+	{
+		File snapshot = new File(dir, SNAPSHOT_FILE);
+		File newSnapshot = new File(dir, SNAPSHOT_FILE+".new");
+		try
+		{
+			if (!completed || !allSent)
+			{
+				logger.error(baseInfo.getId()+": Not all events have been sent. The previous snapshot is kept and the same events will be created next time.");
+				return;
+			}
+			if (!failedKeys.isEmpty())
+			{
+				logger.info(baseInfo.getId()+": "+failedKeys.size()+" object(s) not accepted by all zones keep their previous state in the snapshot.");
+				File merged = new File(dir, SNAPSHOT_FILE+".tmp");
+				retainFailedKeys(snapshot, newSnapshot, merged);
+				replace(merged, newSnapshot);
+			}
+			replace(newSnapshot, snapshot);
+		}
+		catch (Exception ex)
+		{
+			logger.error(baseInfo.getId()+": Failed to replace snapshot "+snapshot.getPath()+". The same events will be created next time: "+ex.getMessage(), ex);
+		}
+		finally
+		{
+			newSnapshot.delete();
+			failedKeys.clear();
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Reads the current snapshot into sorted run files and opens all files for the merge.
+	 */
+	private void prepare()
+	{
+		if (prepared)
+		{
+			return;
+		}
+		prepared = true;
+		try
+		{
+			dir.mkdirs();
+			writeRunFiles();
+
+			currentReaders = new PriorityQueue<RecordReader>(Math.max(1, runFiles.size()), new Comparator<RecordReader>()
+			{
+				//@Override
+				public int compare(RecordReader r1, RecordReader r2)
+				{
+					return KEY_ORDER.compare(r1.current(), r2.current());
+				}
+			});
+			for (File runFile : runFiles)
+			{
+				RecordReader reader = new RecordReader(runFile);
+				if (reader.current() != null)
+				{
+					currentReaders.add(reader);
+				}
+			}
+			File snapshot = new File(dir, SNAPSHOT_FILE);
+			if (snapshot.exists())
+			{
+				previousReader = new RecordReader(snapshot);
+			}
+			snapshotWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, SNAPSHOT_FILE+".new"))));
+
+			findNextEvent();
+		}
+		catch (IOException ex)
+		{
+			closeFiles();
+			deleteRunFiles();
+			throw new IllegalStateException("Failed to compare snapshots in "+dir.getPath()+": "+ex.getMessage(), ex);
+		}
+		catch (RuntimeException ex)
+		{
+			closeFiles();
+			deleteRunFiles();
+			throw ex;
+		}
+	}
+
+	/*
+	 * Reads all objects of the current snapshot and writes them in sorted chunks to the run files. The
+	 * underlying iterator is released once all objects have been read.
+	 */
+	private void writeRunFiles() throws IOException
+	{
+		List<Record> chunk = new ArrayList<Record>(Math.min(chunkSize, 10000));
+		try
+		{
+			while (source.hasNext())
+			{
+				try
+				{
+					SIFEvent event = source.getNextEvent(baseInfo, mappingCtx);
+					if (event == null)
+					{
+						logger.error("iterator.hasNext() has returned true but iterator.getNextEvent() has retrurned null => no further objects are read for the snapshot.");
+						sourceFailed = true;
+						break;
+					}
+					Record record = createRecord(event.getSifObject());
+					if (record == null)
+					{
+						sourceFailed = true;
+						continue;
+					}
+					chunk.add(record);
+					if (chunk.size() >= chunkSize)
+					{
+						writeRunFile(chunk);
+						chunk.clear();
+					}
+				}
+				catch (ADKMappingException ex)
+				{
+					logger.error("Failed to retrieve next object of snapshot for publisher "+baseInfo.getId()+": "+ex.getMessage(), ex);
+					sourceFailed = true;
+				}
+				catch (RuntimeException ex)
+				{
+					logger.error("Failed to retrieve next object of snapshot for publisher "+baseInfo.getId()+": "+ex.getMessage(), ex);
+					sourceFailed = true;
+				}
+			}
+			if (!chunk.isEmpty())
+			{
+				writeRunFile(chunk);
+			}
+		}
+		finally
+		{
+			source.releaseResources();
+		}
+		if (sourceFailed)
+		{
+			logger.error(baseInfo.getId()+": Not all objects of the snapshot could be retrieved. No DELETE events are created in this run.");
+		}
+	}
+
+	private void writeRunFile(List<Record> chunk) throws IOException
+	{
+		Collections.sort(chunk, KEY_ORDER);
+		File runFile = new File(dir, "run"+runFiles.size()+".tmp");
+		runFiles.add(runFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+		try
+		{
+			for (Record record : chunk)
+			{
+				record.write(out);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/*
+	 * Creates the record for a SIF Object of the current snapshot. Returns null if the object has no key.
+	 */
+	private Record createRecord(SIFDataObject sifObject)
+	{
+		String key = objectInfo.getKey(sifObject);
+		if (key == null)
+		{
+			logger.error(baseInfo.getId()+": "+sifObject.getElementDef().name()+" without key cannot be compared with the previous snapshot.");
+			return null;
+		}
+		String digest = ChangeDigestStore.getDigest(sifObject);
+		if (digest == null)
+		{
+			return null;
+		}
+		return new Record(key, digest, getKeyXML(sifObject), sifObject.toXML());
+	}
+
+	/*
+	 * Returns the XML of an object of the same type that only holds the key of the given object. This is
+	 * what is sent in a DELETE event.
+	 */
+	private String getKeyXML(SIFDataObject sifObject)
+	{
+		try
+		{
+			SIFDataObject keyObject = sifObject.getClass().getConstructor().newInstance();
+			for (String xPath : objectInfo.getKeyXPaths(sifObject.getElementDef().name()))
+			{
+				String value = SCFObjectInfo.DEFAULT_KEY_XPATH.equals(xPath) ? sifObject.getRefId() : ((sifObject.getElementOrAttribute(xPath) != null) ? sifObject.getElementOrAttribute(xPath).getTextValue() : null);
+				if (value != null)
+				{
+					keyObject.setElementOrAttribute(xPath, value);
+				}
+			}
+			return keyObject.toXML();
+		}
+		catch (Exception ex)
+		{
+			logger.error(baseInfo.getId()+": Failed to create key object. Full object is used for DELETE events: "+ex.getMessage());
+			return sifObject.toXML();
+		}
+	}
+
+	/*
+	 * Merges the current and the previous snapshot until the next event is found or both snapshots have
+	 * been processed completely. Each record is written to the new snapshot on the way.
+	 */
+	private void findNextEvent() throws IOException
+	{
+		while ((nextEvent == null) && (snapshotWriter != null))
+		{
+			Record current = nextCurrent();
+			Record previous = (previousReader != null) ? previousReader.current() : null;
+			if ((current == null) && (previous == null))
+			{
+				snapshotWriter.close();
+				snapshotWriter = null;
+				completed = true;
+				return;
+			}
+
+			int cmp = (current == null) ? 1 : ((previous == null) ? -1 : current.key.compareTo(previous.key));
+			if (cmp < 0) // new object
+			{
+				writeSnapshot(current);
+				nextEvent = createEvent(current.xml, EventAction.ADD);
+				added++;
+			}
+			else if (cmp > 0) // object no longer exists
+			{
+				previousReader.advance();
+				pushBack(current);
+				if (sourceFailed)
+				{
+					writeSnapshot(previous);
+				}
+				else
+				{
+					nextEvent = createEvent(previous.keyXML, EventAction.DELETE);
+					deleted++;
+				}
+			}
+			else
+			{
+				previousReader.advance();
+				writeSnapshot(current);
+				if (current.digest.equals(previous.digest))
+				{
+					unchanged++;
+				}
+				else
+				{
+					nextEvent = createEvent(current.xml, EventAction.CHANGE);
+					changed++;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the next record of the merged run files. Duplicate keys are skipped.
+	 */
+	private Record nextCurrent() throws IOException
+	{
+		if (lastCurrent != null)
+		{
+			Record record = lastCurrent;
+			lastCurrent = null;
+			return record;
+		}
+		Record record = pollCurrent();
+		while ((record != null) && !currentReaders.isEmpty() && record.key.equals(currentReaders.peek().current().key))
+		{
+			logger.error(baseInfo.getId()+": Object with key "+record.key+" exists more than once in the snapshot. Only the first one is used.");
+			pollCurrent();
+		}
+		return record;
+	}
+
+	private Record pollCurrent() throws IOException
+	{
+		RecordReader reader = currentReaders.poll();
+		if (reader == null)
+		{
+			return null;
+		}
+		Record record = reader.advance();
+		if (reader.current() != null)
+		{
+			currentReaders.add(reader);
+		}
+		return record;
+	}
+
+	private void pushBack(Record current)
+	{
+		lastCurrent = current;
+	}
+
+	private void writeSnapshot(Record record) throws IOException
+	{
+		new Record(record.key, record.digest, record.keyXML, null).write(snapshotWriter);
+	}
+
+	private SIFEvent createEvent(String xml, EventAction eventAction) throws IOException
+	{
+		try
+		{
+			return new SIFEvent((SIFDataObject)SIFParser.newInstance().parse(xml), eventAction);
+		}
+		catch (Exception ex)
+		{
+			throw new IOException("Failed to parse snapshot object: "+ex.getMessage());
+		}
+	}
+
+	private void closeFiles()
+	{
+		if (currentReaders != null)
+		{
+			for (RecordReader reader : currentReaders)
+			{
+				reader.close();
+			}
+			currentReaders.clear();
+		}
+		if (previousReader != null)
+		{
+			previousReader.close();
+		}
+		if (snapshotWriter != null)
+		{
+			try
+			{
+				snapshotWriter.close();
+			}
+			catch (Exception ex) {}
+			snapshotWriter = null;
+		}
+	}
+
+	/*
+	 * Merges the previous and the new snapshot into the given file. The records of the failed keys are taken
+	 * from the previous snapshot and all others from the new snapshot. Both snapshots are sorted by key.
+	 */
+	private void retainFailedKeys(File snapshot, File newSnapshot, File merged) throws IOException
+	{
+		RecordReader previousRecords = snapshot.exists() ? new RecordReader(snapshot) : null;
+		RecordReader newRecords = new RecordReader(newSnapshot);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged)));
+		try
+		{
+			while (true)
+			{
+				Record previous = (previousRecords != null) ? previousRecords.current() : null;
+				Record current = newRecords.current();
+				if ((previous == null) && (current == null))
+				{
+					break;
+				}
+				int cmp = (current == null) ? 1 : ((previous == null) ? -1 : current.key.compareTo(previous.key));
+				String key = (cmp <= 0) ? current.key : previous.key;
+				Record record = failedKeys.contains(key) ? ((cmp >= 0) ? previous : null) : ((cmp <= 0) ? current : null);
+				if (record != null)
+				{
+					record.write(out);
+				}
+				if (cmp <= 0)
+				{
+					newRecords.advance();
+				}
+				if (cmp >= 0)
+				{
+					previousRecords.advance();
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+			newRecords.close();
+			if (previousRecords != null)
+			{
+				previousRecords.close();
+			}
+		}
+	}
+
+	private void replace(File source, File target) throws IOException
+	{
+		if ((target.exists() && !target.delete()) || !source.renameTo(target))
+		{
+			throw new IOException("Cannot rename "+source.getPath()+" to "+target.getPath());
+		}
+	}
+
+	private void deleteRunFiles()
+	{
+		for (File runFile : runFiles)
+		{
+			runFile.delete();
+		}
+		runFiles.clear();
+	}
+}
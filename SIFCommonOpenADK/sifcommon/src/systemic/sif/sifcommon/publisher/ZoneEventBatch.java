@@ -0,0 +1,129 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import openadk.library.EventAction;
+import openadk.library.Zone;
+
+import systemic.sif.sifcommon.model.SIFEvent;
+
+
+/**
+ * This class collects consecutive SIF Events with the same event action for one zone and sends them as
+ * one multi-object SIF_Event once the batch is full. A batch is full if it holds the maximum number of
+ * SIF Objects or if adding the next object would exceed the maximum size of the batch. A change of the
+ * event action will also send the current batch because a SIF_Event can only have one action.<p>
+ *
+ * An instance of this class is not thread safe. It is expected that only one thread adds events for a
+ * given zone.
+ *
+ * @author Joerg Huber
+ */
+class ZoneEventBatch
+{
+	private BasePublisher publisher;
+	private Zone zone;
+	private int maxObjects;
+	private long maxBytes;
+
+	private List<SIFEvent> events = new ArrayList<SIFEvent>();
+	private EventAction eventAction = null;
+	private long currentBytes = 0;
+
+	private int batchesSent = 0;
+	private int batchesFailed = 0;
+
+	/**
+	 * Creates an empty batch for the given zone.
+	 *
+	 * @param publisher The publisher that sends the batches.
+	 * @param zone The zone to which the batches are sent to.
+	 * @param maxObjects Max number of SIF Objects in one SIF_Event.
+	 * @param maxBytes Max approximate size of all SIF Objects in one SIF_Event. 0 = no limit.
+	 */
+	ZoneEventBatch(BasePublisher publisher, Zone zone, int maxObjects, long maxBytes)
+	{
+		this.publisher = publisher;
+		this.zone = zone;
+		this.maxObjects = maxObjects;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Adds the event to this batch. If the batch is full or the event action differs from the action of the
+	 * events already in the batch then the current batch is sent first.
+	 */
+	void add(SIFEvent event)
+	{
+		if ((eventAction != null) && (eventAction != event.getEventAction()))
+		{
+			flush();
+		}
+
+		long size = (maxBytes > 0) ? publisher.getXML(event.getSifObject()).length() : 0;
+		if ((maxBytes > 0) && !events.isEmpty() && (currentBytes + size > maxBytes))
+		{
+			flush();
+		}
+
+		events.add(event);
+		eventAction = event.getEventAction();
+		currentBytes += size;
+
+		if (events.size() >= maxObjects)
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Sends all events currently held in this batch as one SIF_Event. If the batch is empty nothing is sent.
+	 */
+	void flush()
+	{
+		if (!events.isEmpty())
+		{
+			if (publisher.deliverEvents(events, eventAction, zone))
+			{
+				batchesSent++;
+			}
+			else
+			{
+				batchesFailed++;
+			}
+			events = new ArrayList<SIFEvent>();
+			eventAction = null;
+			currentBytes = 0;
+		}
+	}
+
+	Zone getZone()
+	{
+		return zone;
+	}
+
+	int getBatchesSent()
+	{
+		return batchesSent;
+	}
+
+	int getBatchesFailed()
+	{
+		return batchesFailed;
+	}
+}
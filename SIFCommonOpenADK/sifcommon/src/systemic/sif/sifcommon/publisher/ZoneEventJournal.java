@@ -0,0 +1,554 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import openadk.library.ADK;
+import openadk.library.EventAction;
+import openadk.library.SIFDataObject;
+import openadk.library.SIFParser;
+import openadk.library.Zone;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.model.SIFEvent;
+import au.com.systemic.framework.utils.FileReaderWriter;
+
+
+/**
+ * This class holds the events that could not be sent to a zone in an append-only journal on disk. Once the
+ * zone is available again the events are replayed in the order they have been journaled. As long as there
+ * are events in the journal all new events for the zone are appended to the journal as well, so they don't
+ * overtake the older events.<p>
+ *
+ * The journal consists of segment files of about 'segmentSize' bytes. Each record of a segment holds the
+ * events of one SIF_Event. The position of the next record to replay is held in the file 'ack'. Segments that
+ * have been replayed completely are deleted. A record that has not been written completely (i.e. because the
+ * agent has crashed) is removed when the journal is opened.<p>
+ *
+ * A record that cannot be read or whose SIF_Event is rejected by the zone (SIF_Ack with an error) would block
+ * the journal forever. Such a record is moved to the file 'deadletter.dat' in the same format as a segment and
+ * the replay continues with the next record. Only if the zone isn't available the replay stops.<p>
+ *
+ * The methods of this class are guarded by a lock. It is expected that only one thread sends events for a zone.
+ * A ReentrantLock is used rather than synchronized because replay() sends to the zone while holding it. A
+ * publisher that runs in a virtual thread therefore doesn't pin its carrier thread.
+ *
+ * @author Joerg Huber
+ */
+class ZoneEventJournal
+{
+	private static final int RECORD_MARKER = 0x534A524E;
+	private static final String SEGMENT_EXTENSION = ".seg";
+	private static final String ACK_FILE = "ack";
+	private static final String DEAD_LETTER_FILE = "deadletter.dat";
+
+	protected Logger logger = ADK.getLog();
+
+	private BasePublisher publisher;
+	private Zone zone;
+	private File dir;
+	private long segmentSize;
+
+	private boolean opened = false;
+	private List<Long> segments = new ArrayList<Long>();
+	private long ackSegment = 0;
+	private long ackOffset = 0;
+	private int pendingEvents = 0;
+	private ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Creates the journal for one zone of a publisher. The journal files are read with the first access.
+	 *
+	 * @param publisher The publisher that sends the events.
+	 * @param zone The zone the events are sent to.
+	 * @param dir The directory that holds the segments of this journal.
+	 * @param segmentSize The approximate max size of a segment in bytes.
+	 */
+	ZoneEventJournal(BasePublisher publisher, Zone zone, File dir, long segmentSize)
+	{
+		this.publisher = publisher;
+		this.zone = zone;
+		this.dir = dir;
+		this.segmentSize = Math.max(1024, segmentSize);
+	}
+
+	/**
+	 * Returns TRUE if there are events in this journal that have not been sent to the zone yet.
+	 */
+	boolean hasPending()
+	{
+		lock.lock();
+		try
+		{
+			open();
+			return !segments.isEmpty();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of events in this journal that have not been sent to the zone yet.
+	 */
+	int getPendingEvents()
+	{
+		lock.lock();
+		try
+		{
+			open();
+			return pendingEvents;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the given events as one record to this journal. Returns TRUE if the events have been written
+	 * to disk, FALSE otherwise.
+	 */
+	boolean append(List<SIFEvent> events, EventAction eventAction)
+	{
+		lock.lock();
+		try
+		{
+			open();
+			FileOutputStream out = null;
+			try
+			{
+				ByteArrayOutputStream payload = new ByteArrayOutputStream();
+				DataOutputStream data = new DataOutputStream(payload);
+				data.writeUTF(eventAction.name());
+				data.writeInt(events.size());
+				for (SIFEvent event : events)
+				{
+					byte[] xml = publisher.getXML(event.getSifObject()).getBytes("UTF-8");
+					data.writeInt(xml.length);
+					data.write(xml);
+				}
+				data.close();
+
+				ByteArrayOutputStream record = new ByteArrayOutputStream(payload.size() + 8);
+				data = new DataOutputStream(record);
+				data.writeInt(RECORD_MARKER);
+				data.writeInt(payload.size());
+				payload.writeTo(data);
+				data.close();
+
+				long segment = segments.isEmpty() ? (ackSegment + 1) : segments.get(segments.size() - 1).longValue();
+				if (!segments.isEmpty() && (getSegmentFile(segment).length() >= segmentSize))
+				{
+					segment++;
+				}
+				if (segments.isEmpty())
+				{
+					// Start a new journal. Nothing of it has been replayed yet.
+					ackSegment = segment;
+					ackOffset = 0;
+					writeAck();
+				}
+				dir.mkdirs();
+				out = new FileOutputStream(getSegmentFile(segment), true);
+				record.writeTo(out);
+				out.flush();
+				out.getFD().sync();
+				if (segments.isEmpty() || (segments.get(segments.size() - 1).longValue() != segment))
+				{
+					segments.add(Long.valueOf(segment));
+				}
+				pendingEvents += events.size();
+				return true;
+			}
+			catch (Exception ex)
+			{
+				logger.error(publisher.getId()+": Failed to write "+events.size()+" event(s) for zone "+zone.getZoneId()+" to journal "+dir.getPath()+": "+ex.getMessage(), ex);
+				return false;
+			}
+			finally
+			{
+				if (out != null)
+				{
+					try
+					{
+						out.close();
+					}
+					catch (Exception ex) {}
+				}
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the events of this journal to the zone in the order they have been journaled. Stops at the first
+	 * SIF_Event that cannot be sent because the zone isn't available. Records that cannot be read or that are
+	 * rejected by the zone are moved to the dead letter file. At most 'maxEventsPerSecond' events are sent per
+	 * second (0 = no limit). Segments that have been replayed completely are deleted.
+	 *
+	 * @return The number of events that have been sent.
+	 */
+	int replay(int maxEventsPerSecond)
+	{
+		lock.lock();
+		try
+		{
+			open();
+			int replayed = 0;
+			long startTime = System.currentTimeMillis();
+			try
+			{
+				while (!segments.isEmpty())
+				{
+					long segment = segments.get(0).longValue();
+					if (ackSegment != segment)
+					{
+						ackSegment = segment;
+						ackOffset = 0;
+					}
+					RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment), "r");
+					try
+					{
+						file.seek(ackOffset);
+						byte[] payload = null;
+						while ((payload = readPayload(file)) != null)
+						{
+							List<SIFEvent> events = new ArrayList<SIFEvent>();
+							EventAction eventAction = null;
+							try
+							{
+								eventAction = readEvents(payload, events);
+							}
+							catch (Exception ex)
+							{
+								logger.error(publisher.getId()+": Journal record in "+getSegmentFile(segment).getPath()+" cannot be read and is moved to "+getDeadLetterFile().getPath()+": "+ex.getMessage());
+								deadLetter(payload);
+								acknowledge(file, countEvents(payload));
+								continue;
+							}
+
+							try
+							{
+								publisher.reportEvents(events, eventAction, zone);
+							}
+							catch (Exception ex)
+							{
+								publisher.logReportFailure(events, eventAction, zone, ex);
+								if (!BasePublisher.isRejected(ex))
+								{
+									logger.info(publisher.getId()+": Zone "+zone.getZoneId()+" still not available. "+pendingEvents+" event(s) remain in journal.");
+									return replayed;
+								}
+								logger.error(publisher.getId()+": "+events.size()+" journaled event(s) rejected by zone "+zone.getZoneId()+" are moved to "+getDeadLetterFile().getPath()+".");
+								deadLetter(payload);
+								acknowledge(file, events.size());
+								continue;
+							}
+							acknowledge(file, events.size());
+							replayed += events.size();
+							throttle(replayed, startTime, maxEventsPerSecond);
+						}
+					}
+					finally
+					{
+						file.close();
+					}
+
+					// Segment completely replayed => remove it
+					segments.remove(0);
+					if (!getSegmentFile(segment).delete())
+					{
+						logger.error(publisher.getId()+": Failed to delete journal segment "+getSegmentFile(segment).getPath());
+					}
+					if (segments.isEmpty())
+					{
+						ackSegment = segment;
+						ackOffset = 0;
+						new File(dir, ACK_FILE).delete();
+						pendingEvents = 0;
+					}
+				}
+			}
+			catch (Exception ex)
+			{
+				logger.error(publisher.getId()+": Failed to replay journal "+dir.getPath()+": "+ex.getMessage(), ex);
+			}
+			return replayed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Reads the existing segments and the ack position. Removes an incomplete record at the end of the last
+	 * segment and counts the pending events.
+	 */
+	private void open()
+	{
+		if (opened)
+		{
+			return;
+		}
+		opened = true;
+		String[] names = dir.list(new FilenameFilter()
+		{
+			//@Override
+			public boolean accept(File directory, String name)
+			{
+				return name.endsWith(SEGMENT_EXTENSION);
+			}
+		});
+		if ((names == null) || (names.length == 0))
+		{
+			return;
+		}
+		Arrays.sort(names);
+		readAck();
+		for (String name : names)
+		{
+			long segment = Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+			if (segment < ackSegment)
+			{
+				getSegmentFile(segment).delete(); // replayed but not deleted
+			}
+			else
+			{
+				segments.add(Long.valueOf(segment));
+			}
+		}
+		if (segments.isEmpty())
+		{
+			return;
+		}
+		if (ackSegment < segments.get(0).longValue())
+		{
+			ackSegment = segments.get(0).longValue();
+			ackOffset = 0;
+		}
+
+		// Count the pending events and cut off an incomplete record
+		try
+		{
+			for (Long segment : segments)
+			{
+				RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment.longValue()), "rw");
+				try
+				{
+					file.seek((segment.longValue() == ackSegment) ? ackOffset : 0);
+					byte[] payload = null;
+					while ((payload = readPayload(file)) != null)
+					{
+						pendingEvents += countEvents(payload);
+					}
+					if (file.getFilePointer() < file.length())
+					{
+						logger.error(publisher.getId()+": Incomplete record at the end of journal segment "+getSegmentFile(segment.longValue()).getPath()+" removed.");
+						file.setLength(file.getFilePointer());
+					}
+				}
+				finally
+				{
+					file.close();
+				}
+			}
+			logger.info(publisher.getId()+": "+pendingEvents+" event(s) for zone "+zone.getZoneId()+" found in journal.");
+		}
+		catch (Exception ex)
+		{
+			logger.error(publisher.getId()+": Failed to read journal "+dir.getPath()+": "+ex.getMessage(), ex);
+		}
+	}
+
+	/*
+	 * Reads the events of the given record payload into the given list and returns their event action. Throws
+	 * an exception if the payload is corrupt or an event cannot be parsed.
+	 */
+	private EventAction readEvents(byte[] payload, List<SIFEvent> events) throws Exception
+	{
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+		EventAction eventAction = EventAction.valueOf(data.readUTF());
+		int count = data.readInt();
+		SIFParser parser = SIFParser.newInstance();
+		for (int i = 0; i < count; i++)
+		{
+			byte[] xml = new byte[data.readInt()];
+			data.readFully(xml);
+			events.add(new SIFEvent((SIFDataObject)parser.parse(new String(xml, "UTF-8")), eventAction));
+		}
+		return eventAction;
+	}
+
+	/*
+	 * Returns the number of events in the given record payload or 0 if it cannot be read.
+	 */
+	private int countEvents(byte[] payload)
+	{
+		try
+		{
+			DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+			data.readUTF();
+			return Math.max(0, data.readInt());
+		}
+		catch (Exception ex)
+		{
+			return 0;
+		}
+	}
+
+	/*
+	 * Marks the record before the current file position as replayed.
+	 */
+	private void acknowledge(RandomAccessFile file, int eventCount) throws IOException
+	{
+		ackOffset = file.getFilePointer();
+		writeAck();
+		pendingEvents = Math.max(0, pendingEvents - eventCount);
+	}
+
+	/*
+	 * Appends the given record payload to the dead letter file.
+	 */
+	private void deadLetter(byte[] payload) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(getDeadLetterFile(), true);
+		try
+		{
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(RECORD_MARKER);
+			data.writeInt(payload.length);
+			data.write(payload);
+			data.flush();
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/*
+	 * Reads the payload of the next record. Returns null and leaves the file pointer at the start of the
+	 * record if there is no complete record.
+	 */
+	private byte[] readPayload(RandomAccessFile file) throws IOException
+	{
+		long start = file.getFilePointer();
+		if (start + 8 > file.length())
+		{
+			return null;
+		}
+		int marker = file.readInt();
+		int length = file.readInt();
+		if ((marker != RECORD_MARKER) || (length < 0) || (file.getFilePointer() + length > file.length()))
+		{
+			file.seek(start);
+			return null;
+		}
+		byte[] payload = new byte[length];
+		file.readFully(payload);
+		return payload;
+	}
+
+	private void readAck()
+	{
+		File ackFile = new File(dir, ACK_FILE);
+		if (ackFile.exists())
+		{
+			try
+			{
+				String[] values = FileReaderWriter.getFileContent(ackFile.getPath()).trim().split(" ");
+				ackSegment = Long.parseLong(values[0]);
+				ackOffset = Long.parseLong(values[1]);
+			}
+			catch (Exception ex)
+			{
+				logger.error(publisher.getId()+": Invalid journal ack file "+ackFile.getPath()+". Replay starts at the first segment.");
+				ackSegment = 0;
+				ackOffset = 0;
+			}
+		}
+	}
+
+	private void writeAck() throws IOException
+	{
+		dir.mkdirs();
+		RandomAccessFile file = new RandomAccessFile(new File(dir, ACK_FILE), "rw");
+		try
+		{
+			byte[] ack = (ackSegment+" "+ackOffset).getBytes("UTF-8");
+			file.seek(0);
+			file.write(ack);
+			file.setLength(ack.length);
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	private void throttle(int replayed, long startTime, int maxEventsPerSecond)
+	{
+		if (maxEventsPerSecond > 0)
+		{
+			long due = startTime + (replayed * 1000L / maxEventsPerSecond);
+			long wait = due - System.currentTimeMillis();
+			if (wait > 0)
+			{
+				try
+				{
+					Thread.sleep(wait);
+				}
+				catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private File getDeadLetterFile()
+	{
+		return new File(dir, DEAD_LETTER_FILE);
+	}
+
+	private File getSegmentFile(long segment)
+	{
+		return new File(dir, String.format("%012d", Long.valueOf(segment))+SEGMENT_EXTENSION);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import openadk.library.ADK;
+import openadk.library.Zone;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.model.SIFEvent;
+
+
+/**
+ * A lane delivers the events of one broadcastEvents() run to one zone in its own thread. The publisher
+ * thread retrieves each event once from the SIFEventIterator and puts it into the bounded buffer of each
+ * lane. Each lane then sends the events to its zone independently of all other lanes. This ensures that a
+ * slow or unavailable zone doesn't hold back the delivery to all other zones.<p>
+ *
+ * If the buffer of a lane is full the publisher waits at most 'maxLagSeconds' for a free slot. If that time
+ * is exceeded the lane is considered to be lagging and all further events of this run are not sent to the
+ * zone of this lane. A value of 0 for 'maxLagSeconds' means that the publisher waits indefinitely.
+ *
+ * @author Joerg Huber
+ */
+class ZoneEventLane implements Runnable
+{
+	/* Marker to indicate that no more events will be put into the lane */
+	private static final SIFEvent END_OF_EVENTS = new SIFEvent();
+
+	protected Logger logger = ADK.getLog();
+
+	private BasePublisher publisher;
+	private Zone zone;
+	private BlockingQueue<SIFEvent> buffer;
+	private long maxLagSeconds;
+	private CountDownLatch finished = new CountDownLatch(1);
+
+	private volatile boolean lagging = false;
+	private int eventsDropped = 0;
+
+	/**
+	 * Creates a lane for the given zone.
+	 *
+	 * @param publisher The publisher whose sendEvent() method is called for each event in the lane.
+	 * @param zone The zone this lane delivers to.
+	 * @param depth The max number of events buffered in this lane.
+	 * @param maxLagSeconds Max time the producer waits for a free slot in the lane. 0 = wait indefinitely.
+	 */
+	ZoneEventLane(BasePublisher publisher, Zone zone, int depth, long maxLagSeconds)
+	{
+		this.publisher = publisher;
+		this.zone = zone;
+		this.buffer = new ArrayBlockingQueue<SIFEvent>(depth);
+		this.maxLagSeconds = maxLagSeconds;
+	}
+
+	/**
+	 * Puts the event into this lane. Returns FALSE if the event has not been accepted because the lane is
+	 * lagging behind by more than the allowed time.
+	 */
+	boolean publish(SIFEvent event)
+	{
+		if (lagging)
+		{
+			eventsDropped++;
+			return false;
+		}
+		try
+		{
+			if (maxLagSeconds <= 0)
+			{
+				buffer.put(event);
+				return true;
+			}
+			if (buffer.offer(event, maxLagSeconds, TimeUnit.SECONDS))
+			{
+				return true;
+			}
+			logger.error(publisher.getId()+": Event lane for zone "+zone.getZoneId()+" lags behind by more than "+maxLagSeconds+" seconds. No further events of this run are sent to this zone.");
+		}
+		catch (InterruptedException ex)
+		{
+			logger.error(publisher.getId()+": Interrupted while waiting for event lane of zone "+zone.getZoneId()+".");
+			Thread.currentThread().interrupt();
+		}
+		lagging = true;
+		eventsDropped++;
+		return false;
+	}
+
+	/**
+	 * Indicates that no more events are put into this lane and waits until the lane has sent all its
+	 * buffered events.
+	 */
+	void close()
+	{
+		try
+		{
+			// The lane thread might have terminated already (i.e. interrupted) => don't wait for a free slot forever.
+			while (!buffer.offer(END_OF_EVENTS, 1, TimeUnit.SECONDS))
+			{
+				if (finished.getCount() == 0)
+				{
+					break;
+				}
+			}
+			finished.await();
+		}
+		catch (InterruptedException ex)
+		{
+			logger.error(publisher.getId()+": Interrupted while waiting for event lane of zone "+zone.getZoneId()+" to finish.");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends all events put into this lane to the zone until close() is called.
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	//@Override
+	public void run()
+	{
+		try
+		{
+			while (true)
+			{
+				SIFEvent event = buffer.take();
+				if (event == END_OF_EVENTS)
+				{
+					break;
+				}
+				try
+				{
+					publisher.sendEvent(event, zone);
+				}
+				catch (Exception ex)
+				{
+					logger.error(publisher.getId()+" failed to broadcast to zone "+zone.getZoneId()+": "+ex.getMessage(), ex);
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			logger.error(publisher.getId()+": Event lane for zone "+zone.getZoneId()+" interrupted.");
+		}
+		finally
+		{
+			finished.countDown();
+		}
+	}
+
+	Zone getZone()
+	{
+		return zone;
+	}
+
+	boolean isLagging()
+	{
+		return lagging;
+	}
+
+	int getEventsDropped()
+	{
+		return eventsDropped;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.publisher;
+
+
+/**
+ * This class paces the traffic of a publisher to one zone. It holds two token buckets, one for the number of
+ * messages and one for the number of bytes per second. Each bucket holds up to 'burst' seconds worth of tokens,
+ * so short bursts are sent without delay while the average rate stays within the limits. A limit of 0 or less
+ * means that the respective measure is not limited.<p>
+ *
+ * A caller that takes more tokens than available is not rejected. It is told how long to wait instead, and
+ * the bucket is in debt until it is refilled. This way concurrent callers queue up in the order of their
+ * calls and a single message larger than the bucket still gets through.
+ *
+ * @author Joerg Huber
+ */
+class ZoneRateLimiter
+{
+	private Bucket messages;
+	private Bucket bytes;
+
+	private long totalWaitMillis = 0;
+
+	/**
+	 * Creates a rate limiter.
+	 *
+	 * @param messagesPerSecond Max number of messages per second. 0 means no limit.
+	 * @param bytesPerSecond Max number of bytes per second. 0 means no limit.
+	 * @param burstSeconds Number of seconds worth of messages and bytes that can be sent in one burst.
+	 */
+	ZoneRateLimiter(int messagesPerSecond, long bytesPerSecond, double burstSeconds)
+	{
+		messages = (messagesPerSecond > 0) ? new Bucket(messagesPerSecond, burstSeconds) : null;
+		bytes = (bytesPerSecond > 0) ? new Bucket(bytesPerSecond, burstSeconds) : null;
+	}
+
+	/**
+	 * Returns TRUE if the number of bytes is limited. Callers can avoid to determine the size of a message
+	 * if it is not.
+	 */
+	boolean limitsBytes()
+	{
+		return bytes != null;
+	}
+
+	/**
+	 * Takes the given number of messages and bytes from the buckets and waits until they are available. Returns
+	 * the time waited in milliseconds. If the thread is interrupted the wait ends early and the interrupt flag
+	 * is set again.
+	 */
+	long acquire(int messageCount, long byteCount)
+	{
+		long waitMillis = 0;
+		if ((messages != null) && (messageCount > 0))
+		{
+			waitMillis = messages.take(messageCount);
+		}
+		if ((bytes != null) && (byteCount > 0))
+		{
+			waitMillis = Math.max(waitMillis, bytes.take(byteCount));
+		}
+
+		if (waitMillis > 0)
+		{
+			synchronized (this)
+			{
+				totalWaitMillis += waitMillis;
+			}
+			try
+			{
+				Thread.sleep(waitMillis);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		return waitMillis;
+	}
+
+	/**
+	 * Returns the time in milliseconds a message sent now would have to wait.
+	 */
+	long getCurrentWaitMillis()
+	{
+		long waitMillis = 0;
+		if (messages != null)
+		{
+			waitMillis = messages.getWaitMillis(1);
+		}
+		if (bytes != null)
+		{
+			waitMillis = Math.max(waitMillis, bytes.getWaitMillis(0));
+		}
+		return waitMillis;
+	}
+
+	/**
+	 * Returns the total time in milliseconds all callers of acquire() had to wait so far.
+	 */
+	synchronized long getTotalWaitMillis()
+	{
+		return totalWaitMillis;
+	}
+
+	/*
+	 * One token bucket. Tokens are refilled continuously at 'rate' per second up to 'capacity'.
+	 */
+	private static class Bucket
+	{
+		private double rate;
+		private double capacity;
+		private double tokens;
+		private long lastRefill;
+
+		Bucket(double rate, double burstSeconds)
+		{
+			this.rate = rate;
+			this.capacity = Math.max(1, rate * burstSeconds);
+			this.tokens = capacity;
+			this.lastRefill = System.nanoTime();
+		}
+
+		/*
+		 * Takes the given number of tokens and returns how long the caller has to wait for them.
+		 */
+		synchronized long take(long amount)
+		{
+			refill();
+			tokens -= amount;
+			return (tokens >= 0) ? 0 : (long)Math.ceil(-tokens * 1000 / rate);
+		}
+
+		/*
+		 * Returns how long it would take until 'amount' tokens are available without taking them.
+		 */
+		synchronized long getWaitMillis(long amount)
+		{
+			refill();
+			return (tokens >= amount) ? 0 : (long)Math.ceil((amount - tokens) * 1000 / rate);
+		}
+
+		private void refill()
+		{
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1000000000.0);
+			lastRefill = now;
+		}
+	}
+}
@@ -15,9 +15,20 @@
 package systemic.sif.sifcommon.subscriber;
 
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import openadk.library.ADK;
 import openadk.library.ADKException;
@@ -41,7 +52,10 @@ import systemic.sif.sifcommon.mapping.MappingInfo;
 import systemic.sif.sifcommon.model.SIFEvent;
 import systemic.sif.sifcommon.model.SubscriberMessage;
 import systemic.sif.sifcommon.subscriber.queue.SubscriberQueue;
+import systemic.sif.sifcommon.subscriber.queue.SubscriberQueueOptions;
+import systemic.sif.sifcommon.utils.SCFObjectInfo;
 import systemic.sif.sifcommon.utils.SIFCommonProperties;
+import systemic.sif.sifcommon.utils.VirtualThreads;
 
 
 /**
@@ -56,6 +70,11 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 	private SubscriberQueue<SubscriberMessage> queue = null;
     private ExecutorService service = null;
 
+	/* Only set if the consumers are partitioned: one queue (lane) per consumer. */
+	private List<SubscriberQueue<SubscriberMessage>> lanes = null;
+	private SCFObjectInfo objectInfo = null;
+	private AtomicInteger nextLane = new AtomicInteger(0);
+
     /**
      * This class is a basic initialiser of a subscriber. No properties except the subscriberID and
      * DTD for the applicable subscriber are expected to be set in this method. The BaseAgent will call
@@ -179,6 +198,67 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
     	return true;		
 	}
 
+	/**
+	 * This method processes a batch of events. It is only called if batch consumption is enabled for this 
+	 * subscriber (see SIFCommonProperties.getConsumerBatchSize()). Each element holds the SIF Object, event
+	 * action, zone and mapping info of one event, in the order the events have been received. It allows to 
+	 * process all events at once, i.e. to write them to a DB in one JDBC batch and commit.<p>
+	 * 
+	 * Elements that couldn't be processed must be reported with result.failed(). If the whole batch has 
+	 * failed then result.failedAll() can be called or an exception can be thrown. Only the failed elements 
+	 * are delivered again (see SIFCommonProperties.getConsumerBatchRetries()).<p>
+	 * 
+	 * By default each event is passed to processEvent() and the events that have thrown an exception are 
+	 * reported as failed.
+	 * 
+	 * @param events The events to be processed. Not empty.
+	 * @param consumerID The ID of the consumer that processes these events.
+	 * @param result The collector for the failed elements.
+	 * @throws ADKException Processing of the whole batch has failed.
+	 */
+	public void processEvents(List<SubscriberMessage> events, String consumerID, BatchResult result) throws ADKException
+	{
+		for (SubscriberMessage event : events)
+		{
+			try
+			{
+				processEvent(new SIFEvent(event.getSIFObject(), event.getEventAction()), event.getZone(), event.getMappingInfo(), consumerID);
+			}
+			catch (Exception ex)
+			{
+				result.failed(event, ex);
+			}
+		}
+	}
+
+	/**
+	 * This method processes a batch of SIF Objects received as responses. It is only called if batch
+	 * consumption is enabled for this subscriber (see SIFCommonProperties.getConsumerBatchSize()). Failures
+	 * are reported the same way as in processEvents().<p>
+	 * 
+	 * By default each SIF Object is passed to processResponse() and the objects that have thrown an 
+	 * exception are reported as failed.
+	 * 
+	 * @param responses The SIF Objects to be processed. Not empty.
+	 * @param consumerID The ID of the consumer that processes these SIF Objects.
+	 * @param result The collector for the failed elements.
+	 * @throws ADKException Processing of the whole batch has failed.
+	 */
+	public void processResponses(List<SubscriberMessage> responses, String consumerID, BatchResult result) throws ADKException
+	{
+		for (SubscriberMessage response : responses)
+		{
+			try
+			{
+				processResponse(response.getSIFObject(), response.getZone(), response.getMappingInfo(), consumerID);
+			}
+			catch (Exception ex)
+			{
+				result.failed(response, ex);
+			}
+		}
+	}
+
     /*----------------------------------------*/
     /* Implemented Method for Multi-threading */
     /*----------------------------------------*/
@@ -235,16 +315,60 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 		// Start up all consumers for this subscriber.
 		int numThreads = getFrameworkProperties().getNumConsumerThreads(getAgentID(), getId());
 		logger.debug("Start "+numThreads+" Consumer(s) for "+getId()+"...");
-		queue = new SubscriberQueue<SubscriberMessage>(numThreads, getDtd().name()+"Queue", getFrameworkProperties().getWorkDir(getAgentID()));	
-		service = Executors.newFixedThreadPool(numThreads);
+		SubscriberQueueOptions options = new SubscriberQueueOptions(getFrameworkProperties().getQueueCapacity(getAgentID(), getId(), numThreads));
+		options.setMaxBytes(getFrameworkProperties().getQueueMaxBytes(getAgentID(), getId()));
+		options.setLowWatermarkPercent(getFrameworkProperties().getQueueLowWatermarkPercent(getAgentID(), getId()));
+		options.setSpill(getFrameworkProperties().getQueueSpill(getAgentID(), getId()));
+		options.setPersistent(getFrameworkProperties().getQueuePersistent(getAgentID(), getId()));
+		options.setSegmentSize(getFrameworkProperties().getQueueSegmentSize(getAgentID(), getId()));
+		boolean partitioned = getFrameworkProperties().getConsumerPartitioned(getAgentID(), getId()) && (numThreads > 1);
+		List<SubscriberQueue<SubscriberMessage>> staleQueues = options.isPersistent() ? openStaleQueues(options, partitioned ? numThreads : 1) : new ArrayList<SubscriberQueue<SubscriberMessage>>();
+		List<SubscriberQueue<SubscriberMessage>> consumerQueues = new ArrayList<SubscriberQueue<SubscriberMessage>>();
+		if (partitioned)
+		{
+			// Each consumer gets its own lane with its share of the capacity and byte budget.
+			logger.debug("Consumers of "+getId()+" are partitioned by object key.");
+			objectInfo = SCFObjectInfo.getInstance(getFrameworkProperties(), getAgentID());
+			options.setCapacity(Math.max(1, options.getCapacity() / numThreads));
+			options.setMaxBytes((options.getMaxBytes() > 0) ? Math.max(1, options.getMaxBytes() / numThreads) : 0);
+			for (int i = 0; i < numThreads; i++)
+			{
+				consumerQueues.add(createQueue(options, getId()+"Queue"+(i+1)));
+			}
+		}
+		else
+		{
+			consumerQueues.add(createQueue(options, getId()+"Queue"));
+		}
+		int batchSize = getFrameworkProperties().getConsumerBatchSize(getAgentID(), getId());
+		int batchLinger = getFrameworkProperties().getConsumerBatchLinger(getAgentID(), getId());
+		int batchRetries = getFrameworkProperties().getConsumerBatchRetries(getAgentID(), getId());
+		if (batchSize > 1)
+		{
+			logger.debug("Consumers of "+getId()+" process batches of up to "+batchSize+" messages.");
+		}
+		boolean virtualThreads = getFrameworkProperties().getConsumerVirtualThreads(getAgentID(), getId());
+		service = Executors.newFixedThreadPool(numThreads, VirtualThreads.getThreadFactory(getId()+"Consumer ", virtualThreads));
 		for (int i = 0; i < numThreads; i++)
 		{
 			String consumerID = getId()+"Consumer "+(i+1);
 			logger.debug("Start Consumer "+consumerID);
-			SubscriberMessageConsumer consumer = new SubscriberMessageConsumer(queue, consumerID, this);
+			SubscriberMessageConsumer consumer = new SubscriberMessageConsumer(consumerQueues.get(partitioned ? i : 0), consumerID, this, batchSize, batchLinger, batchRetries);
 			service.execute(consumer);
 		}
-		logger.debug(numThreads+" Consumer(s) for "+getId()+" initilaised and started.");
+		
+		// Messages persisted under another lane layout are routed again before any new message is accepted, so 
+		// the messages of each object stay in order.
+		moveMessages(staleQueues, consumerQueues);
+		if (partitioned)
+		{
+			lanes = consumerQueues;
+		}
+		else
+		{
+			queue = consumerQueues.get(0);
+		}
+		logger.debug(numThreads+" Consumer(s) for "+getId()+" initilaised and started"+((virtualThreads && VirtualThreads.isSupported()) ? " in virtual threads." : "."));
 	}
 
 
@@ -300,7 +424,7 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 	 */
 	protected final void pushSIFEventToProcessQueue(SIFDataObject sifObject, Zone zone, MappingInfo mappingInfo, EventAction eventAction)
 	{
-		queue.blockingPush(new SubscriberMessage(sifObject, zone, mappingInfo,  eventAction));
+		getQueue(sifObject).blockingPush(new SubscriberMessage(sifObject, zone, mappingInfo,  eventAction));
 	}
 
 	/**
@@ -338,7 +462,7 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 	 */
 	protected final void pushSIFObjectToProcessQueue(SIFDataObject sifObject, Zone zone, MappingInfo mappingInfo)
 	{
-		queue.blockingPush(new SubscriberMessage(sifObject, zone, mappingInfo));
+		getQueue(sifObject).blockingPush(new SubscriberMessage(sifObject, zone, mappingInfo));
 	}
 	/**
 	 * Default implementation of the SIFWorks ADK onQueryResults() method. Do not call this method from
@@ -408,6 +532,10 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 		{
 			service.shutdown();
 		}
+		for (SubscriberQueue<SubscriberMessage> subscriberQueue : getSubscriberQueues())
+		{
+			subscriberQueue.close();
+		}
 
 		// Call user defined finalise of the subscriber.
 		finalise();
@@ -436,6 +564,20 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 	{
 		this.queryResultsOptions = queryResultsOptions;
 	}  
+
+	/**
+	 * Returns the queues between this subscriber and its consumers, i.e. to monitor their size, spill and
+	 * watermarks. This is one queue shared by all consumers or, if the consumers are partitioned, one queue 
+	 * per consumer. Empty until the consumers have been started.
+	 */
+	public List<SubscriberQueue<SubscriberMessage>> getSubscriberQueues()
+	{
+		if (lanes != null)
+		{
+			return Collections.unmodifiableList(lanes);
+		}
+		return (queue == null) ? new ArrayList<SubscriberQueue<SubscriberMessage>>() : Collections.singletonList(queue);
+	}
   
 	/*---------------------------*/
 	/* A few Handy Debug methods */
@@ -483,6 +625,156 @@ public abstract class BaseSubscriber extends BaseInfo implements Subscriber, Que
 	/*-----------------*/
 	/* Private methods */
 	/*-----------------*/	
+	private SubscriberQueue<SubscriberMessage> createQueue(SubscriberQueueOptions options, String queueID)
+	{
+		if (options.isPersistent() || options.isSpill() || (options.getMaxBytes() > 0))
+		{
+			return new SubscriberQueue<SubscriberMessage>(options, queueID, getFrameworkProperties().getWorkDir(getAgentID()), new SubscriberMessageCodec(this));
+		}
+		return new SubscriberQueue<SubscriberMessage>(options.getCapacity(), queueID, getFrameworkProperties().getWorkDir(getAgentID()));
+	}
+
+	/*
+	 * Returns the queue the given SIF Object is pushed to. If the consumers are partitioned this is the lane
+	 * selected by the hash of the key of the SIF Object (see SCFObjectInfo.getKey()), so all messages for the 
+	 * same object are processed by the same consumer in the order they have been received. SIF Objects 
+	 * without a key are distributed round robin.
+	 */
+	private SubscriberQueue<SubscriberMessage> getQueue(SIFDataObject sifObject)
+	{
+		return (lanes == null) ? queue : getLane(lanes, sifObject);
+	}
+
+	private SubscriberQueue<SubscriberMessage> getLane(List<SubscriberQueue<SubscriberMessage>> queues, SIFDataObject sifObject)
+	{
+		if (queues.size() == 1)
+		{
+			return queues.get(0);
+		}
+		String key = (sifObject == null) ? null : objectInfo.getKey(sifObject);
+		int hash = (key == null) ? nextLane.getAndIncrement() : key.hashCode();
+		return queues.get((hash & Integer.MAX_VALUE) % queues.size());
+	}
+
+	/*
+	 * The lane of a message depends on the number of lanes. The number of lanes is therefore stored with the
+	 * persistent queues of this subscriber. If it differs from the given number of lanes (or hasn't been stored
+	 * yet) then all queue directories of this subscriber are renamed to '<name>.moved' and opened as stale
+	 * queues, so their messages can be routed to the lanes of the current layout (see moveMessages()). Stale
+	 * queues left over by a restart while their messages were moved are opened again. An ExecutionException is 
+	 * thrown if a queue directory can't be renamed, since the consumers would then receive the messages of an 
+	 * object out of order.
+	 */
+	private List<SubscriberQueue<SubscriberMessage>> openStaleQueues(SubscriberQueueOptions options, int numLanes) throws ExecutionException
+	{
+		String workDir = getFrameworkProperties().getWorkDir(getAgentID());
+		File queueDir = SubscriberQueue.getPersistenceDir(getId()+"Queue", workDir);
+		File layoutFile = new File(queueDir.getPath()+".lanes");
+		Pattern queueName = Pattern.compile(Pattern.quote(queueDir.getName())+"\\d*");
+		try
+		{
+			Properties layout = new Properties();
+			if (layoutFile.exists())
+			{
+				FileInputStream in = new FileInputStream(layoutFile);
+				try
+				{
+					layout.load(in);
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			if (!String.valueOf(numLanes).equals(layout.getProperty("lanes")))
+			{
+				File[] dirs = queueDir.getParentFile().listFiles();
+				for (File dir : (dirs == null) ? new File[0] : dirs)
+				{
+					if (dir.isDirectory() && queueName.matcher(dir.getName()).matches())
+					{
+						File moved = new File(dir.getPath()+".moved");
+						if (moved.exists() || !dir.renameTo(moved))
+						{
+							throw new ExecutionException("Cannot move "+dir.getPath()+" to "+moved.getPath()+". Restore consumer.numThreads and consumer.partitioned of "+getId()+" until all messages are processed.", null);
+						}
+					}
+				}
+				layoutFile.getParentFile().mkdirs();
+				layout.setProperty("lanes", String.valueOf(numLanes));
+				FileOutputStream out = new FileOutputStream(layoutFile);
+				try
+				{
+					layout.store(out, "Number of consumer lanes of the persistent queues of "+getId());
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		}
+		catch (ExecutionException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			throw new ExecutionException("Failed to check the queue layout of "+getId()+" in "+layoutFile.getPath()+": "+ex.getMessage(), ex);
+		}
+
+		List<SubscriberQueue<SubscriberMessage>> staleQueues = new ArrayList<SubscriberQueue<SubscriberMessage>>();
+		File[] dirs = queueDir.getParentFile().listFiles();
+		if (dirs != null)
+		{
+			Arrays.sort(dirs);
+			for (File dir : dirs)
+			{
+				if (dir.isDirectory() && dir.getName().endsWith(".moved") && queueName.matcher(dir.getName().substring(0, dir.getName().length()-6)).matches())
+				{
+					SubscriberQueueOptions staleOptions = new SubscriberQueueOptions(options.getCapacity());
+					staleOptions.setPersistent(true);
+					staleOptions.setSegmentSize(options.getSegmentSize());
+					staleQueues.add(createQueue(staleOptions, dir.getName()));
+				}
+			}
+		}
+		return staleQueues;
+	}
+
+	/*
+	 * Moves the messages of the given stale queues to the lane of the current layout selected by their object 
+	 * key and removes the stale queues. A message is only acknowledged in the stale queue once it is stored in 
+	 * its new lane, so it may be processed twice if the agent goes down while the messages are moved.
+	 */
+	private void moveMessages(List<SubscriberQueue<SubscriberMessage>> staleQueues, List<SubscriberQueue<SubscriberMessage>> consumerQueues)
+	{
+		String workDir = getFrameworkProperties().getWorkDir(getAgentID());
+		for (SubscriberQueue<SubscriberMessage> staleQueue : staleQueues)
+		{
+			int count = 0;
+			SubscriberMessage message = staleQueue.pull(0, TimeUnit.MILLISECONDS);
+			while (message != null)
+			{
+				getLane(consumerQueues, message.getSIFObject()).blockingPush(message);
+				staleQueue.acknowledge(message);
+				count++;
+				message = staleQueue.pull(0, TimeUnit.MILLISECONDS);
+			}
+			staleQueue.close();
+			File dir = SubscriberQueue.getPersistenceDir(staleQueue.getQueueID(), workDir);
+			File[] files = dir.listFiles();
+			for (File file : (files == null) ? new File[0] : files)
+			{
+				file.delete();
+			}
+			if (!dir.delete())
+			{
+				logger.error("Failed to remove "+dir.getPath()+". It is opened again at the next start of "+getId()+".");
+			}
+			logger.info("Moved "+count+" message(s) of "+dir.getPath()+" to the current queues of "+getId()+".");
+		}
+	}
+
 	/*
 	 * This method retrieves the Inbound mapping for a given Message.
 	 */
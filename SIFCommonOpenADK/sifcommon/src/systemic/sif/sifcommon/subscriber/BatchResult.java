@@ -0,0 +1,105 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.subscriber;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import systemic.sif.sifcommon.model.SubscriberMessage;
+
+
+/**
+ * This class collects the elements of a batch that a subscriber has failed to process (see
+ * BaseSubscriber.processEvents() and BaseSubscriber.processResponses()). All elements of the batch that are
+ * not reported as failed are considered processed. Only the failed elements are retried.
+ *
+ * @author Joerg Huber
+ */
+public class BatchResult
+{
+	private List<SubscriberMessage> batch;
+	private Map<SubscriberMessage, Exception> failures = new IdentityHashMap<SubscriberMessage, Exception>();
+
+	/**
+	 * Creates the result for the given batch.
+	 */
+	public BatchResult(List<SubscriberMessage> batch)
+	{
+		this.batch = batch;
+	}
+
+	/**
+	 * Reports that the given element of the batch has not been processed.
+	 *
+	 * @param message The element of the batch.
+	 * @param ex The reason of the failure. Can be null.
+	 */
+	public void failed(SubscriberMessage message, Exception ex)
+	{
+		failures.put(message, ex);
+	}
+
+	/**
+	 * Reports that all elements of the batch that haven't been reported as failed yet have not been processed,
+	 * i.e. because the commit of the batch has failed.
+	 *
+	 * @param ex The reason of the failure. Can be null.
+	 */
+	public void failedAll(Exception ex)
+	{
+		for (SubscriberMessage message : batch)
+		{
+			if (!failures.containsKey(message))
+			{
+				failures.put(message, ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns TRUE if at least one element of the batch has failed.
+	 */
+	public boolean hasFailures()
+	{
+		return !failures.isEmpty();
+	}
+
+	/**
+	 * Returns the elements of the batch that have failed, in the order of the batch.
+	 */
+	public List<SubscriberMessage> getFailedMessages()
+	{
+		List<SubscriberMessage> failed = new ArrayList<SubscriberMessage>();
+		for (SubscriberMessage message : batch)
+		{
+			if (failures.containsKey(message))
+			{
+				failed.add(message);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Returns the reason why the given element has failed or null if it has not failed or no reason has been
+	 * given.
+	 */
+	public Exception getFailure(SubscriberMessage message)
+	{
+		return failures.get(message);
+	}
+}
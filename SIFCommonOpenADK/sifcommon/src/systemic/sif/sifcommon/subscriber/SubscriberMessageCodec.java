@@ -0,0 +1,239 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.subscriber;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+
+import openadk.library.ADK;
+import openadk.library.EventAction;
+import openadk.library.SIFDataObject;
+import openadk.library.SIFMessageInfo;
+import openadk.library.SIFParser;
+import openadk.library.SIFVersion;
+import openadk.library.Zone;
+import openadk.library.infra.SIF_Header;
+import openadk.library.tools.mapping.MappingsContext;
+
+import org.apache.log4j.Logger;
+
+import systemic.sif.sifcommon.mapping.MappingInfo;
+import systemic.sif.sifcommon.model.SubscriberMessage;
+import systemic.sif.sifcommon.subscriber.queue.MessageCodec;
+
+
+/**
+ * This class converts the SubscriberMessages of a subscriber to bytes for its persistent or spilling
+ * SubscriberQueue. The SIF Object is stored as XML. The zone is stored by its ID and the message info by the
+ * fields of its SIF_Header, its SIF Version, its payload type, the SIF_RequestMsgId and SIF_PacketNumber of a
+ * SIF_Response and the service attributes. When
+ * a message is decoded the zone is looked up in the zones of the subscriber, the message info is restored 
+ * with that zone and the inbound mapping is selected again. The raw message (getMessage()) and the request 
+ * information of a SIF_Response (getSIFRequestInfo()) are not restored.
+ *
+ * @author Joerg Huber
+ */
+class SubscriberMessageCodec implements MessageCodec<SubscriberMessage>
+{
+	protected Logger logger = ADK.getLog();
+
+	/* The message info can't list its attributes, so only these are stored. */
+	private static final String[] ATTRIBUTES = {"SIF_RequestMsgId", "SIF_ServiceMsgId", "SIF_ServiceName", "SIF_ServiceMethod"};
+
+	private BaseSubscriber subscriber;
+
+	SubscriberMessageCodec(BaseSubscriber subscriber)
+	{
+		this.subscriber = subscriber;
+	}
+
+	/**
+	 * @see systemic.sif.sifcommon.subscriber.queue.MessageCodec#encode(systemic.sif.sifcommon.model.BaseMessage)
+	 */
+	//@Override
+	public byte[] encode(SubscriberMessage message) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeUTF(nvl(message.getMessageGUID()));
+		data.writeLong((message.getCreationDate() == null) ? 0 : message.getCreationDate().getTime());
+		data.writeInt(message.getNumRetries());
+		data.writeBoolean(message.isEvent());
+		data.writeUTF((message.getEventAction() == null) ? "" : message.getEventAction().name());
+		data.writeUTF((message.getZone() == null) ? "" : message.getZone().getZoneId());
+
+		SIFMessageInfo msgInfo = (message.getMappingInfo() == null) ? null : message.getMappingInfo().getSifMsgInfo();
+		SIF_Header header = (msgInfo == null) ? null : msgInfo.getSIFHeader();
+		data.writeBoolean(header != null);
+		if (header != null)
+		{
+			data.writeUTF(nvl(header.getSIF_MsgId()));
+			data.writeLong((header.getSIF_Timestamp() == null) ? 0 : header.getSIF_Timestamp().getTimeInMillis());
+			data.writeUTF(nvl(header.getSIF_SourceId()));
+			data.writeUTF(nvl(header.getSIF_DestinationId()));
+		}
+		data.writeUTF(((msgInfo == null) || (msgInfo.getSIFVersion() == null)) ? "" : msgInfo.getSIFVersion().toString());
+		data.writeByte((msgInfo == null) ? 0 : msgInfo.getPayloadType());
+		for (String attribute : ATTRIBUTES)
+		{
+			String value = (msgInfo == null) ? null : msgInfo.getAttribute(attribute);
+			data.writeBoolean(value != null);
+			if (value != null)
+			{
+				data.writeUTF(value);
+			}
+		}
+		data.writeInt(((msgInfo == null) || (msgInfo.getPacketNumber() == null)) ? 0 : msgInfo.getPacketNumber().intValue());
+
+		byte[] xml = (message.getSIFObject() == null) ? new byte[0] : message.getSIFObject().toXML().getBytes("UTF-8");
+		data.writeInt(xml.length);
+		data.write(xml);
+		data.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @see systemic.sif.sifcommon.subscriber.queue.MessageCodec#decode(byte[])
+	 */
+	//@Override
+	public SubscriberMessage decode(byte[] bytes) throws IOException
+	{
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+		SubscriberMessage message = new SubscriberMessage();
+		message.setMessageGUID(emptyToNull(data.readUTF()));
+		message.setCreationDate(new Date(data.readLong()));
+		message.setNumRetries(data.readInt());
+		message.setEvent(data.readBoolean());
+		String eventAction = data.readUTF();
+		message.setEventAction((eventAction.length() == 0) ? null : EventAction.valueOf(eventAction));
+		String zoneID = data.readUTF();
+		Zone zone = (zoneID.length() == 0) ? null : subscriber.getZoneByID(zoneID);
+		if ((zone == null) && (zoneID.length() > 0))
+		{
+			throw new IOException("Zone "+zoneID+" is not a zone of subscriber "+subscriber.getId()+".");
+		}
+		message.setZone(zone);
+
+		SIF_Header header = null;
+		if (data.readBoolean())
+		{
+			header = new SIF_Header();
+			header.setSIF_MsgId(emptyToNull(data.readUTF()));
+			long timestamp = data.readLong();
+			if (timestamp > 0)
+			{
+				Calendar calendar = Calendar.getInstance();
+				calendar.setTimeInMillis(timestamp);
+				header.setSIF_Timestamp(calendar);
+			}
+			header.setSIF_SourceId(emptyToNull(data.readUTF()));
+			header.setSIF_DestinationId(emptyToNull(data.readUTF()));
+		}
+		String version = data.readUTF();
+		SIFVersion sifVersion = (version.length() == 0) ? null : SIFVersion.parse(version);
+		SIFMessageInfo msgInfo = new DecodedMessageInfo(zone, header, sifVersion, data.readByte());
+		for (String attribute : ATTRIBUTES)
+		{
+			if (data.readBoolean())
+			{
+				msgInfo.setAttribute(attribute, data.readUTF());
+			}
+		}
+		int packetNumber = data.readInt();
+		if (packetNumber > 0)
+		{
+			msgInfo.getObjects().put("SIF_PacketNumber", Integer.valueOf(packetNumber));
+		}
+		MappingInfo mappingInfo = new MappingInfo(msgInfo);
+		mappingInfo.setMappingCtx(getMappingCtx(sifVersion, zoneID, (header == null) ? null : header.getSIF_SourceId()));
+		message.setMappingInfo(mappingInfo);
+
+		byte[] xml = new byte[data.readInt()];
+		data.readFully(xml);
+		if (xml.length > 0)
+		{
+			try
+			{
+				message.setSIFObject((SIFDataObject)SIFParser.newInstance().parse(new String(xml, "UTF-8")));
+			}
+			catch (Exception ex)
+			{
+				throw new IOException("Failed to parse SIF Object: "+ex.getMessage());
+			}
+		}
+		return message;
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Selects the inbound mapping the same way as BaseSubscriber does for a new message.
+	 */
+	private MappingsContext getMappingCtx(SIFVersion version, String zoneID, String sourceID)
+	{
+		if ((subscriber.getMappings() == null) || (version == null))
+		{
+			return null;
+		}
+		try
+		{
+			MappingsContext mappingCtx = subscriber.getMappings().selectInbound(subscriber.getDtd(), version, zoneID, sourceID);
+			if ((mappingCtx != null) && ((mappingCtx.getFieldMappings() == null) || (mappingCtx.getFieldMappings().size() == 0)))
+			{
+				mappingCtx = null;
+			}
+			return mappingCtx;
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed retrieving mapping for subscriber "+subscriber.getId()+": "+ex.getMessage(), ex);
+			return null;
+		}
+	}
+
+	private String nvl(String value)
+	{
+		return (value == null) ? "" : value;
+	}
+
+	private String emptyToNull(String value)
+	{
+		return (value.length() == 0) ? null : value;
+	}
+
+	/*
+	 * The message info of a decoded message. The ADK only sets the zone, SIF Version and payload type of a 
+	 * message info when it parses a message.
+	 */
+	private static class DecodedMessageInfo extends SIFMessageInfo
+	{
+		DecodedMessageInfo(Zone zone, SIF_Header header, SIFVersion version, byte payload)
+		{
+			fZone = zone;
+			fPayloadVersion = version;
+			fPayload = payload;
+			if (header != null)
+			{
+				setSIFHeader(header);
+			}
+		}
+	}
+}
@@ -14,6 +14,10 @@
 */
 package systemic.sif.sifcommon.subscriber;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import openadk.library.ADK;
 import openadk.library.SIFDataObject;
 
@@ -28,6 +32,12 @@ import systemic.sif.sifcommon.subscriber.queue.SubscriberQueue;
  * This class allows the subscriber to consume messages in a multi-threaded manner according to the
  * producer-consumer design pattern.<p>
  * 
+ * If a batch size greater than 1 is given then the consumer collects consecutive events (or responses) from
+ * its queue until the batch is full or the linger time since the first message of the batch has elapsed. The
+ * batch is then passed to the processEvents() (or processResponses()) method of the subscriber. Elements the
+ * subscriber reports as failed are passed again, without the elements that succeeded, up to the given number
+ * of retries. All messages of a batch are acknowledged once the batch is done.<p>
+ * 
  * @author Joerg Huber
  *
  */
@@ -38,6 +48,9 @@ public class SubscriberMessageConsumer implements Runnable
 	private SubscriberQueue<SubscriberMessage> queue;
 	private String consumerID;
 	private BaseSubscriber subscriber;
+	private int batchSize;
+	private long batchLingerNanos;
+	private int batchRetries;
 	
 	/**
 	 * This method initialises a Consumer for SubscriberMessages. The 'subscriber' parameter is required 
@@ -53,10 +66,35 @@ public class SubscriberMessageConsumer implements Runnable
 	 * @param subscriber The subscriber to which this consumer will be assigned to.
 	 */
 	public SubscriberMessageConsumer(SubscriberQueue<SubscriberMessage> queue, String consumerID, BaseSubscriber subscriber)
+	{
+		this(queue, consumerID, subscriber, 1, 0, 0);
+	}
+	
+	/**
+	 * This method initialises a Consumer for SubscriberMessages that passes messages in batches to the 
+	 * subscriber: processResponses() for response type of SubscriberMessages or processEvents() for event 
+	 * type of SubscriberMessages.<p>
+	 * 
+	 * @see systemic.sif.sifcommon.subscriber.BaseSubscriber#processEvents
+	 * @see systemic.sif.sifcommon.subscriber.BaseSubscriber#processResponses
+	 *  
+	 * @param queue The queue on which this consumer will listen on.
+	 * @param consumerID A name of the consumer. Mainly needed for nice debug and error reporting.
+	 * @param subscriber The subscriber to which this consumer will be assigned to.
+	 * @param batchSize The max number of messages in a batch. If 1 or less then messages are passed one by
+	 *                  one to processEvent() or processResponse().
+	 * @param batchLinger The max time in milliseconds to wait for further messages after the first message
+	 *                    of a batch.
+	 * @param batchRetries How often the failed elements of a batch are passed again to the subscriber.
+	 */
+	public SubscriberMessageConsumer(SubscriberQueue<SubscriberMessage> queue, String consumerID, BaseSubscriber subscriber, int batchSize, int batchLinger, int batchRetries)
 	{
 		this.queue = queue;
 		this.consumerID = consumerID;
 		this.subscriber = subscriber;
+		this.batchSize = batchSize;
+		this.batchLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, batchLinger));
+		this.batchRetries = Math.max(0, batchRetries);
 	}
 	
 	/**
@@ -80,37 +118,35 @@ public class SubscriberMessageConsumer implements Runnable
 	 */
 	private void consume()
 	{
+		if (batchSize > 1)
+		{
+			consumeBatches();
+			return;
+		}
 		while (true)
 		{
 			SubscriberMessage sifMsg = queue.blockingPull();				
 			if (sifMsg != null)
 			{
 				logger.debug(consumerID+" has receive a message from its SubscriberQueue.");
-				if (sifMsg.isEvent())
+				try
 				{
-					SIFEvent sifEvent = new SIFEvent(sifMsg.getSIFObject(), sifMsg.getEventAction());
-					try
+					if (sifMsg.isEvent())
 					{
-						subscriber.processEvent(sifEvent, sifMsg.getZone(), sifMsg.getMappingInfo(), consumerID);
-
+						subscriber.processEvent(new SIFEvent(sifMsg.getSIFObject(), sifMsg.getEventAction()), sifMsg.getZone(), sifMsg.getMappingInfo(), consumerID);
 					}
-					catch (Exception ex)
+					else
 					{
-						logger.error("Failed processing SIF Event for subscriber "+subscriber.getId()+": "+ex.getMessage()+"\nEvent Data:\n"+sifEvent, ex);				
+						subscriber.processResponse(sifMsg.getSIFObject(), sifMsg.getZone(),  sifMsg.getMappingInfo(), consumerID);
 					}
 				}
-				else
+				catch (Exception ex)
 				{
-					SIFDataObject sifObj = sifMsg.getSIFObject();
-					try
-					{
-						subscriber.processResponse(sifObj, sifMsg.getZone(),  sifMsg.getMappingInfo(), consumerID);
-					}
-					catch (Exception ex)
-					{
-						logger.error("Failed processing SIF Object for subscriber "+subscriber.getId()+": "+ex.getMessage()+"\nSIF Object Data:\n"+((sifObj == null) ? "null" : sifObj.toXML()), ex);				
-					}
+					logFailure(sifMsg, ex);
 				}
+				
+				// Processed or failure logged => don't recover it after a restart.
+				queue.acknowledge(sifMsg);
 			}
 			else
 			{
@@ -118,4 +154,112 @@ public class SubscriberMessageConsumer implements Runnable
 			}
 		}	
 	}
+
+	/*
+	 * Same as consume() but collects the messages to batches. A batch only holds events or only responses. A
+	 * message of the other type ends the batch and starts the next one.
+	 */
+	private void consumeBatches()
+	{
+		SubscriberMessage next = null;
+		while (true)
+		{
+			SubscriberMessage first = (next != null) ? next : queue.blockingPull();
+			next = null;
+			if (first == null)
+			{
+				logger.error(consumerID+" has encountered a problem receiving a message from its SubscriberQueue.");
+				continue;
+			}
+			
+			List<SubscriberMessage> batch = new ArrayList<SubscriberMessage>(batchSize);
+			batch.add(first);
+			long deadline = System.nanoTime() + batchLingerNanos;
+			while (batch.size() < batchSize)
+			{
+				SubscriberMessage sifMsg = queue.pull(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				if (sifMsg == null)
+				{
+					break; // linger time elapsed
+				}
+				if (sifMsg.isEvent() != first.isEvent())
+				{
+					next = sifMsg;
+					break;
+				}
+				batch.add(sifMsg);
+			}
+			logger.debug(consumerID+" has receive a batch of "+batch.size()+" message(s) from its SubscriberQueue.");
+			processBatch(batch);
+			
+			// Processed or failures logged => don't recover them after a restart.
+			for (SubscriberMessage sifMsg : batch)
+			{
+				queue.acknowledge(sifMsg);
+			}
+		}
+	}
+
+	/*
+	 * Passes the batch to the subscriber. The failed elements are passed again until they succeed or the
+	 * retries are exhausted. The elements that still fail are logged.
+	 */
+	private void processBatch(List<SubscriberMessage> batch)
+	{
+		List<SubscriberMessage> elements = batch;
+		for (int attempt = 0; true; attempt++)
+		{
+			BatchResult result = new BatchResult(elements);
+			try
+			{
+				if (elements.get(0).isEvent())
+				{
+					subscriber.processEvents(elements, consumerID, result);
+				}
+				else
+				{
+					subscriber.processResponses(elements, consumerID, result);
+				}
+			}
+			catch (Exception ex)
+			{
+				result.failedAll(ex);
+			}
+			if (!result.hasFailures())
+			{
+				return;
+			}
+			
+			List<SubscriberMessage> failed = result.getFailedMessages();
+			if (attempt >= batchRetries)
+			{
+				for (SubscriberMessage sifMsg : failed)
+				{
+					logFailure(sifMsg, result.getFailure(sifMsg));
+				}
+				return;
+			}
+			logger.info(failed.size()+" of "+elements.size()+" message(s) of the batch failed in "+consumerID+" for subscriber "+subscriber.getId()+". Retry "+(attempt+1)+" of "+batchRetries+".");
+			for (SubscriberMessage sifMsg : failed)
+			{
+				sifMsg.setNumRetries(sifMsg.getNumRetries()+1);
+			}
+			elements = failed;
+		}
+	}
+
+	private void logFailure(SubscriberMessage sifMsg, Exception ex)
+	{
+		String reason = (ex == null) ? "Reported as failed by subscriber" : ex.getMessage();
+		if (sifMsg.isEvent())
+		{
+			SIFEvent sifEvent = new SIFEvent(sifMsg.getSIFObject(), sifMsg.getEventAction());
+			logger.error("Failed processing SIF Event for subscriber "+subscriber.getId()+": "+reason+"\nEvent Data:\n"+sifEvent, ex);
+		}
+		else
+		{
+			SIFDataObject sifObj = sifMsg.getSIFObject();
+			logger.error("Failed processing SIF Object for subscriber "+subscriber.getId()+": "+reason+"\nSIF Object Data:\n"+((sifObj == null) ? "null" : sifObj.toXML()), ex);
+		}
+	}
 }
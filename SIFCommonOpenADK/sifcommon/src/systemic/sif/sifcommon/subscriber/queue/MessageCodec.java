@@ -0,0 +1,53 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.subscriber.queue;
+
+import java.io.IOException;
+
+import systemic.sif.sifcommon.model.BaseMessage;
+
+
+/**
+ * A persistent SubscriberQueue needs to convert its messages to bytes and back. Messages usually refer to
+ * objects that cannot be serialised with standard Java serialisation (i.e. the Zone), so the codec must store
+ * enough information to rebuild these objects after the agent has been restarted.
+ *
+ * @author Joerg Huber
+ */
+public interface MessageCodec<T extends BaseMessage>
+{
+	/**
+	 * This method converts the given message to bytes.
+	 *
+	 * @param message The message to convert. Not null.
+	 *
+	 * @return The bytes that decode() can rebuild the message from.
+	 *
+	 * @throws IOException The message cannot be converted.
+	 */
+	public byte[] encode(T message) throws IOException;
+
+	/**
+	 * This method rebuilds a message from bytes returned by encode(). It is called when the queue recovers
+	 * its messages after a restart.
+	 *
+	 * @param data The bytes returned by encode().
+	 *
+	 * @return The message.
+	 *
+	 * @throws IOException The message cannot be rebuilt. The message is discarded.
+	 */
+	public T decode(byte[] data) throws IOException;
+}
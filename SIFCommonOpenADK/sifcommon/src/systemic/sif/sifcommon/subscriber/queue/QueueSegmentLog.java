@@ -0,0 +1,435 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.subscriber.queue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import openadk.library.ADK;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class holds the messages of a persistent SubscriberQueue in append-only segment files. Each segment
+ * is a file of 'segmentSize' bytes that is memory-mapped while messages are appended to it. Writing a message
+ * is therefore a copy into the page cache and doesn't wait for the disk. The messages survive a crash of the
+ * agent but not necessarily a crash of the operating system.<p>
+ *
+ * A segment holds two types of records: a message with its sequence number and an acknowledgement of an
+ * earlier message. The type of a record is written last, so a record that has not been written completely
+ * is ignored when the log is recovered. Segments are deleted from the head of the log once all their messages
+ * have been acknowledged.<p>
+ *
+ * The methods of this class are guarded by a ReentrantLock rather than synchronized, so consumers that
+ * acknowledge messages from virtual threads don't pin their carrier thread while they wait for the lock.
+ *
+ * @author Joerg Huber
+ */
+class QueueSegmentLog
+{
+	private static final int END = 0;
+	private static final int MESSAGE = 1;
+	private static final int ACK = 2;
+	private static final int HEADER_SIZE = 16; // type, length, sequence number
+	private static final String SEGMENT_EXTENSION = ".seg";
+
+	protected Logger logger = ADK.getLog();
+
+	private File dir;
+	private int segmentSize;
+	private boolean closed = false;
+	private long nextSequence = 1;
+	private ReentrantLock lock = new ReentrantLock();
+
+	/* Segments in the order they have been written. The last one is the one that is appended to. */
+	private List<Segment> segments = new ArrayList<Segment>();
+
+	/* The segment of each message that has not been acknowledged. */
+	private Map<Long, Segment> unacknowledged = new HashMap<Long, Segment>();
+
+	/*
+	 * A segment file. Only the segment that is appended to is mapped.
+	 */
+	private static class Segment
+	{
+		private long id;
+		private File file;
+		private int outstanding = 0;
+		private MappedByteBuffer buffer = null;
+		private boolean deleteFailed = false;
+
+		Segment(long id, File file)
+		{
+			this.id = id;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Creates the log. The existing segments are only read by recover().
+	 *
+	 * @param dir The directory that holds the segments of this log.
+	 * @param segmentSize The size of a segment in bytes. A message that is larger gets a segment of its own.
+	 */
+	QueueSegmentLog(File dir, int segmentSize)
+	{
+		this.dir = dir;
+		this.segmentSize = Math.max(4096, segmentSize);
+	}
+
+	/**
+	 * Reads the existing segments and returns the messages that have not been acknowledged, in the order they
+	 * have been appended, with their sequence numbers. Segments that hold no such message are deleted. New
+	 * messages are appended to a new segment.
+	 *
+	 * @throws IOException The directory cannot be created or a segment cannot be read.
+	 */
+	LinkedHashMap<Long, byte[]> recover() throws IOException
+	{
+		lock.lock();
+		try
+		{
+			LinkedHashMap<Long, byte[]> messages = new LinkedHashMap<Long, byte[]>();
+			if (!dir.isDirectory() && !dir.mkdirs())
+			{
+				throw new IOException("Cannot create directory "+dir.getPath());
+			}
+			for (Long id : listSegments())
+			{
+				Segment segment = new Segment(id.longValue(), getSegmentFile(id.longValue()));
+				segments.add(segment);
+				readSegment(segment, messages);
+			}
+			openSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1).id + 1, segmentSize);
+			removeAcknowledgedSegments();
+			return messages;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the given message and returns its sequence number.
+	 *
+	 * @throws IOException The log is closed or a new segment cannot be created.
+	 */
+	long append(byte[] message) throws IOException
+	{
+		lock.lock();
+		try
+		{
+			if (closed)
+			{
+				throw new IOException("Queue log "+dir.getPath()+" is closed.");
+			}
+			long sequence = nextSequence++;
+			Segment segment = write(MESSAGE, sequence, message);
+			segment.outstanding++;
+			unacknowledged.put(Long.valueOf(sequence), segment);
+			return sequence;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records that the message with the given sequence number has been processed. Deletes the segments at the
+	 * head of the log that have no outstanding messages anymore.
+	 *
+	 * @throws IOException A new segment cannot be created.
+	 */
+	void acknowledge(long sequence) throws IOException
+	{
+		lock.lock();
+		try
+		{
+			if (closed)
+			{
+				return;
+			}
+			Segment segment = unacknowledged.remove(Long.valueOf(sequence));
+			if (segment != null)
+			{
+				write(ACK, sequence, null);
+				segment.outstanding--;
+				removeAcknowledgedSegments();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages that have not been acknowledged.
+	 */
+	int getOutstanding()
+	{
+		lock.lock();
+		try
+		{
+			return unacknowledged.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the segment that is appended to to disk and closes this log.
+	 */
+	void close()
+	{
+		lock.lock();
+		try
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			Segment active = getActiveSegment();
+			if ((active != null) && (active.buffer != null))
+			{
+				active.buffer.force();
+				unmap(active);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private Segment getActiveSegment()
+	{
+		return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+	}
+
+	/*
+	 * Writes a record to the segment that is appended to and returns that segment. Starts a new segment if the
+	 * record doesn't fit.
+	 */
+	private Segment write(int type, long sequence, byte[] message) throws IOException
+	{
+		int length = (message == null) ? 0 : message.length;
+		Segment segment = getActiveSegment();
+		if ((segment == null) || (segment.buffer == null) || (segment.buffer.remaining() < HEADER_SIZE + length + 4))
+		{
+			segment = openSegment((segment == null) ? 1 : segment.id + 1, Math.max(segmentSize, HEADER_SIZE + length + 4));
+		}
+		MappedByteBuffer buffer = segment.buffer;
+		int start = buffer.position();
+		buffer.position(start + 4);
+		buffer.putInt(length);
+		buffer.putLong(sequence);
+		if (message != null)
+		{
+			buffer.put(message);
+		}
+		buffer.putInt(start, type); // commits the record
+		return segment;
+	}
+
+	/*
+	 * Creates a new segment of the given size and maps it. The previous segment is unmapped.
+	 */
+	private Segment openSegment(long id, int size) throws IOException
+	{
+		Segment previous = getActiveSegment();
+		if ((previous != null) && (previous.buffer != null))
+		{
+			unmap(previous);
+		}
+		Segment segment = new Segment(id, getSegmentFile(id));
+		RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+		try
+		{
+			file.setLength(size);
+			segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		finally
+		{
+			file.close(); // the mapping remains valid
+		}
+		segments.add(segment);
+		removeAcknowledgedSegments();
+		return segment;
+	}
+
+	/*
+	 * Reads the records of the given segment. Messages are added to the given map and acknowledged messages
+	 * are removed from it.
+	 */
+	private void readSegment(Segment segment, Map<Long, byte[]> messages) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+		MappedByteBuffer buffer = null;
+		try
+		{
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		}
+		finally
+		{
+			file.close();
+		}
+		while (buffer.remaining() >= HEADER_SIZE)
+		{
+			int type = buffer.getInt();
+			int length = buffer.getInt();
+			long sequence = buffer.getLong();
+			if ((type == END) || (length < 0) || (length > buffer.remaining()))
+			{
+				break;
+			}
+			Long key = Long.valueOf(sequence);
+			nextSequence = Math.max(nextSequence, sequence + 1);
+			if (type == MESSAGE)
+			{
+				byte[] message = new byte[length];
+				buffer.get(message);
+				messages.put(key, message);
+				unacknowledged.put(key, segment);
+				segment.outstanding++;
+			}
+			else if (type == ACK)
+			{
+				buffer.position(buffer.position() + length);
+				messages.remove(key);
+				Segment messageSegment = unacknowledged.remove(key);
+				if (messageSegment != null)
+				{
+					messageSegment.outstanding--;
+				}
+			}
+			else
+			{
+				logger.error("Unknown record type "+type+" in queue segment "+segment.file.getPath()+". Rest of segment ignored.");
+				break;
+			}
+		}
+		segment.buffer = buffer;
+		unmap(segment);
+	}
+
+	/*
+	 * Deletes the segments at the head of the log that have no outstanding messages. Acknowledgements in a
+	 * segment can refer to messages in earlier segments, so a segment is only deleted once all earlier segments
+	 * have been deleted. If a segment cannot be deleted (i.e. because its mapping has not been released yet on
+	 * a JVM before Java 9) it stays at the head and the deletion is tried again with the next call. The segment
+	 * that is appended to is never deleted, and only segments that are not mapped anymore are deleted.
+	 */
+	private void removeAcknowledgedSegments()
+	{
+		while ((segments.size() > 1) && (segments.get(0).outstanding <= 0))
+		{
+			Segment segment = segments.get(0);
+			if (segment.buffer != null)
+			{
+				unmap(segment);
+			}
+			if (segment.file.exists() && !segment.file.delete())
+			{
+				if (!segment.deleteFailed)
+				{
+					segment.deleteFailed = true;
+					logger.error("Failed to delete queue segment "+segment.file.getPath()+". Will try again later.");
+				}
+				return;
+			}
+			segments.remove(0);
+		}
+	}
+
+	private List<Long> listSegments()
+	{
+		List<Long> ids = new ArrayList<Long>();
+		String[] names = dir.list(new FilenameFilter()
+		{
+			//@Override
+			public boolean accept(File directory, String name)
+			{
+				return name.endsWith(SEGMENT_EXTENSION);
+			}
+		});
+		if (names != null)
+		{
+			for (String name : names)
+			{
+				try
+				{
+					ids.add(Long.valueOf(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+				}
+				catch (NumberFormatException ex)
+				{
+					logger.error("Ignore unexpected file "+name+" in queue directory "+dir.getPath());
+				}
+			}
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	private File getSegmentFile(long id)
+	{
+		return new File(dir, id+SEGMENT_EXTENSION);
+	}
+
+	/*
+	 * Releases the mapping of a segment right away, so the file can be deleted on all platforms. This is only
+	 * possible from Java 9 on. Before that the mapping is released when the buffer is garbage collected.
+	 */
+	private void unmap(Segment segment)
+	{
+		MappedByteBuffer buffer = segment.buffer;
+		segment.buffer = null;
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(unsafeField.get(null), buffer);
+		}
+		catch (Exception ex)
+		{
+			// Not supported by this JVM.
+		}
+	}
+}
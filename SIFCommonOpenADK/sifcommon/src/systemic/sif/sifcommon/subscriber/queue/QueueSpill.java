@@ -0,0 +1,202 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.subscriber.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+
+import openadk.library.ADK;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class holds the messages a full SubscriberQueue cannot hold in memory in temporary files. Messages are
+ * read back in the order they have been written. The files are written and read sequentially in segments of
+ * about 'segmentSize' bytes. A segment is deleted once it has been read completely.<p>
+ *
+ * The spill doesn't survive a restart. All files in its directory are deleted when it is created. Messages of a
+ * persistent queue are recovered from the segments of the QueueSegmentLog instead.<p>
+ *
+ * This class is not thread safe. The SubscriberQueue accesses it while holding its lock.
+ *
+ * @author Joerg Huber
+ */
+class QueueSpill
+{
+	protected Logger logger = ADK.getLog();
+
+	private File dir;
+	private int segmentSize;
+	private int size = 0;
+
+	/* Segments that have not been read completely. The last one is written to. */
+	private LinkedList<File> segments = new LinkedList<File>();
+	private long nextSegment = 1;
+	private DataOutputStream out = null;
+	private long written = 0;
+	private DataInputStream in = null;
+
+	/*
+	 * A spilled message.
+	 */
+	static class Record
+	{
+		long sequence;
+		byte[] data;
+
+		Record(long sequence, byte[] data)
+		{
+			this.sequence = sequence;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Creates an empty spill in the given directory.
+	 */
+	QueueSpill(File dir, int segmentSize)
+	{
+		this.dir = dir;
+		this.segmentSize = Math.max(4096, segmentSize);
+		File[] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of messages in the spill.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Appends a message.
+	 *
+	 * @param sequence The sequence number of the message in the QueueSegmentLog or 0 if it is not persisted.
+	 * @param data The encoded message.
+	 */
+	void append(long sequence, byte[] data) throws IOException
+	{
+		if ((out == null) || (written >= segmentSize))
+		{
+			closeOutput();
+			if (!dir.isDirectory() && !dir.mkdirs())
+			{
+				throw new IOException("Cannot create directory "+dir.getPath());
+			}
+			File segment = new File(dir, (nextSegment++)+".spill");
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment), 65536));
+			segments.add(segment);
+			written = 0;
+		}
+		out.writeLong(sequence);
+		out.writeInt(data.length);
+		out.write(data);
+		written += 12 + data.length;
+		size++;
+	}
+
+	/**
+	 * Removes and returns the oldest message or returns null if the spill is empty.
+	 */
+	Record poll() throws IOException
+	{
+		if (size == 0)
+		{
+			return null;
+		}
+		if ((segments.size() == 1) && (out != null))
+		{
+			out.flush(); // reading the segment that is written to
+		}
+		if (in == null)
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(segments.getFirst()), 65536));
+		}
+		long sequence = in.readLong();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		size--;
+		if ((in.available() == 0) && ((segments.size() > 1) || (size == 0)))
+		{
+			// Segment read completely
+			in.close();
+			in = null;
+			if (segments.size() == 1)
+			{
+				closeOutput();
+			}
+			File segment = segments.removeFirst();
+			if (!segment.delete())
+			{
+				logger.error("Failed to delete spill file "+segment.getPath());
+			}
+		}
+		return new Record(sequence, data);
+	}
+
+	/**
+	 * Closes and deletes all files of this spill.
+	 */
+	void close()
+	{
+		try
+		{
+			if (in != null)
+			{
+				in.close();
+				in = null;
+			}
+			closeOutput();
+		}
+		catch (IOException ex)
+		{
+			logger.error("Failed to close spill "+dir.getPath()+": "+ex.getMessage(), ex);
+		}
+		for (File segment : segments)
+		{
+			segment.delete();
+		}
+		segments.clear();
+		size = 0;
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private void closeOutput() throws IOException
+	{
+		if (out != null)
+		{
+			out.close();
+			out = null;
+		}
+	}
+}
@@ -1,21 +1,27 @@
 /*
 * Copyright 2010-2011 Systemic Pty Ltd
-* 
+*
 * Licensed under the Apache License, Version 2.0 (the "License");
 * you may not use this file except in compliance with the License.
 * You may obtain a copy of the License at
 *
 *    http://www.apache.org/licenses/LICENSE-2.0
-* 
-* Unless required by applicable law or agreed to in writing, software distributed under the License 
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
 * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
 * or implied.
 * See the License for the specific language governing permissions and limitations under the License.
 */
 package systemic.sif.sifcommon.subscriber.queue;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.io.File;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import openadk.library.ADK;
 
@@ -26,37 +32,87 @@ import au.com.systemic.framework.utils.StringUtils;
 
 
 /**
- * This class encapsulates a standard BlockingQueue from the java.util.concurrent package. It only gives
- * access to the blocking put() and take() method. This is the desired behaviour for agents that allow
- * for multi-threaded subscribers that must follow the producer-consumer design pattern. A further
- * advantage of encapsulating the lower level blocking queue is that further functionality can be
- * provided to this SubscriberQueue queue such a 'persistence', notification etc. without the need of
- * changes in the classes that use this SubscriberQueue class.<p>
- * 
- * <b>Note:</b><br />
- * At this point in time the persistence functionality is not yet implemented. This might be a future 
- * feature. This means if the system should go down, the messages currently held in the queue are lost. 
- * One needs to carefully analyse what capacity of the subscriber queue shall be as this is the maximum 
- * number of lost messages in case of a system failure.<p>
- * 
+ * This class implements a blocking queue. It only gives access to a blocking push and pull method. This is
+ * the desired behaviour for agents that allow for multi-threaded subscribers that must follow the
+ * producer-consumer design pattern. A further advantage of encapsulating the lower level queue is that
+ * further functionality can be provided to this SubscriberQueue queue such a 'persistence', notification etc.
+ * without the need of changes in the classes that use this SubscriberQueue class.<p>
+ *
+ * <b>Capacity and Spill:</b><br />
+ * The queue holds at most 'capacity' messages and, if a byte budget is set, at most 'maxBytes' bytes of
+ * encoded messages in memory (high watermark). If the queue is full then blockingPush() blocks until a
+ * consumer has pulled a message, unless spill is enabled. In that case new messages are written to spill
+ * files in the directory 'workingDir/spill/queueID' (see QueueSpill). Once the messages in memory have fallen
+ * to the low watermark the spilled messages are read back. While there are spilled messages all new messages
+ * are spilled as well, so the order of the messages is preserved (see SubscriberQueueOptions).<p>
+ *
+ * <b>Persistence:</b><br />
+ * If the queue is persistent then each message is also appended to segment files in the directory
+ * 'workingDir/queue/queueID' (see QueueSegmentLog). A consumer must call acknowledge() once it has
+ * processed a message. Messages that have not been acknowledged when the system goes down are recovered when
+ * the queue is created again and are pulled before any new message. A message can therefore be processed
+ * twice if the system goes down between processing and acknowledging it.<p>
+ *
+ * If the queue is not persistent then it only holds the messages in memory and the spill files. If the system
+ * should go down, the messages currently held in the queue are lost. One needs to carefully analyse what
+ * capacity of the subscriber queue shall be as this is the maximum number of lost messages in case of a
+ * system failure.<p>
+ *
+ * The queue uses ReentrantLocks rather than synchronized blocks, so consumers waiting for messages don't pin
+ * their carrier thread if they run in virtual threads.
+ *
  * @author Joerg Huber
  *
  */
 public class SubscriberQueue<T extends BaseMessage>
 {
 	protected Logger logger = ADK.getLog();
-	
-	private BlockingQueue<T> queue = null;
-	
-	/* Properties used in future development once persistence will be implemented. */
-	@SuppressWarnings("unused")
-    private String queueID;
-	@SuppressWarnings("unused")
-    private String workingDir;
-	
+
+	private String queueID;
+	private String workingDir;
+	private SubscriberQueueOptions options;
+	private MessageCodec<T> codec = null;
+
+	/* Messages in memory. An entry holds the message or, if it has been read back from the spill or recovered, its bytes. */
+	private LinkedList<Entry<T>> entries = new LinkedList<Entry<T>>();
+	private long bytes = 0;
+	private ReentrantLock lock = new ReentrantLock();
+	private Condition notEmpty = lock.newCondition();
+	private Condition notFull = lock.newCondition();
+
+	/* Only set if spill is enabled. */
+	private QueueSpill spill = null;
+	private boolean spilling = false;
+	private long spilledMessages = 0;
+	private int peakSize = 0;
+
+	/* Only set for a persistent queue. */
+	private QueueSegmentLog log = null;
+	private Map<T, Long> sequences = new IdentityHashMap<T, Long>();
+	private ReentrantLock sequenceLock = new ReentrantLock();
+
+	/*
+	 * A message in memory.
+	 */
+	private static class Entry<T>
+	{
+		private T message;
+		private byte[] data;
+		private long sequence;
+		private long size;
+
+		Entry(T message, byte[] data, long sequence)
+		{
+			this.message = message;
+			this.data = data;
+			this.sequence = sequence;
+			this.size = (data == null) ? 0 : data.length;
+		}
+	}
+
 	/**
 	 * This initialises the Subscriber Queue for use in multi-threaded environment.<p>
-	 * 
+	 *
 	 * @param capacity The max capacity of elements that can be held by this queue. Generally that should be
 	 *                 a low number but theoretically can be any number.
 	 * @param queueID A unique name representing this queue. This ID should not contain any white spaces. In
@@ -67,45 +123,180 @@ public class SubscriberQueue<T extends BaseMessage>
 	 *                   doesn't exist.
 	 */
 	public  SubscriberQueue(int capacity, String queueID, String workingDir)
+	{
+		this(new SubscriberQueueOptions(capacity), queueID, workingDir, null);
+	}
+
+	/**
+	 * This initialises a persistent Subscriber Queue for use in multi-threaded environment. The messages that
+	 * haven't been acknowledged before the queue has been closed or the system has gone down are recovered
+	 * from the working directory.<p>
+	 *
+	 * @param capacity The max capacity of elements that can be held by this queue in memory. Recovered
+	 *                 messages are not counted.
+	 * @param queueID A unique name representing this queue. This ID should not contain any white spaces. In
+	 *                fact all white spaces will be removed from this value. It is the name of the directory
+	 *                that holds the messages of this queue.
+	 * @param workingDir The directory under which the messages of this queue are stored. It will be created if
+	 *                   it doesn't exist.
+	 * @param codec Converts the messages to bytes and back. If null then the queue is not persistent.
+	 * @param segmentSize The size of the segment files in bytes.
+	 */
+	public  SubscriberQueue(int capacity, String queueID, String workingDir, MessageCodec<T> codec, int segmentSize)
+	{
+		this(getOptions(capacity, codec != null, segmentSize), queueID, workingDir, codec);
+	}
+
+	/**
+	 * This initialises the Subscriber Queue with the given options for use in multi-threaded environment. If
+	 * the queue is persistent then the messages that haven't been acknowledged before the queue has been
+	 * closed or the system has gone down are recovered from the working directory.<p>
+	 *
+	 * @param options The capacity, byte budget, watermarks, spill and persistence settings of the queue.
+	 * @param queueID A unique name representing this queue. This ID should not contain any white spaces. In
+	 *                fact all white spaces will be removed from this value. It is the name of the directories
+	 *                that hold the persisted and spilled messages of this queue.
+	 * @param workingDir The directory under which the persisted and spilled messages of this queue are stored.
+	 *                   It will be created if it doesn't exist.
+	 * @param codec Converts the messages to bytes and back. If null then the byte budget, spill and persistence
+	 *              settings are ignored.
+	 */
+	public  SubscriberQueue(SubscriberQueueOptions options, String queueID, String workingDir, MessageCodec<T> codec)
 	{
 		this.queueID = StringUtils.isEmpty(queueID) ? "SubscriberQueue" : queueID.replaceAll("\\s+","");
 		this.workingDir = StringUtils.isEmpty(workingDir) ? "" : workingDir.replaceAll("\\s+","");;
-		this.queue = new ArrayBlockingQueue<T>(capacity);
+		this.options = options;
+		this.codec = codec;
+		if (codec == null)
+		{
+			if (options.isSpill() || options.isPersistent() || (options.getMaxBytes() > 0))
+			{
+				logger.error("SubscriberQueue "+this.queueID+" has no MessageCodec. Byte budget, spill and persistence are disabled.");
+			}
+			return;
+		}
+		if (options.isSpill())
+		{
+			spill = new QueueSpill(new File(new File(this.workingDir, "spill"), this.queueID), options.getSegmentSize());
+		}
+		if (options.isPersistent())
+		{
+			recover();
+		}
 	}
-	
+
+	/**
+	 * Returns TRUE if the messages of this queue are stored in the working directory.
+	 */
+	public boolean isPersistent()
+	{
+		return log != null;
+	}
+
 	/**
-	 * This method attempts to put a SubscriberMessage on to the SubscriberQueue. If the capacity of the 
-	 * queue is below the threshold defined in the constructor then the subscriberMsg is put on the queue 
-	 * immediately. If the queue is full this method blocks indefinitely until a 'slot' becomes available 
-	 * (ie. the size of the queue falls below the capacity defined in the constructor). This means a 
-	 * consumer has taken a element off the queue.<p>
-	 * 
+	 * Returns the ID of this queue without white spaces.
+	 */
+	public String getQueueID()
+	{
+		return queueID;
+	}
+
+	/**
+	 * Returns the directory in which a persistent queue with the given ID stores its messages.
+	 *
+	 * @param queueID The ID of the queue as given to the constructor.
+	 * @param workingDir The working directory as given to the constructor.
+	 */
+	public static File getPersistenceDir(String queueID, String workingDir)
+	{
+		String id = StringUtils.isEmpty(queueID) ? "SubscriberQueue" : queueID.replaceAll("\\s+","");
+		String dir = StringUtils.isEmpty(workingDir) ? "" : workingDir.replaceAll("\\s+","");
+		return new File(new File(dir, "queue"), id);
+	}
+
+	/**
+	 * This method attempts to put a SubscriberMessage on to the SubscriberQueue. If the queue is below its
+	 * high watermark then the subscriberMsg is put on the queue immediately. If the queue is full and spill is
+	 * enabled then the subscriberMsg is written to the spill files. Otherwise this method blocks indefinitely
+	 * until a 'slot' becomes available (ie. the size of the queue falls below its capacity and byte budget).
+	 * This means a consumer has taken a element off the queue.<p>
+	 *
 	 * @param subscriberMsg The element to be put on the queue.
 	 */
 	public void blockingPush(T subscriberMsg)
 	{
 		try
 		{
-			queue.put(subscriberMsg);
+			byte[] data = ((log != null) || (options.getMaxBytes() > 0)) ? encode(subscriberMsg) : null;
+			long sequence = (log != null) ? persist(subscriberMsg, data) : 0;
+			lock.lock();
+			try
+			{
+				if (spill != null)
+				{
+					if (spilling || isFull())
+					{
+						if (spillMessage(subscriberMsg, data, sequence))
+						{
+							return;
+						}
+					}
+				}
+				else
+				{
+					while (isFull())
+					{
+						notFull.await();
+					}
+				}
+				add(new Entry<T>(subscriberMsg, data, sequence));
+			}
+			finally
+			{
+				lock.unlock();
+			}
 		}
 		catch (Exception ex)
 		{
 			logger.error("Failed to push the 'subscriberMsg' message on to the SubscriberQueue: "+ex.getMessage(),ex);
 		}
 	}
-	
+
 	/**
 	 * This method returns the next available message from the queue. If a message is available this method
 	 * returns immediatley with the message. If no message is available then this method will block until
 	 * a message is available (blockingPush() has been called by some thread).
-	 * 
+	 *
 	 * @return A message of the defined type.
 	 */
 	public T blockingPull()
 	{
 		try
 		{
-			return queue.take();
+			return pull(-1);
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to pull a 'subscriberMsg' message off the the SubscriberQueue: "+ex.getMessage(),ex);
+			return null;
+		}
+	}
+
+	/**
+	 * This method returns the next available message from the queue. If no message is available then this
+	 * method will block until a message is available or the given time has elapsed. It is used by consumers
+	 * that accumulate messages to a batch.
+	 *
+	 * @param timeout The maximum time to wait for a message.
+	 * @param unit The unit of the timeout.
+	 *
+	 * @return A message of the defined type or null if no message was available in the given time.
+	 */
+	public T pull(long timeout, TimeUnit unit)
+	{
+		try
+		{
+			return pull(Math.max(0, unit.toNanos(timeout)));
 		}
 		catch (Exception ex)
 		{
@@ -113,4 +304,472 @@ public class SubscriberQueue<T extends BaseMessage>
 			return null;
 		}
 	}
+
+	/**
+	 * This method must be called by the consumer once it has processed a message pulled from a persistent
+	 * queue. The message won't be recovered anymore after a restart. Does nothing if the queue is not
+	 * persistent.
+	 *
+	 * @param subscriberMsg The message returned by blockingPull().
+	 */
+	public void acknowledge(T subscriberMsg)
+	{
+		if ((log == null) || (subscriberMsg == null))
+		{
+			return;
+		}
+		Long sequence = null;
+		sequenceLock.lock();
+		try
+		{
+			sequence = sequences.remove(subscriberMsg);
+		}
+		finally
+		{
+			sequenceLock.unlock();
+		}
+		if (sequence != null)
+		{
+			acknowledge(sequence.longValue());
+		}
+	}
+
+	/**
+	 * This method closes the files of the queue. Messages that haven't been acknowledged remain in the
+	 * segment files of a persistent queue and are recovered when the queue is created again. Spilled messages
+	 * of a queue that is not persistent are lost.
+	 */
+	public void close()
+	{
+		lock.lock();
+		try
+		{
+			if (spill != null)
+			{
+				if ((spill.size() > 0) && (log == null))
+				{
+					logger.error("Close SubscriberQueue "+queueID+" with "+spill.size()+" spilled message(s). These messages are lost.");
+				}
+				spill.close();
+				spilling = false;
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		if (log != null)
+		{
+			logger.info("Close SubscriberQueue "+queueID+" with "+log.getOutstanding()+" message(s) not acknowledged.");
+			log.close();
+		}
+	}
+
+	/*------------*/
+	/* Statistics */
+	/*------------*/
+	/**
+	 * Returns the number of messages held in memory.
+	 */
+	public int getSize()
+	{
+		lock.lock();
+		try
+		{
+			return entries.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the encoded messages held in memory. Only counted if a byte budget is set
+	 * or the queue is persistent.
+	 */
+	public long getBytes()
+	{
+		lock.lock();
+		try
+		{
+			return bytes;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages currently held in the spill files.
+	 */
+	public int getSpillSize()
+	{
+		lock.lock();
+		try
+		{
+			return (spill == null) ? 0 : spill.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages that have been written to the spill files since the queue has been
+	 * created.
+	 */
+	public long getSpilledMessages()
+	{
+		lock.lock();
+		try
+		{
+			return spilledMessages;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the max number of messages that have been held in memory at the same time.
+	 */
+	public int getPeakSize()
+	{
+		lock.lock();
+		try
+		{
+			return peakSize;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns TRUE if new messages are currently written to the spill files.
+	 */
+	public boolean isSpilling()
+	{
+		lock.lock();
+		try
+		{
+			return spilling;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages in memory at which the queue is full (its capacity).
+	 */
+	public int getHighWatermark()
+	{
+		return options.getCapacity();
+	}
+
+	/**
+	 * Returns the number of messages in memory at which spilled messages are read back.
+	 */
+	public int getLowWatermark()
+	{
+		return options.getCapacity() * options.getLowWatermarkPercent() / 100;
+	}
+
+	/**
+	 * Returns the number of bytes in memory at which the queue is full (its byte budget). 0 means that there
+	 * is no byte budget.
+	 */
+	public long getHighWatermarkBytes()
+	{
+		return (codec == null) ? 0 : options.getMaxBytes();
+	}
+
+	/**
+	 * Returns the number of bytes in memory at which spilled messages are read back. 0 means that there is no
+	 * byte budget.
+	 */
+	public long getLowWatermarkBytes()
+	{
+		return getHighWatermarkBytes() * options.getLowWatermarkPercent() / 100;
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private static SubscriberQueueOptions getOptions(int capacity, boolean persistent, int segmentSize)
+	{
+		SubscriberQueueOptions options = new SubscriberQueueOptions(capacity);
+		options.setPersistent(persistent);
+		options.setSegmentSize(segmentSize);
+		return options;
+	}
+
+	/*
+	 * The queue is full if it has reached its high watermark. Must be called while holding the lock.
+	 */
+	private boolean isFull()
+	{
+		return (entries.size() >= getHighWatermark()) || ((getHighWatermarkBytes() > 0) && (bytes >= getHighWatermarkBytes()));
+	}
+
+	/*
+	 * Adds an entry to the end of the queue. Must be called while holding the lock.
+	 */
+	private void add(Entry<T> entry)
+	{
+		entries.add(entry);
+		bytes += entry.size;
+		peakSize = Math.max(peakSize, entries.size());
+		notEmpty.signal();
+	}
+
+	/*
+	 * Writes the given message to the spill. Returns FALSE if that fails, so the message is kept in memory. Must
+	 * be called while holding the lock.
+	 */
+	private boolean spillMessage(T subscriberMsg, byte[] data, long sequence)
+	{
+		try
+		{
+			spill.append(sequence, (data == null) ? codec.encode(subscriberMsg) : data);
+			spilledMessages++;
+			if (!spilling)
+			{
+				spilling = true;
+				logger.info("SubscriberQueue "+queueID+" has reached its high watermark ("+entries.size()+" messages, "+bytes+" bytes). New messages are spilled to disk.");
+			}
+			if (sequence > 0)
+			{
+				sequenceLock.lock();
+				try
+				{
+					sequences.remove(subscriberMsg); // the message read back is a copy
+				}
+				finally
+				{
+					sequenceLock.unlock();
+				}
+			}
+			return true;
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to spill message of SubscriberQueue "+queueID+". Message is held in memory: "+ex.getMessage(), ex);
+			return false;
+		}
+	}
+
+	/*
+	 * Removes the next message from the queue. Waits for a message for at most 'nanos' nanoseconds or without
+	 * limit if 'nanos' is negative. Returns null if no message was available in time.
+	 */
+	private T pull(long nanos) throws InterruptedException
+	{
+		while (true)
+		{
+			Entry<T> entry = null;
+			lock.lock();
+			try
+			{
+				while (entries.isEmpty())
+				{
+					if (nanos < 0)
+					{
+						notEmpty.await();
+					}
+					else if (nanos == 0)
+					{
+						return null;
+					}
+					else
+					{
+						nanos = Math.max(0, notEmpty.awaitNanos(nanos));
+					}
+				}
+				entry = entries.removeFirst();
+				bytes -= entry.size;
+				if (spilling)
+				{
+					refill();
+				}
+				notFull.signal();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			T message = getMessage(entry);
+			if (message != null)
+			{
+				return message;
+			}
+		}
+	}
+
+	/*
+	 * Reads spilled messages back once the queue has fallen to its low watermark. If the spill files can't be
+	 * read then the spilled messages are discarded. Must be called while holding the lock.
+	 */
+	private void refill()
+	{
+		if ((entries.size() > getLowWatermark()) || ((getHighWatermarkBytes() > 0) && (bytes > getLowWatermarkBytes())))
+		{
+			return;
+		}
+		try
+		{
+			while (!isFull())
+			{
+				QueueSpill.Record record = spill.poll();
+				if (record == null)
+				{
+					spilling = false;
+					logger.info("SubscriberQueue "+queueID+" has read back all spilled messages ("+entries.size()+" messages in memory).");
+					return;
+				}
+				add(new Entry<T>(null, record.data, record.sequence));
+			}
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to read spilled messages of SubscriberQueue "+queueID+". "+spill.size()+" spilled message(s) discarded: "+ex.getMessage(), ex);
+			spill.close();
+			spilling = false;
+		}
+	}
+
+	/*
+	 * Returns the message of an entry. Decodes the message if the entry only holds its bytes. Returns null if the
+	 * message can't be decoded. The message is then acknowledged, so it is not recovered again.
+	 */
+	private T getMessage(Entry<T> entry)
+	{
+		if (entry.message != null)
+		{
+			return entry.message;
+		}
+		try
+		{
+			T message = codec.decode(entry.data);
+			if (entry.sequence > 0)
+			{
+				sequenceLock.lock();
+				try
+				{
+					sequences.put(message, Long.valueOf(entry.sequence));
+				}
+				finally
+				{
+					sequenceLock.unlock();
+				}
+			}
+			return message;
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to decode message "+entry.sequence+" of SubscriberQueue "+queueID+". Message discarded: "+ex.getMessage(), ex);
+			acknowledge(entry.sequence);
+			return null;
+		}
+	}
+
+	private byte[] encode(T subscriberMsg)
+	{
+		try
+		{
+			return codec.encode(subscriberMsg);
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to encode message for SubscriberQueue "+queueID+". Message is only held in memory: "+ex.getMessage(), ex);
+			return null;
+		}
+	}
+
+	/*
+	 * Opens the segment files and queues the messages that haven't been acknowledged. They are not counted
+	 * against the capacity unless spill is enabled. If the files can't be opened then the queue is not
+	 * persistent.
+	 */
+	private void recover()
+	{
+		File dir = getPersistenceDir(queueID, workingDir);
+		QueueSegmentLog segmentLog = new QueueSegmentLog(dir, options.getSegmentSize());
+		try
+		{
+			LinkedHashMap<Long, byte[]> messages = segmentLog.recover();
+			log = segmentLog;
+			lock.lock();
+			try
+			{
+				for (Map.Entry<Long, byte[]> message : messages.entrySet())
+				{
+					long sequence = message.getKey().longValue();
+					if ((spill == null) || (!spilling && !isFull()) || !spillMessage(null, message.getValue(), sequence))
+					{
+						add(new Entry<T>(null, message.getValue(), sequence));
+					}
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			logger.info("SubscriberQueue "+queueID+" recovered "+messages.size()+" message(s) from "+dir.getPath());
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to open SubscriberQueue "+queueID+" in "+dir.getPath()+". Messages are only held in memory: "+ex.getMessage(), ex);
+		}
+	}
+
+	/*
+	 * Appends the given message to the segment files and returns its sequence number. If that fails then 0 is
+	 * returned and the message is only queued in memory.
+	 */
+	private long persist(T subscriberMsg, byte[] data)
+	{
+		if (data == null)
+		{
+			return 0;
+		}
+		try
+		{
+			long sequence = log.append(data);
+			sequenceLock.lock();
+			try
+			{
+				sequences.put(subscriberMsg, Long.valueOf(sequence));
+			}
+			finally
+			{
+				sequenceLock.unlock();
+			}
+			return sequence;
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to store message in SubscriberQueue "+queueID+". Message is only held in memory: "+ex.getMessage(), ex);
+			return 0;
+		}
+	}
+
+	private void acknowledge(long sequence)
+	{
+		try
+		{
+			log.acknowledge(sequence);
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to acknowledge message in SubscriberQueue "+queueID+": "+ex.getMessage(), ex);
+		}
+	}
 }
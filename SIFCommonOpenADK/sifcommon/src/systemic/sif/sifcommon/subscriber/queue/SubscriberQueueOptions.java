@@ -0,0 +1,129 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.subscriber.queue;
+
+
+/**
+ * This class holds the settings of a SubscriberQueue.<p>
+ *
+ * The high watermark of the queue is its capacity and, if set, its byte budget (maxBytes). Once the messages
+ * held in memory reach either of them the queue is full. A full queue either blocks blockingPush() or, if
+ * spill is enabled, writes new messages to spill files in the working directory. Spilled messages are read
+ * back once the messages in memory have fallen to the low watermark, which is a percentage of the high
+ * watermark. Messages are always pulled in the order they have been pushed.<p>
+ *
+ * A byte budget, spilling and persistence require a MessageCodec to convert messages to bytes.
+ *
+ * @author Joerg Huber
+ */
+public class SubscriberQueueOptions
+{
+	private int capacity = 1;
+	private long maxBytes = 0;
+	private int lowWatermarkPercent = 50;
+	private boolean spill = false;
+	private boolean persistent = false;
+	private int segmentSize = 4194304;
+
+	public SubscriberQueueOptions()
+	{
+	}
+
+	/**
+	 * Creates the options for a queue that holds at most 'capacity' messages in memory and blocks if it is full.
+	 */
+	public SubscriberQueueOptions(int capacity)
+	{
+		setCapacity(capacity);
+	}
+
+	/**
+	 * The max number of messages held in memory (min 1).
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public void setCapacity(int capacity)
+	{
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * The max number of bytes of the encoded messages held in memory. 0 means no byte budget.
+	 */
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = Math.max(0, maxBytes);
+	}
+
+	/**
+	 * The low watermark in percent of the capacity and the byte budget (0 to 100).
+	 */
+	public int getLowWatermarkPercent()
+	{
+		return lowWatermarkPercent;
+	}
+
+	public void setLowWatermarkPercent(int lowWatermarkPercent)
+	{
+		this.lowWatermarkPercent = Math.min(100, Math.max(0, lowWatermarkPercent));
+	}
+
+	/**
+	 * TRUE if messages are written to spill files instead of blocking blockingPush() when the queue is full.
+	 */
+	public boolean isSpill()
+	{
+		return spill;
+	}
+
+	public void setSpill(boolean spill)
+	{
+		this.spill = spill;
+	}
+
+	/**
+	 * TRUE if messages are stored in the working directory until they are acknowledged (see SubscriberQueue).
+	 */
+	public boolean isPersistent()
+	{
+		return persistent;
+	}
+
+	public void setPersistent(boolean persistent)
+	{
+		this.persistent = persistent;
+	}
+
+	/**
+	 * The size of the segment files of a persistent queue and of the spill files in bytes.
+	 */
+	public int getSegmentSize()
+	{
+		return segmentSize;
+	}
+
+	public void setSegmentSize(int segmentSize)
+	{
+		this.segmentSize = segmentSize;
+	}
+}
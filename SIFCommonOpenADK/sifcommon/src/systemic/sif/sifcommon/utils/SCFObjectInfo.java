@@ -0,0 +1,304 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.utils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import openadk.library.ADK;
+import openadk.library.Element;
+import openadk.library.SIFDataObject;
+
+import org.apache.log4j.Logger;
+
+import au.com.systemic.framework.utils.StringUtils;
+
+/**
+ * This class gives access to the SIF Object information held in the SCF database (see DB/SCF.sqliteDB).
+ * Currently this is the list of XPaths that make up the key of a SIF Object (table SCF_OBJECT_KEY) and
+ * the separator used to build a single key value from these XPaths as well as the default expiry of a
+ * SIF Object (table SCF_OBJECT). Other classes can access the SCF database through getConnection().<p>
+ *
+ * The SCF database is accessed through plain JDBC. The JDBC driver and URL are configured with the
+ * following properties:<p>
+ *
+ * <code>agent._agentID_.scf.db.driver=_jdbc_driver_class_</code><p>
+ * <code>agent._agentID_.scf.db.url=_jdbc_url_</code><p>
+ *
+ * If the SCF database is not configured or cannot be accessed then the RefId (XPath '@RefId') is used as
+ * the key of all SIF Objects. The information of each SIF Object is only read once and then held in memory.
+ *
+ * @author Joerg Huber
+ */
+public class SCFObjectInfo
+{
+	/** Key XPath used if no key is defined in the SCF database for a SIF Object. */
+	public static final String DEFAULT_KEY_XPATH = "@RefId";
+
+	/** Key separator used if no separator is defined in the SCF database for a SIF Object. */
+	public static final String DEFAULT_KEY_SEPARATOR = "|";
+
+	private static final Map<String, SCFObjectInfo> instances = new HashMap<String, SCFObjectInfo>();
+
+	protected Logger logger = ADK.getLog();
+
+	private String driver = null;
+	private String url = null;
+	private Map<String, List<String>> keyXPaths = new HashMap<String, List<String>>();
+	private Map<String, String> keySeparators = new HashMap<String, String>();
+	private Map<String, Integer> expiries = new HashMap<String, Integer>();
+
+	/**
+	 * Returns the SCF Object information for the given agent. There is only one instance per agent.
+	 *
+	 * @param properties The SIFCommon Framework properties holding the SCF database configuration.
+	 * @param agentID The agentID of the agent for which the SCF Object information shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public static synchronized SCFObjectInfo getInstance(SIFCommonProperties properties, String agentID)
+	{
+		SCFObjectInfo info = instances.get(agentID);
+		if (info == null)
+		{
+			info = new SCFObjectInfo(properties.getSCFDBDriver(agentID), properties.getSCFDBUrl(agentID));
+			instances.put(agentID, info);
+		}
+		return info;
+	}
+
+	private SCFObjectInfo(String driver, String url)
+	{
+		this.driver = driver;
+		this.url = url;
+	}
+
+	/**
+	 * Returns TRUE if an SCF database is configured for this agent.
+	 */
+	public boolean hasDatabase()
+	{
+		return StringUtils.notEmpty(url);
+	}
+
+	/**
+	 * Returns a new connection to the SCF database. The caller must close the connection.
+	 *
+	 * @return See description.
+	 *
+	 * @throws SQLException If no SCF database is configured or the connection cannot be established.
+	 */
+	public Connection getConnection() throws SQLException
+	{
+		if (!hasDatabase())
+		{
+			throw new SQLException("No SCF database configured.");
+		}
+		if (StringUtils.notEmpty(driver))
+		{
+			try
+			{
+				Class.forName(driver);
+			}
+			catch (ClassNotFoundException ex)
+			{
+				throw new SQLException("JDBC driver "+driver+" not found.");
+			}
+		}
+		return DriverManager.getConnection(url);
+	}
+
+	/**
+	 * Returns the list of XPaths that make up the key of the given SIF Object in the order of SORT_ORDER.
+	 * If no key is defined for the SIF Object then a list with '@RefId' is returned.
+	 *
+	 * @param sifObjectName The name of the SIF Object (i.e. StudentPersonal).
+	 *
+	 * @return See description.
+	 */
+	public synchronized List<String> getKeyXPaths(String sifObjectName)
+	{
+		List<String> xPaths = keyXPaths.get(sifObjectName);
+		if (xPaths == null)
+		{
+			loadObjectInfo(sifObjectName);
+			xPaths = keyXPaths.get(sifObjectName);
+		}
+		return xPaths;
+	}
+
+	/**
+	 * Returns the separator used to concatenate the values of the key XPaths of the given SIF Object. If no
+	 * separator is defined for the SIF Object then '|' is returned.
+	 *
+	 * @param sifObjectName The name of the SIF Object (i.e. StudentPersonal).
+	 *
+	 * @return See description.
+	 */
+	public synchronized String getKeySeparator(String sifObjectName)
+	{
+		String separator = keySeparators.get(sifObjectName);
+		if (separator == null)
+		{
+			loadObjectInfo(sifObjectName);
+			separator = keySeparators.get(sifObjectName);
+		}
+		return separator;
+	}
+
+	/**
+	 * Returns the DEFAULT_EXPIRY_IN_MINUTES of the given SIF Object or null if none is defined.
+	 *
+	 * @param sifObjectName The name of the SIF Object (i.e. StudentPersonal).
+	 *
+	 * @return See description.
+	 */
+	public synchronized Integer getDefaultExpiryInMinutes(String sifObjectName)
+	{
+		if (!keySeparators.containsKey(sifObjectName))
+		{
+			loadObjectInfo(sifObjectName);
+		}
+		return expiries.get(sifObjectName);
+	}
+
+	/**
+	 * Returns the key value of the given SIF Object. This is the concatenation of the values of all key
+	 * XPaths separated by the key separator of the SIF Object. Values that don't exist are treated as an
+	 * empty string. Null is returned if none of the key XPaths has a value.
+	 *
+	 * @param sifObject The SIF Object for which the key shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public String getKey(SIFDataObject sifObject)
+	{
+		String sifObjectName = sifObject.getElementDef().name();
+		List<String> xPaths = getKeyXPaths(sifObjectName);
+		String separator = getKeySeparator(sifObjectName);
+		StringBuilder key = new StringBuilder();
+		boolean hasValue = false;
+		for (int i = 0; i < xPaths.size(); i++)
+		{
+			if (i > 0)
+			{
+				key.append(separator);
+			}
+			String value = getValue(sifObject, xPaths.get(i));
+			if (StringUtils.notEmpty(value))
+			{
+				key.append(value);
+				hasValue = true;
+			}
+		}
+		return hasValue ? key.toString() : null;
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	private String getValue(SIFDataObject sifObject, String xPath)
+	{
+		if (DEFAULT_KEY_XPATH.equals(xPath))
+		{
+			return sifObject.getRefId();
+		}
+		try
+		{
+			Element element = sifObject.getElementOrAttribute(xPath);
+			return (element == null) ? null : element.getTextValue();
+		}
+		catch (Exception ex)
+		{
+			logger.error("Failed to evaluate key XPath '"+xPath+"' for "+sifObject.getElementDef().name()+": "+ex.getMessage());
+			return null;
+		}
+	}
+
+	/*
+	 * Reads the key XPaths, separator and default expiry of the given SIF Object from the SCF database. If this fails the
+	 * defaults are used.
+	 */
+	private void loadObjectInfo(String sifObjectName)
+	{
+		List<String> xPaths = new ArrayList<String>();
+		String separator = null;
+		Integer expiry = null;
+
+		if (hasDatabase())
+		{
+			Connection connection = null;
+			try
+			{
+				connection = getConnection();
+
+				PreparedStatement stmt = connection.prepareStatement("SELECT XPATH_TO_KEY FROM SCF_OBJECT_KEY WHERE SIF_OBJECT_NAME = ? ORDER BY SORT_ORDER");
+				stmt.setString(1, sifObjectName);
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next())
+				{
+					xPaths.add(rs.getString(1));
+				}
+				rs.close();
+				stmt.close();
+
+				stmt = connection.prepareStatement("SELECT KEY_SEPARATOR, DEFAULT_EXPIRY_IN_MINUTES FROM SCF_OBJECT WHERE SIF_OBJECT_NAME = ?");
+				stmt.setString(1, sifObjectName);
+				rs = stmt.executeQuery();
+				if (rs.next())
+				{
+					separator = rs.getString(1);
+					int minutes = rs.getInt(2);
+					expiry = rs.wasNull() ? null : Integer.valueOf(minutes);
+				}
+				rs.close();
+				stmt.close();
+			}
+			catch (Exception ex)
+			{
+				logger.error("Failed to read key information for "+sifObjectName+" from SCF DB '"+url+"': "+ex.getMessage()+". Use "+DEFAULT_KEY_XPATH+" as key.");
+				xPaths.clear();
+				expiry = null;
+			}
+			finally
+			{
+				if (connection != null)
+				{
+					try
+					{
+						connection.close();
+					}
+					catch (Exception ex) {}
+				}
+			}
+		}
+
+		if (xPaths.isEmpty())
+		{
+			xPaths.add(DEFAULT_KEY_XPATH);
+		}
+		logger.debug("Key XPaths for "+sifObjectName+": "+xPaths);
+		keyXPaths.put(sifObjectName, xPaths);
+		keySeparators.put(sifObjectName, StringUtils.isEmpty(separator) ? DEFAULT_KEY_SEPARATOR : separator);
+		expiries.put(sifObjectName, expiry);
+	}
+}
@@ -164,6 +164,888 @@ public class SIFCommonProperties
 		return (value != null) ? value.intValue() : getSyncFrequencyInSeconds(agentID, defaultValue);
 	}
 	
+	/**
+	 * This method returns the maximum number of SIF Objects that are grouped into one SIF_Event for the
+	 * given agent and publisher. Consecutive events with the same event action are batched up to this
+	 * number. If no such value exists for the publisher then the agent's value is returned. If that
+	 * doesn't exist either then the global value of getEventBatchSize() is returned. A value of 1 or less
+	 * means that no batching is performed (one SIF_Event per SIF Object).<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.batchSize=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.batchSize=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the batch size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the batch size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventBatchSize(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.batchSize");
+		if (value == null)
+		{
+			value = getPropertyAsInt("agent."+agentID+".event.batchSize");
+		}
+		return (value != null) ? value.intValue() : getEventBatchSize();
+	}
+
+	/**
+	 * This method returns the maximum size of a batched SIF_Event for the given agent and publisher. The size
+	 * is the approximate length of the XML of all SIF Objects in the batch. Once adding an object would exceed
+	 * this value the current batch is sent and a new batch is started. If no such value exists for the
+	 * publisher then the agent's value is returned. If that doesn't exist either then 0 is returned which
+	 * means that batches are only limited by getEventBatchSize().<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.batchMaxBytes=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.batchMaxBytes=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the max batch size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the max batch size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventBatchMaxBytes(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.batchMaxBytes");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.batchMaxBytes", 0);
+	}
+
+	/**
+	 * This method returns the indicator if the given publisher shall send its events to each zone in a
+	 * separate thread (zone lane). If no such value exists for the publisher then the agent's value is
+	 * returned. If that doesn't exist either then false is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.zoneLanes=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.zoneLanes=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getEventZoneLanes(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".event.zoneLanes");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".event.zoneLanes", false);
+	}
+
+	/**
+	 * This method returns the max number of events that are buffered for each zone lane of the given publisher.
+	 * If no such value exists for the publisher then the agent's value is returned. If that doesn't exist
+	 * either then the default of 1000 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.laneDepth=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.laneDepth=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the lane depth shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the lane depth shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventLaneDepth(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.laneDepth");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.laneDepth", 1000);
+	}
+
+	/**
+	 * This method returns the max time in seconds a zone lane of the given publisher may lag behind. If the
+	 * buffer of a lane stays full for longer than this time, no further events of the current run are sent
+	 * to the zone of that lane. If no such value exists for the publisher then the agent's value is returned.
+	 * If that doesn't exist either then 0 is returned which means that the publisher waits indefinitely for
+	 * a slow zone.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.maxLaneLag=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.maxLaneLag=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the max lag shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the max lag shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventMaxLaneLagInSeconds(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.maxLaneLag");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.maxLaneLag", 0);
+	}
+
+	/**
+	 * This method returns the number of threads that build the SIF Objects of a response in parallel. This only
+	 * applies to publishers whose SIFResponseIterator is a ParallelSIFResponseIterator. If no such value exists
+	 * for the publisher then the agent's value is returned. If that doesn't exist either then 0 is returned which
+	 * means that the SIF Objects are built by the thread that sends the response.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.parallelism=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.parallelism=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the parallelism shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the parallelism shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseParallelism(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.parallelism");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.parallelism", 0);
+	}
+
+	/**
+	 * This method returns the max number of SIF Objects of a response that are built in parallel or wait to be
+	 * sent. If no such value exists for the publisher then the agent's value is returned. If that doesn't exist
+	 * either then the given default value is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.window=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.window=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the window shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the window shall be returned.
+	 * @param defaultValue The value returned if no window is configured.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseWindow(String agentID, String publisherID, int defaultValue)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.window");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.window", defaultValue);
+	}
+
+	/**
+	 * This method returns TRUE if the SIF Objects of a response that are built in parallel shall be sent in the
+	 * order of the SIFResponseIterator. If FALSE they are sent in the order they are built. If no such value
+	 * exists for the publisher then the agent's value is returned. If that doesn't exist either then TRUE is
+	 * returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.ordered=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.ordered=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getResponseOrdered(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".response.ordered");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".response.ordered", true);
+	}
+
+	/**
+	 * This method returns the max size in bytes of all responses the given publisher keeps in its response cache.
+	 * If no such value exists for the publisher then the agent's value is returned. If that doesn't exist either
+	 * then 0 is returned which means that responses are not cached.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.cacheSize=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.cacheSize=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the cache size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the cache size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseCacheSize(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.cacheSize");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.cacheSize", 0);
+	}
+
+	/**
+	 * This method returns the number of minutes a cached response of the given publisher is valid. It is only
+	 * used if no DEFAULT_EXPIRY_IN_MINUTES is set for the SIF Object in the SCF database. If no such value exists
+	 * for the publisher then the agent's value is returned. If that doesn't exist either then 5 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.cacheExpiry=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.cacheExpiry=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the expiry shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the expiry shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseCacheExpiryInMinutes(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.cacheExpiry");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.cacheExpiry", 5);
+	}
+
+	/**
+	 * This method returns the max size in bytes of the serialised event objects the given publisher keeps in
+	 * memory together with the SIF Objects, so the same SIF Object is only serialised once for all zones (see
+	 * PayloadCache). If no such value exists for the publisher then the agent's value is returned. If that 
+	 * doesn't exist either then 0 is returned which means that the SIF Objects are serialised each time.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.payloadCache.size=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.payloadCache.size=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the cache size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the cache size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getPayloadCacheSize(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".payloadCache.size");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".payloadCache.size", 0);
+	}
+
+	/**
+	 * This method returns TRUE if identical SIF_Requests the given publisher receives at the same time shall be
+	 * answered from one call to getRequestedSIFObjects(), even if they have been sent from different zones. This
+	 * must only be enabled if the response of the publisher doesn't depend on the zone. If no such value exists
+	 * for the publisher then the agent's value is returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.coalesce=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.coalesce=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getResponseCoalesce(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".response.coalesce");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".response.coalesce", false);
+	}
+
+	/**
+	 * This method returns the max number of SIF Objects held in memory for coalesced SIF_Requests of the given
+	 * publisher. Identical requests can join a request in progress as long as it hasn't moved past that many
+	 * SIF Objects. If the fastest response is that many SIF Objects ahead of the slowest then it waits. If no
+	 * such value exists for the publisher then the agent's value is returned. If that doesn't exist either then
+	 * 1000 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.coalesceBuffer=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.coalesceBuffer=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the buffer size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the buffer size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseCoalesceBuffer(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.coalesceBuffer");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.coalesceBuffer", 1000);
+	}
+
+	/**
+	 * This method returns TRUE if the given publisher shall keep a snapshot of all its SIF Objects in the working
+	 * directory of the agent and answer SIF_Requests without conditions from it (see ResponseSnapshot). The
+	 * snapshot is built for the first zone of the publisher, so this must only be enabled if the response of the
+	 * publisher doesn't depend on the zone. If no such value exists for the publisher then the agent's value is
+	 * returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.snapshot=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.snapshot=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getResponseSnapshot(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".response.snapshot");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".response.snapshot", false);
+	}
+
+	/**
+	 * This method returns the interval in seconds at which the response snapshot of the given publisher is
+	 * rebuilt. If no such value exists for the publisher then the agent's value is returned. If that doesn't
+	 * exist either then 3600 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.snapshotFrequency=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.snapshotFrequency=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the frequency shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the frequency shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseSnapshotFrequencyInSeconds(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.snapshotFrequency");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.snapshotFrequency", 3600);
+	}
+
+	/**
+	 * This method returns the max age in seconds of a response snapshot of the given publisher. Older snapshots
+	 * are not used and the request is answered from the data source instead. If no such value exists for the
+	 * publisher then the agent's value is returned. If that doesn't exist either then the given default is
+	 * returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.snapshotMaxAge=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.snapshotMaxAge=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the max age shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the max age shall be returned.
+	 * @param defaultValue Returned if the property is not set.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseSnapshotMaxAgeInSeconds(String agentID, String publisherID, int defaultValue)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.snapshotMaxAge");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.snapshotMaxAge", defaultValue);
+	}
+
+	/**
+	 * This method returns TRUE if responses of the given publisher that break off shall be continued from a
+	 * checkpoint when the same subscriber (SIF_SourceId) sends the same request to the same zone again. A
+	 * response that breaks off ends with a SIF_Error, so the subscriber knows that it must send the request
+	 * again (see ResumableSIFResponseIterator). This only applies to publishers
+	 * whose getRequestedSIFObjects() returns a ResumableSIFResponseIterator. If no such value exists for the
+	 * publisher then the agent's value is returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.resumable=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.resumable=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getResponseResumable(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".response.resumable");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".response.resumable", false);
+	}
+
+	/**
+	 * This method returns the time in seconds the checkpoint of a response of the given publisher that has broken
+	 * off is kept. A request received after that time starts from the beginning. If no such value exists for the
+	 * publisher then the agent's value is returned. If that doesn't exist either then 600 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.response.checkpointExpiry=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.response.checkpointExpiry=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the expiry shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the expiry shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getResponseCheckpointExpiryInSeconds(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".response.checkpointExpiry");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".response.checkpointExpiry", 600);
+	}
+
+	/**
+	 * This method returns the time in seconds after which a SIF_Request to the given publisher is cancelled. The
+	 * time is measured from the SIF_Timestamp of the request, so the clocks of the agent and the ZIS should be
+	 * in sync. A cancelled response stops retrieving SIF Objects and releases its iterator. If no such value
+	 * exists for the publisher then the agent's value is returned. If that doesn't exist either then 0 is
+	 * returned which means that requests are only cancelled if their zone disconnects.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.request.timeout=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.request.timeout=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the timeout shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the timeout shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getRequestTimeoutInSeconds(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".request.timeout");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".request.timeout", 0);
+	}
+
+	/**
+	 * This method returns the max number of SIF_Requests the given publisher reads from the data source at the
+	 * same time. Further requests wait in a queue that admits requests that look up objects by key before other
+	 * requests with conditions and these before full scans. Requests answered from the response cache or the
+	 * response snapshot are not counted. If no such value exists for the publisher then the agent's value is
+	 * returned. If that doesn't exist either then 0 is returned which means that there is no limit.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.request.maxConcurrent=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.request.maxConcurrent=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the limit shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the limit shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getRequestMaxConcurrent(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".request.maxConcurrent");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".request.maxConcurrent", 0);
+	}
+
+	/**
+	 * This method returns the max number of SIF_Requests all publishers of the given agent together read from the
+	 * data source at the same time. It applies in addition to the limit of each publisher (see 
+	 * getRequestMaxConcurrent()). If the property doesn't exist then 0 is returned which means that there is no
+	 * limit.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_.request.maxConcurrentPerAgent=_int_value_</code><p>
+	 *
+	 * @param agentID The agentID of the agent for which the limit shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getRequestMaxConcurrentPerAgent(String agentID)
+	{
+		return getPropertyAsInt("agent."+agentID+".request.maxConcurrentPerAgent", 0);
+	}
+
+	/**
+	 * This method returns the number of SIF Events or SIF Objects the given publisher shall retrieve ahead from
+	 * its SIFEventIterator or SIFResponseIterator in a separate thread. This allows the retrieval of the data
+	 * (i.e. DB access and mapping) to overlap with sending the data to the zone. If no such value exists for the
+	 * publisher then the agent's value is returned. If that doesn't exist either then 0 is returned which means
+	 * that no data is retrieved ahead.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.prefetch.depth=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.prefetch.depth=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the prefetch depth shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the prefetch depth shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getPrefetchDepth(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".prefetch.depth");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".prefetch.depth", 0);
+	}
+
+	/**
+	 * This method returns TRUE if the given publisher shall suppress CHANGE events of SIF Objects that have not
+	 * changed since they were last published to a zone. If no such value exists for the publisher then the
+	 * agent's value is returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.suppressUnchanged=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.suppressUnchanged=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getEventSuppressUnchanged(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".event.suppressUnchanged");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".event.suppressUnchanged", false);
+	}
+
+	/**
+	 * This method returns TRUE if the events of the given publisher are a full snapshot of all current SIF
+	 * Objects. In this case the snapshot is compared with the previously published snapshot and only ADD,
+	 * CHANGE and DELETE events for the differences are sent. If no such value exists for the publisher then
+	 * the agent's value is returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.snapshotDiff=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.snapshotDiff=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getEventSnapshotDiff(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".event.snapshotDiff");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".event.snapshotDiff", false);
+	}
+
+	/**
+	 * This method returns the max number of SIF Objects of a snapshot that are sorted in memory before they
+	 * are written to disk. If no such value exists for the publisher then the agent's value is returned. If
+	 * that doesn't exist either then the default of 50000 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.snapshotChunkSize=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.snapshotChunkSize=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the chunk size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the chunk size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventSnapshotChunkSize(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.snapshotChunkSize");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.snapshotChunkSize", 50000);
+	}
+
+	/**
+	 * This method returns TRUE if the given publisher shall be run at an adaptive interval rather than at the
+	 * fixed event frequency (see AdaptivePublisherSchedule). If no such value exists for the publisher then the
+	 * agent's value is returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.adaptive=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.adaptive=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getEventAdaptiveFrequency(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".event.adaptive");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".event.adaptive", false);
+	}
+
+	/**
+	 * This method returns the shortest interval in seconds at which the given publisher is run if adaptive
+	 * scheduling is enabled. If no such value exists for the publisher then the agent's value is returned. If
+	 * that doesn't exist either then the defaultValue is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.minFrequency=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.minFrequency=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the frequency shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the frequency shall be returned.
+	 * @param defaultValue The default value to be returned if no frequency can be found.
+	 *
+	 * @return See description.
+	 */
+	public int getEventMinFrequencyInSeconds(String agentID, String publisherID, int defaultValue)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.minFrequency");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.minFrequency", defaultValue);
+	}
+
+	/**
+	 * This method returns the longest interval in seconds at which the given publisher is run if adaptive
+	 * scheduling is enabled. If no such value exists for the publisher then the agent's value is returned. If
+	 * that doesn't exist either then the defaultValue is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.maxFrequency=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.maxFrequency=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the frequency shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the frequency shall be returned.
+	 * @param defaultValue The default value to be returned if no frequency can be found.
+	 *
+	 * @return See description.
+	 */
+	public int getEventMaxFrequencyInSeconds(String agentID, String publisherID, int defaultValue)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.maxFrequency");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.maxFrequency", defaultValue);
+	}
+
+	/**
+	 * This method returns the number of events after which a run of the given publisher is considered to be
+	 * full. If adaptive scheduling is enabled the next run after a full run starts after the min interval. If
+	 * no such value exists for the publisher then the agent's value is returned. If that doesn't exist either
+	 * then 0 is returned which means that a run is never considered to be full.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.fullCycleSize=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.fullCycleSize=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventFullCycleSize(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.fullCycleSize");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.fullCycleSize", 0);
+	}
+
+	/**
+	 * This method returns the time in seconds after which a run of the given publisher is considered to have
+	 * exceeded its budget. If adaptive scheduling is enabled the next run after such a run starts after the
+	 * min interval. If no such value exists for the publisher then the agent's value is returned. If that
+	 * doesn't exist either then 0 is returned which means that there is no time budget.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.cycleTimeBudget=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.cycleTimeBudget=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the budget shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the budget shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventCycleTimeBudgetInSeconds(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.cycleTimeBudget");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.cycleTimeBudget", 0);
+	}
+
+	/**
+	 * This method returns the time in milliseconds between the first trigger of the given publisher and the
+	 * triggered run. All triggers within that window are merged into one run. If no such value exists for the
+	 * publisher then the agent's value is returned. If that doesn't exist either then 1000 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.triggerWindow=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.triggerWindow=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the window shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the window shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventTriggerWindowInMillis(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.triggerWindow");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.triggerWindow", 1000);
+	}
+
+	/**
+	 * This method returns TRUE if the events that the zones don't accept shall be written to a journal on disk
+	 * and replayed later (see ZoneEventJournal). If no such value exists for the publisher then the agent's value
+	 * is returned. If that doesn't exist either then FALSE is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.journal=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.journal=true|false</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the indicator shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the indicator shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public boolean getEventJournal(String agentID, String publisherID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+publisherID+".event.journal");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".event.journal", false);
+	}
+
+	/**
+	 * This method returns the approximate max size in bytes of a segment file of the event journal. If no such
+	 * value exists for the publisher then the agent's value is returned. If that doesn't exist either then the
+	 * default of 4194304 (4MB) is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.journalSegmentSize=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.journalSegmentSize=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the segment size shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the segment size shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventJournalSegmentSize(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.journalSegmentSize");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.journalSegmentSize", 4194304);
+	}
+
+	/**
+	 * This method returns the max number of journaled events per second that are replayed to a zone once it is
+	 * available again. If no such value exists for the publisher then the agent's value is returned. If that
+	 * doesn't exist either then the default of 100 is returned. A value of 0 means no limit.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.event.journalReplayRate=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.event.journalReplayRate=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the replay rate shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the replay rate shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getEventJournalReplayRate(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".event.journalReplayRate");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".event.journalReplayRate", 100);
+	}
+
+	/**
+	 * This method returns the max number of messages per second the publisher sends to each zone. This applies to
+	 * SIF_Events as well as SIF_Response packets. If no such value exists for the publisher then the agent's value
+	 * is returned. If that doesn't exist either then 0 (no limit) is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.rateLimit.messagesPerSecond=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.rateLimit.messagesPerSecond=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the value shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getRateLimitMessagesPerSecond(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".rateLimit.messagesPerSecond");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".rateLimit.messagesPerSecond", 0);
+	}
+
+	/**
+	 * This method returns the max number of bytes of SIF Object XML per second the publisher sends to each zone.
+	 * If no such value exists for the publisher then the agent's value is returned. If that doesn't exist either
+	 * then 0 (no limit) is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.rateLimit.bytesPerSecond=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.rateLimit.bytesPerSecond=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the value shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getRateLimitBytesPerSecond(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".rateLimit.bytesPerSecond");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".rateLimit.bytesPerSecond", 0);
+	}
+
+	/**
+	 * This method returns the number of seconds worth of messages and bytes the publisher can send to a zone in one
+	 * burst before the rate limit applies. If no such value exists for the publisher then the agent's value is
+	 * returned. If that doesn't exist either then 1 is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_._publisherID_.rateLimit.burst=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.rateLimit.burst=_int_value_</code><p>
+	 * in case of the agent setting
+	 *
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the value shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public int getRateLimitBurstInSeconds(String agentID, String publisherID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+publisherID+".rateLimit.burst");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".rateLimit.burst", 1);
+	}
+
 	/**
 	 * This method returns the default sync frequency for the given agent. If that doesn't exist then
 	 * the defaultValue is returned.<p>
@@ -340,6 +1222,40 @@ public class SIFCommonProperties
 	{
 		return getPropertyAsString("agent." + agentID + ".workdir", null);
 	}
+
+	/**
+	 * Returns the JDBC driver class of the SCF database for the given agent. If no value is found then null
+	 * is returned. In this case the driver must register itself with the DriverManager.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_.scf.db.driver=_jdbc_driver_class_</code><p>
+	 *
+	 * @param agentID The agentID of the agent for which the driver shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public String getSCFDBDriver(String agentID)
+	{
+		return getPropertyAsString("agent." + agentID + ".scf.db.driver", null);
+	}
+
+	/**
+	 * Returns the JDBC URL of the SCF database for the given agent (i.e. jdbc:sqlite:DB/SCF.sqliteDB). If no
+	 * value is found then null is returned.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent._agentID_.scf.db.url=_jdbc_url_</code><p>
+	 *
+	 * @param agentID The agentID of the agent for which the URL shall be returned.
+	 *
+	 * @return See description.
+	 */
+	public String getSCFDBUrl(String agentID)
+	{
+		return getPropertyAsString("agent." + agentID + ".scf.db.url", null);
+	}
 	
 	/**
 	 * Returns the debug level for the given agent. If no value is found then DBG_NONE is returned.<p>
@@ -540,6 +1456,299 @@ public class SIFCommonProperties
 	{
 		return getPropertyAsInt("agent."+agentID+".consumer.numThreads" ,1);
 	}
+
+	/**
+	 * This method returns TRUE if the consumers of the given subscriber shall be partitioned by object key. 
+	 * Each consumer then has its own queue and all messages for the same SIF Object (same key as defined in 
+	 * SCF_OBJECT_KEY, the RefId by default) go to the same consumer, so they are processed in the order they 
+	 * have been received. Messages of a persistent queue that are outstanding when the number of consumers or
+	 * this value changes are moved to the queues of the new layout at the next start. If no such value exists 
+	 * for the subscriber then the agent's value is returned. If that doesn't exist either then FALSE is 
+	 * returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.consumer.partitioned=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.consumer.partitioned=true|false</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public boolean getConsumerPartitioned(String agentID, String subscriberID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+subscriberID+".consumer.partitioned");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".consumer.partitioned", false);
+	}
+
+	/**
+	 * This method returns the max number of messages a consumer of the given subscriber delivers at once to
+	 * the subscriber's processEvents() or processResponses() method. A value of 1 disables batching, so each
+	 * message is delivered to processEvent() or processResponse(). If no such value exists for the subscriber 
+	 * then the agent's value is returned. If that doesn't exist either then 1 is returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.consumer.batchSize=100</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.consumer.batchSize=100</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public int getConsumerBatchSize(String agentID, String subscriberID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+subscriberID+".consumer.batchSize");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".consumer.batchSize", 1);
+	}
+
+	/**
+	 * This method returns the max time in milliseconds a consumer of the given subscriber waits for further
+	 * messages after the first message of a batch before it delivers the batch that is not full yet. If no such value exists for the subscriber 
+	 * then the agent's value is returned. If that doesn't exist either then 100 is returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.consumer.batchLinger=100</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.consumer.batchLinger=100</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public int getConsumerBatchLinger(String agentID, String subscriberID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+subscriberID+".consumer.batchLinger");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".consumer.batchLinger", 100);
+	}
+
+	/**
+	 * This method returns how often a consumer of the given subscriber delivers the elements of a batch again
+	 * that the subscriber has reported as failed. Only the failed elements are delivered again. If no such 
+	 * value exists for the subscriber then the agent's value is returned. If that doesn't exist either then 
+	 * 0 is returned (no retries).<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.consumer.batchRetries=3</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.consumer.batchRetries=3</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public int getConsumerBatchRetries(String agentID, String subscriberID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+subscriberID+".consumer.batchRetries");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".consumer.batchRetries", 0);
+	}
+
+	/**
+	 * This method returns TRUE if the consumers of the given subscriber shall run in virtual threads instead
+	 * of platform threads. This allows for many consumers (consumer.numThreads) for I/O bound subscribers. It
+	 * requires Java 21 or later, otherwise platform threads are used. If no such value exists for the 
+	 * subscriber then the agent's value is returned. If that doesn't exist either then FALSE is returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.consumer.virtualThreads=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.consumer.virtualThreads=true|false</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public boolean getConsumerVirtualThreads(String agentID, String subscriberID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+subscriberID+".consumer.virtualThreads");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".consumer.virtualThreads", false);
+	}
+
+	/**
+	 * This method returns TRUE if the given publisher shall be scheduled in a virtual thread instead of a 
+	 * platform thread. This also applies to the zone lanes of the publisher. It requires Java 21 or later, 
+	 * otherwise platform threads are used. If no such value exists for the publisher then the agent's value 
+	 * is returned. If that doesn't exist either then FALSE is returned. If the agent is not multi-threaded
+	 * then all publishers share one scheduler and the agent's value applies.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._publisherID_.publisher.virtualThreads=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.publisher.virtualThreads=true|false</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param publisherID The publisherID of the publisher for which the value shall be returned. If null 
+	 *                    the agent's value is returned.
+	 * 
+	 * @return See description.
+	 */
+	public boolean getPublisherVirtualThreads(String agentID, String publisherID)
+	{
+		Boolean value = (publisherID == null) ? null : getPropertyAsBool("agent."+agentID+"."+publisherID+".publisher.virtualThreads");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".publisher.virtualThreads", false);
+	}
+
+	/**
+	 * This method returns the max number of messages the SubscriberQueue of the given subscriber holds in
+	 * memory. If no such value exists for the subscriber then the agent's value is returned. If that doesn't 
+	 * exist either then the given default is returned (the number of consumer threads).<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.queue.capacity=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.queue.capacity=_int_value_</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the capacity shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the capacity shall be returned.
+	 * @param defaultValue The value returned if the capacity is not set.
+	 * 
+	 * @return See description.
+	 */
+	public int getQueueCapacity(String agentID, String subscriberID, int defaultValue)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+subscriberID+".queue.capacity");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".queue.capacity", defaultValue);
+	}
+
+	/**
+	 * This method returns the max number of bytes of the messages the SubscriberQueue of the given subscriber 
+	 * holds in memory. The size of a message is the size of its XML. If no such value exists for the subscriber 
+	 * then the agent's value is returned. If that doesn't exist either then 0 is returned which means that 
+	 * only the capacity limits the queue.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.queue.maxBytes=_long_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.queue.maxBytes=_long_value_</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the byte budget shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the byte budget shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public long getQueueMaxBytes(String agentID, String subscriberID)
+	{
+		Long value = getPropertyAsLong("agent."+agentID+"."+subscriberID+".queue.maxBytes");
+		return (value != null) ? value.longValue() : getPropertyAsLong("agent."+agentID+".queue.maxBytes", 0);
+	}
+
+	/**
+	 * This method returns the low watermark of the SubscriberQueue of the given subscriber in percent of its 
+	 * capacity and byte budget. Spilled messages are read back once the queue has fallen to this watermark. If 
+	 * no such value exists for the subscriber then the agent's value is returned. If that doesn't exist either
+	 * then 50 is returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.queue.lowWatermark=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.queue.lowWatermark=_int_value_</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the low watermark shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the low watermark shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public int getQueueLowWatermarkPercent(String agentID, String subscriberID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+subscriberID+".queue.lowWatermark");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".queue.lowWatermark", 50);
+	}
+
+	/**
+	 * This method returns TRUE if the SubscriberQueue of the given subscriber shall write messages to spill 
+	 * files in the working directory of the agent when it is full instead of blocking the thread that has 
+	 * received them from the zone. Spilled messages are read back from their XML, so their message info only
+	 * holds the zone, SIF_Header, SIF Version, SIF_RequestMsgId and SIF_PacketNumber of the original message. If no such value 
+	 * exists for the subscriber then the agent's value is returned. If that doesn't exist either then FALSE is
+	 * returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.queue.spill=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.queue.spill=true|false</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public boolean getQueueSpill(String agentID, String subscriberID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+subscriberID+".queue.spill");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".queue.spill", false);
+	}
+
+	/**
+	 * This method returns TRUE if the SubscriberQueue of the given subscriber shall store its messages in the
+	 * working directory of the agent, so messages that haven't been processed are recovered after a restart. 
+	 * If no such value exists for the subscriber then the agent's value is returned. If that doesn't exist 
+	 * either then FALSE is returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.queue.persistent=true|false</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.queue.persistent=true|false</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the value shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the value shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public boolean getQueuePersistent(String agentID, String subscriberID)
+	{
+		Boolean value = getPropertyAsBool("agent."+agentID+"."+subscriberID+".queue.persistent");
+		return (value != null) ? value.booleanValue() : getPropertyAsBool("agent."+agentID+".queue.persistent", false);
+	}
+
+	/**
+	 * This method returns the size in bytes of the segment files of a persistent SubscriberQueue of the given
+	 * subscriber. If no such value exists for the subscriber then the agent's value is returned. If that 
+	 * doesn't exist either then 4194304 (4MB) is returned.<p>
+	 * 
+	 * The property that this method attempts to access must have the following structure:<p>
+	 * 
+	 * <code>agent._agentID_._subscriberID_.queue.segmentSize=_int_value_</code><p>
+	 * or<p>
+	 * <code>agent._agentID_.queue.segmentSize=_int_value_</code><p>
+	 * in case of the agent setting
+	 * 
+	 * @param agentID The agentID of the agent for which the segment size shall be returned.
+	 * @param subscriberID The subscriberID of the subscriber for which the segment size shall be returned.
+	 * 
+	 * @return See description.
+	 */
+	public int getQueueSegmentSize(String agentID, String subscriberID)
+	{
+		Integer value = getPropertyAsInt("agent."+agentID+"."+subscriberID+".queue.segmentSize");
+		return (value != null) ? value.intValue() : getPropertyAsInt("agent."+agentID+".queue.segmentSize", 4194304);
+	}
 	
 	/**
 	 * This method returns the values of the SIFCommon Framework Property file as a property structure. This
@@ -559,6 +1768,18 @@ public class SIFCommonProperties
     /*------------------------*/
     /*-- Experimental stuff --*/
     /*------------------------*/
+	/**
+	 * Returns the global event batch size. This is only used if no batch size is set for an agent or
+	 * publisher.<p>
+	 *
+	 * The property that this method attempts to access must have the following structure:<p>
+	 *
+	 * <code>agent.eventBatchSize=_int_value_</code><p>
+	 *
+	 * @see #getEventBatchSize(String, String)
+	 *
+	 * @return See description.
+	 */
 	public int getEventBatchSize()
 	{
 		return getPropertyAsInt("agent.eventBatchSize", 1);
@@ -637,6 +1858,38 @@ public class SIFCommonProperties
 		return (integer == null) ? defaultValue : integer.intValue();
 	}
 
+	/**
+	 * Returns the given property as a Long object. If it doesn't exist or is not a Long then null is
+	 * returned.
+	 */
+	public Long getPropertyAsLong(String propertyName)
+	{
+		if (properties != null)
+		{
+			String stringVal = properties.getProperty(propertyName);
+			if (stringVal != null)
+			{
+				try
+				{
+					return Long.valueOf(stringVal);
+				}
+				catch (Exception ex)
+				{}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the given property as a long. If it doesn't exist or is not a Long then the default value
+	 * is returned.
+	 */
+	public long getPropertyAsLong(String propertyName, long defaultValue)
+	{
+		Long value = getPropertyAsLong(propertyName);
+		return (value == null) ? defaultValue : value.longValue();
+	}
+
 	
 	/**
 	 * Returns the given property as a boolean object. If it doesn't exist or is not a boolean then null is
@@ -0,0 +1,100 @@
+/*
+* Copyright 2010-2011 Systemic Pty Ltd
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software distributed under the License
+* is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+* or implied.
+* See the License for the specific language governing permissions and limitations under the License.
+*/
+package systemic.sif.sifcommon.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import openadk.library.ADK;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class creates the thread factories for the executors of the framework. If virtual threads are
+ * requested and the JVM supports them (Java 21 or later) then the threads are virtual threads, otherwise
+ * they are platform threads. Virtual threads are created through reflection because the framework is built
+ * for older Java versions.<p>
+ *
+ * Virtual threads are cheap to create and to block, so an I/O bound subscriber can run hundreds of consumers.
+ * Note that a virtual thread pins its carrier thread while it blocks inside a synchronized block. Code that
+ * runs in a virtual thread and blocks while holding a lock (i.e. waits for a DB or a zone) should therefore
+ * use a java.util.concurrent lock instead.
+ *
+ * @author Joerg Huber
+ */
+public class VirtualThreads
+{
+	private static Logger logger = ADK.getLog();
+
+	private static Boolean supported = null;
+
+	/**
+	 * Returns TRUE if the JVM supports virtual threads.
+	 */
+	public static synchronized boolean isSupported()
+	{
+		if (supported == null)
+		{
+			supported = Boolean.valueOf(createVirtualThreadFactory("probe") != null);
+		}
+		return supported.booleanValue();
+	}
+
+	/**
+	 * Returns a thread factory for the given mode. If 'virtual' is TRUE and the JVM supports virtual threads
+	 * then the factory creates virtual threads named '_name_1', '_name_2' etc. Otherwise the default factory
+	 * for platform threads is returned.
+	 *
+	 * @param name The prefix of the names of the virtual threads.
+	 * @param virtual TRUE if virtual threads are requested.
+	 *
+	 * @return See description.
+	 */
+	public static ThreadFactory getThreadFactory(String name, boolean virtual)
+	{
+		if (virtual)
+		{
+			ThreadFactory factory = isSupported() ? createVirtualThreadFactory(name) : null;
+			if (factory != null)
+			{
+				return factory;
+			}
+			logger.info("Virtual threads are not supported by this JVM (Java "+System.getProperty("java.version")+"). "+name.trim()+" uses platform threads.");
+		}
+		return Executors.defaultThreadFactory();
+	}
+
+	/*-----------------*/
+	/* Private methods */
+	/*-----------------*/
+	/*
+	 * Returns Thread.ofVirtual().name(name, 1).factory() or null if virtual threads are not available. The
+	 * methods are looked up on the public interface Thread.Builder because the builder class is not public.
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String name)
+	{
+		try
+		{
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, Long.valueOf(1));
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		}
+		catch (Throwable ex) // Not available or preview feature not enabled
+		{
+			return null;
+		}
+	}
+}